@@ -0,0 +1,537 @@
+package clusteringbasedfragmentation;
+
+import clusteringbasedfragmentation.assignment.ModuloAssignmentStrategy;
+import clusteringbasedfragmentation.assignment.PartitionAssignmentStrategy;
+import clusteringbasedfragmentation.assignment.SimilarityAwareBackupPlacement;
+import clusteringbasedfragmentation.similarityfunctions.IndexedSimilarityFunction;
+import clusteringbasedfragmentation.similarityfunctions.MeSHSimilarityFunction;
+import materializedfragments.FragIDKey;
+import materializedfragments.IllKey;
+import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.binary.BinaryType;
+import org.apache.ignite.cache.affinity.AffinityFunction;
+import org.apache.ignite.cache.affinity.AffinityFunctionContext;
+import org.apache.ignite.cluster.ClusterNode;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>
+ * Base class of the affinity functions of the clustering-based fragmentation. The i-th cluster of a clustering is
+ * stored in the partitions i * subPartitions, ..., (i + 1) * subPartitions - 1 (the sub-partition of an entry is
+ * selected by the person id). The partitions are mapped to the nodes by a {@link PartitionAssignmentStrategy} and
+ * the backups are placed by the {@link SimilarityAwareBackupPlacement}. </p>
+ * <p>
+ * Subclasses provide the clustering: the {@link ClusteringAffinityFunction} holds the full clustering and its
+ * similarity function, the {@link CompactClusteringAffinityFunction} only the term to cluster mapping. The query
+ * classes (e.g. {@link rewriting.QueryRewriter}) work with both. </p>
+ */
+public abstract class AbstractClusteringAffinityFunction implements AffinityFunction, Serializable {
+
+    private static final long serialVersionUID = -5520483374216655208L;
+
+    /**
+     * Strategy to map the partitions to the nodes of the cluster
+     */
+    private PartitionAssignmentStrategy assignmentStrategy = new ModuloAssignmentStrategy();
+
+    /**
+     * Stores the partition assignment of the cluster (null if no partitions are assigned yet)
+     */
+    private transient volatile List<List<ClusterNode>> partitionAssignment;
+
+    /**
+     * Accessors for the partitioning field of binary keys per binary type id (initialized lazily,
+     * see {@link AbstractClusteringAffinityFunction#partition(Object)})
+     */
+    private transient volatile ConcurrentHashMap<Integer, BinaryKeyField> binaryKeyFields;
+
+
+//##################### Clustering ######################
+
+    /**
+     * Get the number of clusters.
+     *
+     * @return Number of clusters
+     */
+    public abstract int numberOfClusters();
+
+    /**
+     * Get the number of sub-partitions of each cluster.
+     *
+     * @return Number of sub-partitions per cluster
+     */
+    public abstract int getSubPartitions();
+
+    /**
+     * Get the head of a cluster.
+     *
+     * @param cluster Number of the cluster
+     * @return Head term
+     */
+    public abstract String getHead(int cluster);
+
+    /**
+     * Get the number of terms of a cluster (including its head).
+     *
+     * @param cluster Number of the cluster
+     * @return Number of terms
+     */
+    public abstract int clusterSize(int cluster);
+
+    /**
+     * Get the terms of the active domain.
+     *
+     * @return List of terms
+     */
+    public abstract ArrayList<String> getTerms();
+
+    /**
+     * Identify the cluster of a term.
+     *
+     * @param term The term to match to a cluster
+     * @return Number of the cluster (-1 if no cluster could be identified)
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
+     */
+    public abstract int identifyCluster(String term) throws SimilarityException;
+
+    /**
+     * Get the pairwise similarities of the cluster heads (e.g. for the {@link SimilarityAwareBackupPlacement}).
+     * They are calculated when the clustering is built or loaded (or read from a binary clustering file, see
+     * {@link ClusteringFile#migrate(String, String, MeSHSimilarityFunction)}), never during the partition
+     * assignment, which Ignite runs on the partition exchange thread.
+     *
+     * @return Matrix of head similarities indexed by cluster numbers (null if not available, the backups are then
+     * only balanced over the nodes)
+     */
+    public abstract double[][] getHeadSimilarities();
+
+    /**
+     * Get the similarity function to compare terms with the cluster heads.
+     *
+     * @return Similarity function (null if there is none)
+     */
+    public abstract MeSHSimilarityFunction getSimilarityFunction();
+
+    /**
+     * Get the concept unique identifier (CUI) of a given MeSH term if known.
+     *
+     * @param diseaseTerm MeSH disease term
+     * @return CUI of given term or "" if unknown
+     */
+    public String getCUI(String diseaseTerm) {
+        return "";
+    }
+
+
+//##################### Overwritten Methods ######################
+
+    /**
+     * Reset the affinity function: discards the current partition assignment (and the state of the assignment
+     * strategy, if any).
+     */
+    @Override
+    public void reset() {
+        this.partitionAssignment = null;
+        this.assignmentStrategy.reset();
+    }
+
+    /**
+     * Remove a node that left the topology from the current partition assignment (and from the state of the
+     * assignment strategy, if any), so that it is not reported as owner of a partition anymore.
+     *
+     * @param nodeId Id of the node
+     */
+    @Override
+    public void removeNode(UUID nodeId) {
+        List<List<ClusterNode>> assignment = this.partitionAssignment;
+        if (assignment != null) {
+            List<List<ClusterNode>> result = new ArrayList<>(assignment.size());
+            for (List<ClusterNode> nodes : assignment) {
+                List<ClusterNode> remaining = new ArrayList<>(nodes.size());
+                for (ClusterNode node : nodes)
+                    if (!node.id().equals(nodeId))
+                        remaining.add(node);
+                result.add(remaining);
+            }
+            this.partitionAssignment = result;
+        }
+        this.assignmentStrategy.removeNode(nodeId);
+    }
+
+    /**
+     * Gets the total number of partitions, i.e. the number of clusters times the number of sub-partitions per
+     * cluster. There should be at least as much partitions as nodes, so that each node can host at least one
+     * partition.
+     *
+     * @return Number of Partitions
+     */
+    @Override
+    public int partitions() {
+        return numberOfClusters() * getSubPartitions();
+    }
+
+    /**
+     * Returns the partition mapping for the given key.
+     * See {@link AffinityFunction#partition(Object)} for more details.
+     *
+     * @param key Key
+     * @return Partition number
+     */
+    @Override
+    public int partition(Object key) {
+
+        if (key == null)
+            throw new IllegalArgumentException("The key passed to the AffinityFunction's method " +
+                    "partition(Object key) was null.");
+
+        // If the key is of type BinaryObject, read the partitioning field without deserialization if possible,
+        // otherwise deserialize it first
+        if (key instanceof BinaryObject) {
+            BinaryObject binary = (BinaryObject) key;
+            BinaryKeyField keyField = getBinaryKeyField(binary);
+            if (keyField.field != null) {
+                Object value = keyField.field.value(binary);
+                Object id = getSubPartitions() > 1 ? keyField.idField.value(binary) : null;
+                if (value instanceof String && (id == null || id instanceof Integer))
+                    return this.partitionOfDisease((String) value, (Integer) id);
+                if (value instanceof Integer && (id == null || id instanceof Integer))
+                    return this.partitionOf((Integer) value, (Integer) id);
+            }
+            key = binary.deserialize();
+        }
+
+
+        // If the key is of type IllKey, find the partition based on the clustering (i-th cluster = i-th partition)
+        // If the key is of type FragIDKey, find the partition based on the derived fragmentation (contained in key)
+        // Within the cluster, the sub-partition is determined by the person id
+        if (key instanceof IllKey) {
+            IllKey illKey = (IllKey) key;
+            return this.partitionOfDisease(illKey.getDisease(), illKey.getId());
+        }
+        if (key instanceof FragIDKey) {
+            FragIDKey fragIDKey = (FragIDKey) key;
+            return this.partitionOf(fragIDKey.getFragID(), fragIDKey.getId());
+        }
+
+        throw new IllegalArgumentException("ERROR: The key object " + key + " is of some other type: "
+                + key.getClass() + "!");
+
+    }
+
+    /**
+     * This function maps all the partitions of this cache to nodes of the cluster. The outer list
+     * of the returned nested lists is indexed by the partition number and stores the mapping of that
+     * partition to a list of nodes of the cluster (inner lists).
+     * The primary nodes are computed by the {@link PartitionAssignmentStrategy} of this affinity function
+     * (by default {@link ModuloAssignmentStrategy}, see {@link AbstractClusteringAffinityFunction#assignPartition(int, List)}).
+     * If backups are configured for the cache, the primary node of a partition is followed by its backup nodes, which
+     * are placed by the {@link SimilarityAwareBackupPlacement}. Whether reads are also served by the backup nodes is
+     * controlled by the cache property "readFromBackup" in the Spring XML configuration (see
+     * {@link org.apache.ignite.configuration.CacheConfiguration#setReadFromBackup(boolean)}, default: true): a node
+     * then reads the partitions it stores as backup locally, e.g. for queries restricted to the partitions of the
+     * neighboring clusters.
+     *
+     * @param affCtx Context to be passed to the function automatically. For details see {@link AffinityFunction}.
+     * @return Assignment of partitions to nodes
+     */
+    @Override
+    public List<List<ClusterNode>> assignPartitions(AffinityFunctionContext affCtx) {
+        if (affCtx == null)
+            throw new IllegalArgumentException("AffinityFunctionContext passed to the AffinityFunction's method " +
+                    "assignPartitions(AffinityFunctionContext affCtx) was null.");
+
+        // Resulting list maps each partition to a list of nodes (primary node first, then backup nodes)
+        List<List<ClusterNode>> primaries = this.assignmentStrategy.assignPartitions(this, affCtx);
+        List<List<ClusterNode>> assignment = SimilarityAwareBackupPlacement.addBackups(this, primaries,
+                affCtx.currentTopologySnapshot(), affCtx.backups());
+        this.partitionAssignment = assignment;
+        return assignment;
+    }
+
+
+//##################### Partitions ######################
+
+    /**
+     * Get the partition of an ILL entry with the given disease (see
+     * {@link AbstractClusteringAffinityFunction#identifyCluster(String)}) and person id.
+     *
+     * @param disease Disease term of the key
+     * @param id      Person id of the key
+     * @return Partition number or -1 if the term has no cluster or an error occurred during similarity calculation
+     */
+    private int partitionOfDisease(String disease, Integer id) {
+        try {
+            int cluster = this.identifyCluster(disease);
+            return cluster < 0 ? -1 : this.partitionOf(cluster, id);
+        } catch (SimilarityException e) {
+            e.printStackTrace();
+            return -1;
+        }
+    }
+
+    /**
+     * Get the partition of an entry of a cluster: the sub-partition of the cluster is selected by the hash of the
+     * person id, so that all entries of a person within a cluster (ILL, INFO and TREAT) are collocated.
+     *
+     * @param cluster Number of the cluster (see {@link AbstractClusteringAffinityFunction#identifyCluster(String)})
+     * @param id      Person id (null = first sub-partition of the cluster)
+     * @return Partition number
+     */
+    public int partitionOf(int cluster, Integer id) {
+        return partitionOf(cluster, id, getSubPartitions());
+    }
+
+    /**
+     * Get the partition of an entry of a cluster with the given number of sub-partitions per cluster
+     * (see {@link AbstractClusteringAffinityFunction#partitionOf(int, Integer)}).
+     *
+     * @param cluster       Number of the cluster
+     * @param id            Person id (null = first sub-partition of the cluster)
+     * @param subPartitions Number of sub-partitions per cluster
+     * @return Partition number
+     */
+    static int partitionOf(int cluster, Integer id, int subPartitions) {
+        if (subPartitions == 1 || id == null)
+            return cluster * subPartitions;
+        int h = id * 0x9E3779B9;
+        h ^= (h >>> 16);
+        return cluster * subPartitions + Math.floorMod(h, subPartitions);
+    }
+
+    /**
+     * Get all partitions of a cluster, e.g. to restrict a query with a selection on the relaxation attribute
+     * to the partitions of the cluster.
+     *
+     * @param cluster Number of the cluster (see {@link AbstractClusteringAffinityFunction#identifyCluster(String)})
+     * @return Partition numbers of the sub-partitions of the cluster
+     */
+    public int[] getPartitionsOfCluster(int cluster) {
+        int subPartitions = getSubPartitions();
+        int[] partitions = new int[subPartitions];
+        for (int i = 0; i < subPartitions; i++)
+            partitions[i] = cluster * subPartitions + i;
+        return partitions;
+    }
+
+    /**
+     * Get the cluster whose data is stored in a partition.
+     *
+     * @param partition Partition number
+     * @return Number of the cluster (the sub-partitions of a cluster are stored in consecutive partitions)
+     */
+    public int clusterOfPartition(int partition) {
+        return partition / getSubPartitions();
+    }
+
+    /**
+     * Get the super-cluster whose data is stored in a partition (see {@link HierarchicalClustering}).
+     *
+     * @param partition Partition number
+     * @return Number of the super-cluster (the cluster of the partition for a flat clustering)
+     */
+    public int superClusterOfPartition(int partition) {
+        return clusterOfPartition(partition);
+    }
+
+    /**
+     * Get the clusters (sub-clusters) of a super-cluster, e.g. to relax a query on the materialized fragments from
+     * the fragment of a term to the fragments of its super-cluster.
+     *
+     * @param superCluster Number of the super-cluster (see {@link AbstractClusteringAffinityFunction#identifySuperCluster(String)})
+     * @return Consecutive cluster numbers (only the cluster itself for a flat clustering)
+     */
+    public int[] getClustersOfSuperCluster(int superCluster) {
+        return new int[]{superCluster};
+    }
+
+    /**
+     * Get all partitions of a super-cluster, i.e. the partitions of all its sub-clusters, e.g. to relax a query
+     * from the sub-cluster of a term to its super-cluster.
+     *
+     * @param superCluster Number of the super-cluster (see {@link AbstractClusteringAffinityFunction#identifySuperCluster(String)})
+     * @return Consecutive partition numbers (the partitions of the cluster for a flat clustering)
+     */
+    public int[] getPartitionsOfSuperCluster(int superCluster) {
+        int[] clusters = getClustersOfSuperCluster(superCluster);
+        int subPartitions = getSubPartitions();
+        int[] partitions = new int[clusters.length * subPartitions];
+        for (int i = 0; i < partitions.length; i++)
+            partitions[i] = clusters[0] * subPartitions + i;
+        return partitions;
+    }
+
+    /**
+     * Identify the super-cluster of a term (see {@link AbstractClusteringAffinityFunction#identifyCluster(String)}).
+     *
+     * @param term The term to match to a super-cluster
+     * @return Number of the super-cluster (the cluster of the term for a flat clustering)
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
+     */
+    public int identifySuperCluster(String term) throws SimilarityException {
+        return identifyCluster(term);
+    }
+
+
+//##################### Nodes ######################
+
+    /**
+     * Assign a certain partition to a certain (primary) node in the cluster (used by the
+     * {@link ModuloAssignmentStrategy}). Backup nodes are added by the {@link SimilarityAwareBackupPlacement}.
+     *
+     * @param partition The number of the partition to assign to a node
+     * @param allNodes  A list of all nodes in the cluster, can be provided by e.g.
+     *                  {@link AffinityFunctionContext#currentTopologySnapshot()}
+     * @return List of cluster nodes (containing only the primary node) to which the partition is mapped
+     */
+    public List<ClusterNode> assignPartition(int partition, List<ClusterNode> allNodes) {
+        /* (assuming i partitions and k nodes, k <= i)
+           The i-th partition is assigned to the (i % k)-th node
+           Example: 2 Nodes
+                - partition 0 with respiratory diseases --> node 0, partition 1 with fractures --> node 1
+        */
+        List<ClusterNode> result = new ArrayList<>();
+        result.add(allNodes.get(partition % allNodes.size()));
+        return result;
+    }
+
+    /**
+     * Get the corresponding (primary) node for a given partition
+     *
+     * @param partition Partition number
+     * @return Node storing that partition (null if no partitions are assigned or the node left the topology)
+     */
+    public ClusterNode getNodeOfPartition(int partition) {
+        List<List<ClusterNode>> assignment = this.partitionAssignment;
+        if (assignment == null || assignment.get(partition).isEmpty())
+            return null;
+        return assignment.get(partition).get(0);
+    }
+
+    /**
+     * Get all nodes storing a partition (primary node first, then the backup nodes).
+     *
+     * @param partition Partition number
+     * @return Nodes storing that partition (empty if no partitions are assigned)
+     */
+    public List<ClusterNode> getNodesOfPartition(int partition) {
+        List<List<ClusterNode>> assignment = this.partitionAssignment;
+        if (assignment == null)
+            return new ArrayList<>();
+        return assignment.get(partition);
+    }
+
+    /**
+     * Check whether the partitions are assigned to nodes, i.e. whether the number of partitions is fixed
+     * (see {@link AffinityFunction#assignPartitions(AffinityFunctionContext)}).
+     *
+     * @return True if the partitions are assigned
+     */
+    protected boolean isAssigned() {
+        return this.partitionAssignment != null;
+    }
+
+
+//##################### Helpers ######################
+
+    /**
+     * Get the accessor for the partitioning field of a binary key: {@link IllKey#getDisease()} for ILL keys and
+     * {@link FragIDKey#getFragID()} for keys of the derived fragmentation, as well as the person id for the
+     * sub-partition. The accessor is resolved once per binary type.
+     *
+     * @param binary Binary key
+     * @return Accessor of the partitioning field (without field if the type is no known key type)
+     */
+    private BinaryKeyField getBinaryKeyField(BinaryObject binary) {
+        ConcurrentHashMap<Integer, BinaryKeyField> fields = this.binaryKeyFields;
+        if (fields == null) {
+            fields = new ConcurrentHashMap<>();
+            this.binaryKeyFields = fields;
+        }
+
+        BinaryType type = binary.type();
+        BinaryKeyField keyField = fields.get(type.typeId());
+        if (keyField == null) {
+            keyField = BinaryKeyField.of(type);
+            fields.put(type.typeId(), keyField);
+        }
+        return keyField;
+    }
+
+    /**
+     * Calculate the pairwise similarities of cluster heads.
+     *
+     * @param similarityFunction Similarity function (null = all heads are dissimilar)
+     * @param heads              Heads of the clusters (i-th head = head of the i-th cluster)
+     * @return Matrix of head similarities indexed by cluster numbers
+     * @throws SimilarityException Thrown if the similarity of two heads cannot be calculated
+     */
+    static double[][] headSimilarities(MeSHSimilarityFunction similarityFunction, String[] heads)
+            throws SimilarityException {
+        int k = heads.length;
+        double[][] similarities = new double[k][k];
+        for (int i = 0; i < k; i++) {
+            similarities[i][i] = 1.0;
+            for (int j = 0; j < i && similarityFunction != null; j++) {
+                double sim;
+                try {
+                    sim = similarityFunction.similarity(heads[i], heads[j]);
+                } catch (SimilarityException e) {
+                    throw new SimilarityException("The similarity of the heads '" + heads[i] + "' and '" + heads[j]
+                            + "' could not be calculated: " + e.getMessage(), e);
+                }
+                similarities[i][j] = sim;
+                similarities[j][i] = sim;
+            }
+        }
+        return similarities;
+    }
+
+    /**
+     * Calculate the pairwise similarities of the cluster heads of a loaded clustering if the similarity function
+     * holds the similarities locally ({@link IndexedSimilarityFunction}). Other similarity functions (e.g. a
+     * {@link clusteringbasedfragmentation.similarityfunctions.SimTableSimilarity} on a cache) may not be available
+     * yet when the clustering is loaded, e.g. in the Spring XML configuration; their head similarities have to be
+     * stored in the binary clustering file
+     * (see {@link ClusteringFile#migrate(String, String, MeSHSimilarityFunction)}).
+     *
+     * @param similarityFunction Similarity function (may be null)
+     * @param heads              Heads of the clusters (i-th head = head of the i-th cluster)
+     * @return Matrix of head similarities indexed by cluster numbers (null for other similarity functions)
+     * @throws SimilarityException Thrown if the similarity of two heads cannot be calculated
+     */
+    static double[][] localHeadSimilarities(MeSHSimilarityFunction similarityFunction, String[] heads)
+            throws SimilarityException {
+        return similarityFunction instanceof IndexedSimilarityFunction
+                ? headSimilarities(similarityFunction, heads) : null;
+    }
+
+
+//################################# Getter & Setter  ########################################
+
+    /**
+     * Get the strategy to map the partitions to the nodes of the cluster
+     *
+     * @return Assignment strategy
+     */
+    public PartitionAssignmentStrategy getAssignmentStrategy() {
+        return assignmentStrategy;
+    }
+
+    /**
+     * Set the strategy to map the partitions to the nodes of the cluster
+     * (e.g. by the property "assignmentStrategy" in the Spring XML configuration).
+     *
+     * @param assignmentStrategy Assignment strategy
+     * @return {@code This} for chaining
+     */
+    public AbstractClusteringAffinityFunction setAssignmentStrategy(PartitionAssignmentStrategy assignmentStrategy) {
+        this.assignmentStrategy = assignmentStrategy;
+        return this;
+    }
+
+}
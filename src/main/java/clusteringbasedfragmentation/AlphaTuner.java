@@ -0,0 +1,455 @@
+package clusteringbasedfragmentation;
+
+import clusteringbasedfragmentation.similarityfunctions.MeSHSimilarityFunction;
+import clusteringbasedfragmentation.similarityfunctions.PathLengthSimilarity;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>
+ * Selects the similarity threshold alpha of the clustering-based fragmentation automatically, so that the number of
+ * clusters (i.e. partitions) matches a target (number of nodes times partitions per node) and the clusters are
+ * balanced (maximal cluster size divided by the average cluster size is at most a given skew). </p>
+ * <p>
+ * As the clustering procedure is greedy (see {@link ClusteringSweep}), all thresholds are probed in a single run:
+ * after each step, the number of clusters and their sizes are those of the clustering for alpha = sim_min of
+ * that step. The run stops when the number of clusters exceeds twice the target. The clusters of the best probe
+ * so far are kept, so the selected clustering needs no additional run. </p>
+ */
+public class AlphaTuner {
+
+    /**
+     * Number of nodes of the cluster
+     */
+    private int nodes;
+
+    /**
+     * Desired number of partitions per node
+     */
+    private int partitionsPerNode = 1;
+
+    /**
+     * Maximal skew of the cluster sizes (maximal size / average size)
+     */
+    private double maxSkew = Double.POSITIVE_INFINITY;
+
+    /**
+     * Number of threads of the clustering procedure (1 = sequential)
+     */
+    private int parallelism = 1;
+
+
+    /**
+     * Tuner for the given number of nodes (one partition per node, no skew limit).
+     *
+     * @param nodes Number of nodes
+     */
+    public AlphaTuner(int nodes) {
+        if (nodes < 1)
+            throw new IllegalArgumentException("The number of nodes must be at least 1: " + nodes);
+        this.nodes = nodes;
+    }
+
+
+    /**
+     * Probe the similarity thresholds and select the best one: the clustering must have at least one partition
+     * per node, among the probes with a skew of at most the maximal skew the one closest to the target number of
+     * partitions is selected (ties: smaller skew). If no probe satisfies the skew limit, the probe with the
+     * smallest skew is selected.
+     *
+     * @param similarityFunction Similarity function (provides the active domain)
+     * @return Selected threshold, its clustering and the statistics of all probes
+     * @throws SimilarityException Error on similarity calculation
+     */
+    public Result tune(MeSHSimilarityFunction similarityFunction) throws SimilarityException {
+        int target = nodes * partitionsPerNode;
+        System.out.println("Starting alpha tuning for " + target + " partitions (" + nodes + " nodes x "
+                + partitionsPerNode + " partitions) with maximal skew " + maxSkew + " ...");
+        long time = System.nanoTime();
+
+        ArrayList<String> activeDomain = new ArrayList<>(similarityFunction.getTerms());
+        if (activeDomain.isEmpty())
+            throw new IllegalArgumentException("The active domain is empty.");
+        int numTerms = activeDomain.size();
+
+        List<Probe> probes = new ArrayList<>();
+        Probe best = null;
+        ArrayList<Cluster<String>> bestClusters = null;
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            ClusteringProcess process = new ClusteringProcess(activeDomain, similarityFunction, pool);
+            double previous = Double.NaN;
+            while (process.size() <= 2 * target && process.size() < numTerms) {
+
+                // First step with this sim_min: clustering for alpha = sim_min
+                double simMin = process.getSimMin();
+                if (simMin != previous) {
+                    Probe probe = new Probe(simMin, process.getClusterSizes(), numTerms);
+                    probes.add(probe);
+                    if (probe.clusters >= nodes && isBetter(probe, best, target)) {
+                        best = probe;
+                        bestClusters = process.getClusters();
+                    }
+                    previous = simMin;
+                }
+                if (simMin >= 1.0)
+                    break;
+                process.step();
+            }
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+
+        time = System.nanoTime() - time;
+        System.out.println("Finished alpha tuning in " + time / 1000000000.0 + " seconds (" + probes.size()
+                + " probes)!");
+        if (best == null)
+            throw new IllegalStateException("No clustering with at least " + nodes + " clusters exists.");
+
+        Clustering clustering = new Clustering().setClusters(bestClusters).setAlpha(best.alpha)
+                .setSimilarityFunction(similarityFunction);
+        return new Result(best, clustering, probes, target);
+    }
+
+    /**
+     * Compare a probe with the best probe so far.
+     *
+     * @param probe  Probe
+     * @param best   Best probe so far (null if none)
+     * @param target Target number of partitions
+     * @return True if the probe is better
+     */
+    private boolean isBetter(Probe probe, Probe best, int target) {
+        if (best == null)
+            return true;
+        boolean balanced = probe.skew <= maxSkew;
+        boolean bestBalanced = best.skew <= maxSkew;
+        if (balanced != bestBalanced)
+            return balanced;
+        if (!balanced)
+            return probe.skew < best.skew;
+        int distance = Math.abs(probe.clusters - target);
+        int bestDistance = Math.abs(best.clusters - target);
+        return distance < bestDistance || distance == bestDistance && probe.skew < best.skew;
+    }
+
+
+    /**
+     * Statistics of the clustering for one threshold.
+     */
+    public static final class Probe {
+
+        /**
+         * Similarity threshold
+         */
+        private final double alpha;
+
+        /**
+         * Number of clusters
+         */
+        private final int clusters;
+
+        /**
+         * Size of the largest cluster
+         */
+        private final int maxSize;
+
+        /**
+         * Size of the smallest cluster
+         */
+        private final int minSize;
+
+        /**
+         * Maximal cluster size divided by the average cluster size
+         */
+        private final double skew;
+
+        private Probe(double alpha, int[] sizes, int numTerms) {
+            this.alpha = alpha;
+            this.clusters = sizes.length;
+            int max = 0, min = numTerms;
+            for (int size : sizes) {
+                max = Math.max(max, size);
+                min = Math.min(min, size);
+            }
+            this.maxSize = max;
+            this.minSize = min;
+            this.skew = max / ((double) numTerms / clusters);
+        }
+
+        /**
+         * Get the similarity threshold
+         *
+         * @return Alpha
+         */
+        public double getAlpha() {
+            return alpha;
+        }
+
+        /**
+         * Get the number of clusters
+         *
+         * @return Number of clusters
+         */
+        public int getClusters() {
+            return clusters;
+        }
+
+        /**
+         * Get the size of the largest cluster
+         *
+         * @return Number of terms of the largest cluster
+         */
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * Get the size of the smallest cluster
+         *
+         * @return Number of terms of the smallest cluster
+         */
+        public int getMinSize() {
+            return minSize;
+        }
+
+        /**
+         * Get the skew of the cluster sizes
+         *
+         * @return Maximal cluster size / average cluster size
+         */
+        public double getSkew() {
+            return skew;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("alpha = %.6f | clusters = %4d | min/max size = %d/%d | skew = %.2f",
+                    alpha, clusters, minSize, maxSize, skew);
+        }
+    }
+
+
+    /**
+     * Result of the tuning: selected threshold, its clustering and all probes.
+     */
+    public static final class Result {
+
+        /**
+         * Selected probe
+         */
+        private final Probe selected;
+
+        /**
+         * Clustering of the selected probe
+         */
+        private final Clustering clustering;
+
+        /**
+         * All probes in increasing order of alpha
+         */
+        private final List<Probe> probes;
+
+        /**
+         * Target number of partitions
+         */
+        private final int target;
+
+        private Result(Probe selected, Clustering clustering, List<Probe> probes, int target) {
+            this.selected = selected;
+            this.clustering = clustering;
+            this.probes = Collections.unmodifiableList(probes);
+            this.target = target;
+        }
+
+        /**
+         * Get the selected similarity threshold
+         *
+         * @return Alpha
+         */
+        public double getAlpha() {
+            return selected.alpha;
+        }
+
+        /**
+         * Get the statistics of the selected threshold
+         *
+         * @return Selected probe
+         */
+        public Probe getSelected() {
+            return selected;
+        }
+
+        /**
+         * Get the clustering of the selected threshold
+         *
+         * @return Clustering
+         */
+        public Clustering getClustering() {
+            return clustering;
+        }
+
+        /**
+         * Get the statistics of all probed thresholds
+         *
+         * @return Probes in increasing order of alpha
+         */
+        public List<Probe> getProbes() {
+            return probes;
+        }
+
+        /**
+         * Get the statistics report of the tuning.
+         *
+         * @return Report
+         */
+        public String getReport() {
+            StringBuilder report = new StringBuilder();
+            report.append("##### Alpha tuning for ").append(target).append(" partitions:\n");
+            report.append(" - Selected: ").append(selected).append('\n');
+            report.append(" - Probes:\n");
+            for (Probe probe : probes)
+                report.append(probe == selected ? "   * " : "     ").append(probe).append('\n');
+            report.append("#####\n");
+            return report.toString();
+        }
+
+        @Override
+        public String toString() {
+            return getReport();
+        }
+    }
+
+
+//##################### Getter & Setter ######################
+
+    /**
+     * Get the number of nodes
+     *
+     * @return Number of nodes
+     */
+    public int getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Set the number of nodes
+     *
+     * @param nodes Number of nodes
+     * @return {@code This} for chaining
+     */
+    public AlphaTuner setNodes(int nodes) {
+        if (nodes < 1)
+            throw new IllegalArgumentException("The number of nodes must be at least 1: " + nodes);
+        this.nodes = nodes;
+        return this;
+    }
+
+    /**
+     * Get the desired number of partitions per node
+     *
+     * @return Partitions per node
+     */
+    public int getPartitionsPerNode() {
+        return partitionsPerNode;
+    }
+
+    /**
+     * Set the desired number of partitions per node
+     *
+     * @param partitionsPerNode Partitions per node
+     * @return {@code This} for chaining
+     */
+    public AlphaTuner setPartitionsPerNode(int partitionsPerNode) {
+        if (partitionsPerNode < 1)
+            throw new IllegalArgumentException("The number of partitions per node must be at least 1: "
+                    + partitionsPerNode);
+        this.partitionsPerNode = partitionsPerNode;
+        return this;
+    }
+
+    /**
+     * Get the maximal skew of the cluster sizes
+     *
+     * @return Maximal skew (maximal size / average size)
+     */
+    public double getMaxSkew() {
+        return maxSkew;
+    }
+
+    /**
+     * Set the maximal skew of the cluster sizes
+     *
+     * @param maxSkew Maximal skew (maximal size / average size, at least 1)
+     * @return {@code This} for chaining
+     */
+    public AlphaTuner setMaxSkew(double maxSkew) {
+        if (maxSkew < 1)
+            throw new IllegalArgumentException("The maximal skew must be at least 1: " + maxSkew);
+        this.maxSkew = maxSkew;
+        return this;
+    }
+
+    /**
+     * Get the number of threads of the clustering procedure
+     *
+     * @return Parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of threads of the clustering procedure (see {@link ClusteringMode#PARALLEL})
+     *
+     * @param parallelism Parallelism (1 = sequential)
+     * @return {@code This} for chaining
+     */
+    public AlphaTuner setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+
+//##################### Main ######################
+
+    /**
+     * Tune alpha for a path length file, serialize the selected clustering and write the statistics report
+     * (to the clustering file with the suffix ".txt").
+     *
+     * @param args Path length csv- or zip-File, number of nodes, partitions per node, maximal skew and output file
+     *             (default: csv/pathlengths1000.zip 4 4 3.0 clustering/clustering1000tuned)
+     * @throws Exception Error on loading, clustering or writing
+     */
+    public static void main(String[] args) throws Exception {
+        String separ = File.separator;
+        String pathLengthFile = args.length > 0 ? args[0] : "csv" + separ + "pathlengths1000.zip";
+        int nodes = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int partitionsPerNode = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        double maxSkew = args.length > 3 ? Double.parseDouble(args[3]) : 3.0;
+        String output = args.length > 4 ? args[4] : "clustering" + separ + "clustering1000tuned";
+
+        Result result = new AlphaTuner(nodes).setPartitionsPerNode(partitionsPerNode).setMaxSkew(maxSkew)
+                .setParallelism(Runtime.getRuntime().availableProcessors())
+                .tune(new PathLengthSimilarity(pathLengthFile));
+        System.out.print(result.getReport());
+        result.getClustering().printClusteringStatistics();
+
+        File parent = new File(output).getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs())
+            throw new IOException("Could not create directory " + parent);
+        result.getClustering().serializeToFile(output);
+        try (Writer writer = new FileWriter(output + ".txt")) {
+            writer.write(result.getReport());
+        }
+    }
+
+}
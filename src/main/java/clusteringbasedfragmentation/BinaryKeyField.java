@@ -0,0 +1,46 @@
+package clusteringbasedfragmentation;
+
+import materializedfragments.FragIDKey;
+import materializedfragments.IllKey;
+import org.apache.ignite.binary.BinaryField;
+import org.apache.ignite.binary.BinaryType;
+
+/**
+ * Accessor for the partitioning field of a binary key type: {@link IllKey#getDisease()} for ILL keys and
+ * {@link FragIDKey#getFragID()} for keys of the derived fragmentation, as well as the person id for the
+ * sub-partition. It allows the affinity functions to partition binary keys without deserialization.
+ */
+final class BinaryKeyField {
+
+    /**
+     * Partitioning field (null if the type is no known key type)
+     */
+    final BinaryField field;
+
+    /**
+     * Person id field for the sub-partition (null if the type is no known key type)
+     */
+    final BinaryField idField;
+
+    private BinaryKeyField(BinaryField field, BinaryField idField) {
+        this.field = field;
+        this.idField = idField;
+    }
+
+
+    /**
+     * Resolve the accessor for a binary key type.
+     *
+     * @param type Binary type of the key
+     * @return Accessor of the partitioning field (without fields if the type is no known key type)
+     */
+    static BinaryKeyField of(BinaryType type) {
+        String typeName = type.typeName();
+        if (typeName.equals(IllKey.class.getName()) || typeName.equals(IllKey.class.getSimpleName()))
+            return new BinaryKeyField(type.field("disease"), type.field("id"));
+        if (typeName.equals(FragIDKey.class.getName()) || typeName.equals(FragIDKey.class.getSimpleName()))
+            return new BinaryKeyField(type.field("fragID"), type.field("id"));
+        return new BinaryKeyField(null, null);
+    }
+
+}
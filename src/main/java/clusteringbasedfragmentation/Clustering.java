@@ -1,11 +1,13 @@
 package clusteringbasedfragmentation;
 
 import clusteringbasedfragmentation.similarityfunctions.CSVSimilarityLoader;
+import clusteringbasedfragmentation.similarityfunctions.MatrixSimilarity;
 import clusteringbasedfragmentation.similarityfunctions.MeSHSimilarityFunction;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Consumer;
 
 /**
@@ -31,6 +33,12 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
      */
     private transient MeSHSimilarityFunction similarityFunction;
 
+    /**
+     * Version of the clustering, incremented whenever the clusters or alpha are overwritten
+     * (allows users like {@link ClusteringAffinityFunction} to invalidate data derived from the clustering)
+     */
+    private transient volatile int version;
+
 
 //######################################### Constructor ######################################################
 
@@ -57,12 +65,42 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
      * For details see {@link Cluster} </p>
      */
     public Clustering(double alpha, MeSHSimilarityFunction similarityFunction) throws SimilarityException {
+        this(alpha, similarityFunction, ClusteringMode.REFERENCE);
+    }
+
+    /**
+     * Constructs the clustering of the active domain (see {@link Clustering#Clustering(double, MeSHSimilarityFunction)})
+     * with the given implementation of the clustering procedure. All modes produce the same clusters.
+     *
+     * @param alpha              Similarity threshold
+     * @param similarityFunction Similarity function
+     * @param mode               Implementation of the clustering procedure
+     * @throws SimilarityException Error on similarity calculation
+     */
+    public Clustering(double alpha, MeSHSimilarityFunction similarityFunction, ClusteringMode mode)
+            throws SimilarityException {
+        this(alpha, similarityFunction, mode, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructs the clustering of the active domain (see {@link Clustering#Clustering(double, MeSHSimilarityFunction)})
+     * with the given implementation of the clustering procedure and the given parallelism for the
+     * {@link ClusteringMode#PARALLEL} mode. All modes produce the same clusters.
+     *
+     * @param alpha              Similarity threshold
+     * @param similarityFunction Similarity function (must allow for concurrent lookups in the parallel mode)
+     * @param mode               Implementation of the clustering procedure
+     * @param parallelism        Number of threads of the parallel mode (ignored by the other modes)
+     * @throws SimilarityException Error on similarity calculation
+     */
+    public Clustering(double alpha, MeSHSimilarityFunction similarityFunction, ClusteringMode mode, int parallelism)
+            throws SimilarityException {
 
         this.alpha = alpha;
         this.similarityFunction = similarityFunction;
 
 
-        System.out.println("Starting the clustering procedure ...");
+        System.out.println("Starting the clustering procedure (" + mode + ") ...");
         long time = System.nanoTime();
 
         ArrayList<String> activeDomain = new ArrayList<>(similarityFunction.getTerms());
@@ -70,6 +108,30 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
         if (activeDomain.isEmpty())
             throw new IllegalArgumentException("The active domain is empty.");
 
+        switch (mode) {
+            case INCREMENTAL:
+                clusterIncremental(activeDomain);
+                break;
+            case PARALLEL:
+                clusterParallel(activeDomain, parallelism);
+                break;
+            default:
+                clusterReference(activeDomain);
+        }
+
+        time = System.nanoTime() - time;
+        System.out.println("Finished clustering in " + time / 1000000000.0 + " seconds!");
+    }
+
+
+    /**
+     * Original clustering procedure (see {@link ClusteringMode#REFERENCE}).
+     *
+     * @param activeDomain Active domain (first term becomes the first head)
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private void clusterReference(ArrayList<String> activeDomain) throws SimilarityException {
+
         // Initialize first cluster with all values from the active domain (except head)
         clusters = new ArrayList<>();
         String headElement = activeDomain.remove(0);
@@ -150,9 +212,198 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
             }
             sim_min = min;
         }
+    }
 
-        time = System.nanoTime() - time;
-        System.out.println("Finished clustering in " + time / 1000000000.0 + " seconds!");
+
+    /**
+     * Clustering procedure that only compares the terms against the newly created head in each iteration
+     * (see {@link ClusteringMode#INCREMENTAL} and {@link ClusteringProcess}).
+     *
+     * @param activeDomain Active domain (first term becomes the first head)
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private void clusterIncremental(ArrayList<String> activeDomain) throws SimilarityException {
+        ClusteringProcess process = new ClusteringProcess(activeDomain, similarityFunction);
+        while (process.getSimMin() < alpha)
+            process.step();
+        clusters = process.getClusters();
+    }
+
+
+    /**
+     * Incremental clustering procedure with parallel similarity scans (see {@link ClusteringMode#PARALLEL}).
+     *
+     * @param activeDomain Active domain (first term becomes the first head)
+     * @param parallelism  Number of threads
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private void clusterParallel(ArrayList<String> activeDomain, int parallelism) throws SimilarityException {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            ClusteringProcess process = new ClusteringProcess(activeDomain, similarityFunction, pool);
+            while (process.getSimMin() < alpha)
+                process.step();
+            clusters = process.getClusters();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    //####################################### Incremental Insertion ############################################
+
+    /**
+     * <p>
+     * Insert new terms into the clustering without recomputing it. Each new term is assigned to the cluster of the
+     * most similar head (the first one on ties, as by {@link ClusteringAffinityFunction#identifyCluster(String)}). </p>
+     * <p>
+     * A new head is only promoted if a new term violates the invariant of the clustering, i.e. its similarity to
+     * its head is below alpha. As in the clustering procedure, the term with the smallest similarity to its head
+     * becomes the next head and all terms that are at least as similar to the new head as to their current head
+     * are moved to the new cluster (this requires a scan over all terms). This is repeated until every term is at
+     * least alpha-similar to its head. </p>
+     * <p>
+     * The clusters are updated on a copy, which replaces the clusters at the end (the version changes, see
+     * {@link Clustering#getVersion()}). The similarity function must know the new terms. </p>
+     *
+     * @param terms New terms (terms that are already contained in the clustering are ignored)
+     * @return Inserted and moved terms and the changed clusters
+     * @throws SimilarityException Error on similarity calculation or a new term without a known similarity to
+     *                             any head (the clustering is not changed)
+     */
+    public ClusteringUpdate insertTerms(Collection<String> terms) throws SimilarityException {
+        return insertTerms(terms, true);
+    }
+
+    /**
+     * Insert new terms into the clustering without recomputing it (see {@link Clustering#insertTerms(Collection)}),
+     * optionally without promoting new heads, e.g. if the number of clusters must not change because the
+     * partitions of an affinity function are already assigned.
+     *
+     * @param terms   New terms (terms that are already contained in the clustering are ignored)
+     * @param promote If false, the terms are only inserted if no new head has to be promoted
+     * @return Inserted and moved terms and the changed clusters
+     * @throws SimilarityException   Error on similarity calculation or a new term without a known similarity to
+     *                               any head (the clustering is not changed)
+     * @throws IllegalStateException Thrown if promote is false and a new head would have to be promoted
+     *                               (the clustering is not changed)
+     */
+    public ClusteringUpdate insertTerms(Collection<String> terms, boolean promote) throws SimilarityException {
+        if (clusters == null || clusters.isEmpty())
+            throw new IllegalStateException("The clustering is empty.");
+        if (similarityFunction == null)
+            throw new IllegalStateException("The clustering has no similarity function.");
+
+        ClusteringUpdate update = new ClusteringUpdate(clusters.size());
+
+        // Copy the clusters and collect the terms that are already contained
+        ArrayList<Cluster<String>> updated = new ArrayList<>(clusters.size());
+        HashSet<String> known = new HashSet<>();
+        for (Cluster<String> c : clusters) {
+            updated.add(new Cluster<>(c.getHead(), new HashSet<>(c.getAdom())));
+            known.add(c.getHead());
+            known.addAll(c.getAdom());
+        }
+
+        // Assign each new term to the most similar head
+        HashMap<String, Double> simToHead = new HashMap<>();
+        HashMap<String, Integer> clusterOf = new HashMap<>();
+        for (String term : terms) {
+            if (!known.add(term))
+                continue;
+            double max = -1;
+            int argMax = -1;
+            for (int i = 0; i < updated.size(); i++) {
+                double sim = similarityFunction.similarity(term, updated.get(i).getHead());
+                if (max < sim) {
+                    max = sim;
+                    argMax = i;
+                }
+            }
+            // No head with a known similarity (e.g. the similarity function returns -1 for an unknown term)
+            if (argMax < 0)
+                throw new SimilarityException("The term " + term + " has no known similarity to any head.");
+            updated.get(argMax).getAdom().add(term);
+            simToHead.put(term, max);
+            clusterOf.put(term, argMax);
+            update.insert(term, argMax);
+        }
+
+        // Promote new heads as long as a new term is less than alpha-similar to its head
+        String nextHead = nextViolation(update.getInsertedTerms().keySet(), simToHead);
+        if (nextHead != null && !promote)
+            throw new IllegalStateException("The term " + nextHead + " is less than alpha-similar to its head, "
+                    + "a new head would have to be promoted.");
+        while (nextHead != null) {
+            int k = updated.size();
+            updated.get(clusterOf.get(nextHead)).getAdom().remove(nextHead);
+            simToHead.put(nextHead, 1.0);
+            update.move(nextHead, clusterOf.get(nextHead), k);
+            clusterOf.put(nextHead, k);
+
+            // Move terms from the old clusters to the new cluster if they are more similar to nextHead
+            HashSet<String> nextAdom = new HashSet<>();
+            for (int j = 0; j < k; j++) {
+                Cluster<String> c = updated.get(j);
+                Iterator<String> it = c.getAdom().iterator();
+                while (it.hasNext()) {
+                    String term = it.next();
+                    Double sim_j = simToHead.get(term);
+                    if (sim_j == null)
+                        sim_j = similarityFunction.similarity(term, c.getHead());
+                    double sim = similarityFunction.similarity(term, nextHead);
+                    if (sim_j <= sim) {
+                        it.remove();
+                        nextAdom.add(term);
+                        update.move(term, j, k);
+                        if (clusterOf.containsKey(term)) {
+                            simToHead.put(term, sim);
+                            clusterOf.put(term, k);
+                        }
+                    }
+                }
+            }
+            updated.add(new Cluster<>(nextHead, nextAdom));
+
+            nextHead = nextViolation(update.getInsertedTerms().keySet(), simToHead);
+        }
+
+        if (!update.getInsertedTerms().isEmpty())
+            setClusters(updated);
+        return update;
+    }
+
+    /**
+     * Find the inserted term with the smallest similarity to its head, if it is below alpha
+     * (the first one in insertion order on ties).
+     *
+     * @param inserted  Inserted terms
+     * @param simToHead Similarity of each inserted term to its head
+     * @return Next head or null if every inserted term is at least alpha-similar to its head
+     */
+    private String nextViolation(Collection<String> inserted, Map<String, Double> simToHead) {
+        String argMin = null;
+        double min = alpha;
+        for (String term : inserted) {
+            double sim = simToHead.get(term);
+            if (sim < min) {
+                min = sim;
+                argMin = term;
+            }
+        }
+        return argMin;
+    }
+
+
+    /**
+     * Copy the clustering, e.g. to insert terms into the copy (see {@link Clustering#insertTerms(Collection)}).
+     * The copy shares the clusters, which are not modified by the insertion.
+     *
+     * @return Copy with the same clusters, alpha and similarity function
+     */
+    public Clustering copy() {
+        return new Clustering().setClusters(new ArrayList<>(clusters)).setAlpha(alpha)
+                .setSimilarityFunction(similarityFunction);
     }
 
 
@@ -176,6 +427,7 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
      */
     public Clustering setClusters(ArrayList<Cluster<String>> clusters) {
         this.clusters = clusters;
+        this.version++;
         return this;
     }
 
@@ -196,9 +448,20 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
      */
     public Clustering setAlpha(double alpha) {
         this.alpha = alpha;
+        this.version++;
         return this;
     }
 
+    /**
+     * Get the version of the clustering, which changes whenever {@link Clustering#setClusters(ArrayList)} or
+     * {@link Clustering#setAlpha(double)} is invoked.
+     *
+     * @return Version
+     */
+    public int getVersion() {
+        return version;
+    }
+
     /**
      * Get the similarity function
      *
@@ -250,6 +513,25 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
         return this.getClusters().size();
     }
 
+    /**
+     * Check whether another clustering consists of the same clusters (same heads in the same order and
+     * same adoms) as this clustering. Note that {@link Cluster#equals(Object)} only compares the heads.
+     *
+     * @param other Other clustering
+     * @return True if both clusterings have the same clusters, false otherwise
+     */
+    public boolean hasSameClusters(Clustering other) {
+        if (other == null || this.size() != other.size())
+            return false;
+        for (int i = 0; i < this.size(); i++) {
+            Cluster<String> c = this.getCluster(i);
+            Cluster<String> o = other.getCluster(i);
+            if (!c.getHead().equals(o.getHead()) || !c.getAdom().equals(o.getAdom()))
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Print statistics of the clustering like avg. terms per cluster and maximal/minimal cluster size.
      */
@@ -308,15 +590,34 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
     }
 
     /**
-     * Deserialize a clustering from a file
+     * Write clustering to a binary clustering file (see {@link ClusteringFile}).
+     *
+     * @param file Path to output file
+     */
+    public void writeToBinaryFile(String file) {
+        try {
+            ClusteringFile.of(this).write(file);
+            System.out.println("Wrote binary clustering to file '" + file + "'!");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deserialize a clustering from a file (serialized clustering or binary clustering file, see
+     * {@link ClusteringFile})
      *
      * @param file Path to input file
      * @return Clustering that was read from file
      */
     public static Clustering deserializeFromFile(String file) throws IOException, ClassNotFoundException {
         Clustering clustering;
-        try (ObjectInputStream objectIn = new ObjectInputStream(new FileInputStream(file))) {
-            clustering = (Clustering) objectIn.readObject();
+        if (ClusteringFile.isClusteringFile(file)) {
+            clustering = ClusteringFile.read(file).toClustering();
+        } else {
+            try (ObjectInputStream objectIn = new ObjectInputStream(new FileInputStream(file))) {
+                clustering = (Clustering) objectIn.readObject();
+            }
         }
         System.out.println("Read clustering from file '" + file + "'!");
         return clustering;
@@ -389,7 +690,8 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
 // ######################################## Main ##################################################
 
     /**
-     * Initialize all the clustering serializations (500, 1000, 2500 and All terms).
+     * Initialize all the clustering serializations (500, 1000, 2500 and All terms) and compare the run time of the
+     * reference and the incremental clustering procedure (also on the integer ids of a {@link MatrixSimilarity}).
      *
      * @param args Not used
      * @throws IOException         Error on file read/write
@@ -408,7 +710,35 @@ public class Clustering implements Serializable, Iterable<Cluster<String>> {
                     new CSVSimilarityLoader("csv" + separ + "pathlengths" + fileName + ".csv");
             long diff = System.nanoTime() - start;
             System.out.println("Loaded " + fileName + " terms in " + diff / 1000000000.0 + "s!");
-            Clustering clustering = new Clustering(0.12, csvLoader);
+
+            // Timing comparison of the reference and the incremental clustering procedure
+            start = System.nanoTime();
+            Clustering reference = new Clustering(0.12, csvLoader, ClusteringMode.REFERENCE);
+            long referenceTime = System.nanoTime() - start;
+            start = System.nanoTime();
+            Clustering clustering = new Clustering(0.12, csvLoader, ClusteringMode.INCREMENTAL);
+            long incrementalTime = System.nanoTime() - start;
+            System.out.println(fileName + " terms: reference " + referenceTime / 1000000000.0 + "s, incremental "
+                    + incrementalTime / 1000000000.0 + "s (speedup " + (double) referenceTime / incrementalTime
+                    + "), identical clusters: " + clustering.hasSameClusters(reference));
+
+            // Incremental clustering procedure on term ids
+            MatrixSimilarity matrix = new MatrixSimilarity("csv" + separ + "pathlengths" + fileName + ".csv");
+            start = System.nanoTime();
+            Clustering indexed = new Clustering(0.12, matrix, ClusteringMode.INCREMENTAL);
+            long indexedTime = System.nanoTime() - start;
+            System.out.println(fileName + " terms: incremental on term ids " + indexedTime / 1000000000.0
+                    + "s (speedup " + (double) referenceTime / indexedTime + "), identical clusters: "
+                    + indexed.hasSameClusters(reference));
+
+            // Parallel clustering procedure on term ids
+            start = System.nanoTime();
+            Clustering parallel = new Clustering(0.12, matrix, ClusteringMode.PARALLEL);
+            long parallelTime = System.nanoTime() - start;
+            System.out.println(fileName + " terms: parallel on term ids (" + Runtime.getRuntime().availableProcessors()
+                    + " threads) " + parallelTime / 1000000000.0 + "s (speedup " + (double) indexedTime / parallelTime
+                    + " over incremental), identical clusters: " + parallel.hasSameClusters(reference));
+
             clustering.printClusteringStatistics();
             clustering.serializeToFile("clustering" + separ + "clustering" + fileName);
 
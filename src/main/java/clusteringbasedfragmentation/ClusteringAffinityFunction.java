@@ -1,21 +1,19 @@
 package clusteringbasedfragmentation;
 
+import clusteringbasedfragmentation.assignment.HierarchicalAssignmentStrategy;
+import clusteringbasedfragmentation.assignment.PartitionAssignmentStrategy;
 import clusteringbasedfragmentation.similarityfunctions.*;
-import materializedfragments.FragIDKey;
-import materializedfragments.IllKey;
 import neo4j.Neo4JSimilarity;
-import org.apache.ignite.binary.BinaryObject;
 import org.apache.ignite.cache.affinity.AffinityFunction;
-import org.apache.ignite.cache.affinity.AffinityFunctionContext;
 import org.apache.ignite.cluster.ClusterNode;
+import utils.ConcurrentLRUCache;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.Serializable;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Collection;
 import java.util.Map;
-import java.util.UUID;
 
 
 /**
@@ -28,27 +26,44 @@ import java.util.UUID;
  * Furthermore, it is also used to derive a fragmentation of the database tables (INFO and TREAT) based on the
  * fragmentation of the primary table (ILL).
  */
-public class ClusteringAffinityFunction implements AffinityFunction, Serializable {
+public class ClusteringAffinityFunction extends AbstractClusteringAffinityFunction {
 
 
     private static final long serialVersionUID = 7436136269367842660L;
 
 
     /**
-     * Number of partitions
+     * Number of sub-partitions of each cluster, see {@link ClusteringAffinityFunction#setSubPartitions(int)}
      */
-    private int parts;
+    private int subPartitions = 1;
 
     /**
      * Default value for clustering algorithm threshold.
      */
     private static final double DFLT_ALPHA = 0.2;
 
+    /**
+     * Default maximal number of cached cluster identifications of terms outside the active domain.
+     */
+    private static final int DFLT_IDENTIFY_CLUSTER_CACHE_SIZE = 10000;
+
+    /**
+     * Maximal number of cached cluster identifications of terms outside the active domain (0 = no caching),
+     * see {@link ClusteringAffinityFunction#identifyCluster(String)}
+     */
+    private int identifyClusterCacheSize = DFLT_IDENTIFY_CLUSTER_CACHE_SIZE;
+
     /**
      * Clustering for the clustering-based fragmentation.
      */
     private Clustering clustering;
 
+    /**
+     * Two-level clustering whose sub-clusters are the clusters of this affinity function
+     * (null for a flat clustering), see {@link HierarchicalClustering}
+     */
+    private HierarchicalClustering hierarchy;
+
 
     /**
      * Similarity function providing the required similarity of two terms as well
@@ -58,10 +73,17 @@ public class ClusteringAffinityFunction implements AffinityFunction, Serializabl
 
 
     /**
-     * Stores the partition assignment of the cluster
+     * Lookup structures derived from the clustering (rebuilt whenever the clustering changes,
+     * see {@link ClusteringAffinityFunction#getIndex()})
      */
-    private List<List<ClusterNode>> partitionAssignment;
+    private transient volatile ClusteringIndex index;
 
+    /**
+     * Pairwise similarities of the cluster heads (null if not available), calculated when the clustering is
+     * built or loaded and sent with the affinity function
+     * (see {@link ClusteringAffinityFunction#getHeadSimilarities()})
+     */
+    private double[][] headSimilarities;
 
 //##################### Constructors ######################
 
@@ -94,7 +116,8 @@ public class ClusteringAffinityFunction implements AffinityFunction, Serializabl
 
         // each cluster is assigned to a partition and for each cluster the same partition is used also for the
         // derived fragmentation
-        this.parts = this.clustering.size();
+        this.index = new ClusteringIndex();
+        this.headSimilarities = headSimilarities(similarityFunction, index.heads);
     }
 
     /**
@@ -112,7 +135,8 @@ public class ClusteringAffinityFunction implements AffinityFunction, Serializabl
 
         // calculate clustering (index of clusters implies mapping of cluster to partition)
         this.clustering = new Clustering(alpha, this.similarityFunction);
-        this.parts = this.clustering.size();
+        this.index = new ClusteringIndex();
+        this.headSimilarities = headSimilarities(similarityFunction, index.heads);
     }
 
     /**
@@ -129,32 +153,96 @@ public class ClusteringAffinityFunction implements AffinityFunction, Serializabl
 
         // Calculate clustering
         this.clustering = new Clustering(alpha, this.similarityFunction);
-        this.parts = this.clustering.size();
+        this.index = new ClusteringIndex();
+        this.headSimilarities = headSimilarities(similarityFunction, index.heads);
     }
 
 
     /**
      * Affinity function that loads the (serialized) {@link Clustering} from a file and
      * is provided with a custom {@link SimilarityFunction} (which was used to obtain the clustering!).
+     * For a binary clustering file (see {@link ClusteringFile}), the lookup table of the terms is built directly
+     * from its term to cluster mapping. The file may also contain a serialized {@link HierarchicalClustering} (see
+     * {@link HierarchicalClustering#serializeToFile(String)}), e.g. in the Spring XML configuration: then the
+     * affinity function is set up as by
+     * {@link ClusteringAffinityFunction#ClusteringAffinityFunction(MeSHSimilarityFunction, HierarchicalClustering)}.
      *
      * @param similarityFunction A custom {@link MeSHSimilarityFunction}
-     * @param clusteringFile     Path to the serialized clustering file
+     * @param clusteringFile     Path to the binary or serialized (hierarchical) clustering file
      * @throws IOException            Thrown if the file with the serialized clustering could not be found/read.
      * @throws ClassNotFoundException Thrown if a class could not be found in classpath
+     * @throws SimilarityException    Thrown if the head similarities are not contained in the file and could not
+     *                                be calculated
      */
     public ClusteringAffinityFunction(MeSHSimilarityFunction similarityFunction, String clusteringFile)
-            throws IOException, ClassNotFoundException {
+            throws IOException, ClassNotFoundException, SimilarityException {
 
         this.similarityFunction = similarityFunction;
 
-        // Calculate clustering
-        this.clustering = Clustering.deserializeFromFile(clusteringFile).setSimilarityFunction(this.similarityFunction);
-        this.parts = this.clustering.size();
+        // Load clustering (sub-clusters of a hierarchical clustering are the clusters of this affinity function)
+        HierarchicalClustering hierarchy = HierarchicalClustering.isHierarchicalClusteringFile(clusteringFile)
+                ? HierarchicalClustering.deserializeFromFile(clusteringFile) : null;
+        if (hierarchy != null) {
+            this.hierarchy = hierarchy.setSimilarityFunction(similarityFunction);
+            this.clustering = hierarchy.getSubClustering();
+            setAssignmentStrategy(new HierarchicalAssignmentStrategy());
+            this.index = new ClusteringIndex();
+        } else if (ClusteringFile.isClusteringFile(clusteringFile)) {
+            ClusteringFile file = ClusteringFile.read(clusteringFile);
+            this.clustering = file.toClustering().setSimilarityFunction(similarityFunction);
+            this.index = new ClusteringIndex(file);
+            this.headSimilarities = file.getHeadSimilarities();
+            System.out.println("Read clustering from file '" + clusteringFile + "'!");
+        } else {
+            this.clustering = Clustering.deserializeFromFile(clusteringFile).setSimilarityFunction(similarityFunction);
+            this.index = new ClusteringIndex();
+        }
+        if (this.headSimilarities == null)
+            this.headSimilarities = localHeadSimilarities(similarityFunction, index.heads);
+    }
+
+    /**
+     * Affinity function for a {@link HierarchicalClustering}: the sub-clusters are mapped to the partitions and,
+     * by the {@link HierarchicalAssignmentStrategy}, all partitions of a super-cluster are mapped to the same node.
+     * Queries can thus be relaxed from the sub-cluster of a term to its super-cluster without involving further
+     * nodes (see {@link ClusteringAffinityFunction#getPartitionsOfSuperCluster(int)}).
+     *
+     * @param similarityFunction A custom {@link MeSHSimilarityFunction} (which was used to obtain the clustering)
+     * @param hierarchy          Hierarchical clustering
+     * @throws SimilarityException Thrown if the head similarities could not be calculated
+     */
+    public ClusteringAffinityFunction(MeSHSimilarityFunction similarityFunction, HierarchicalClustering hierarchy)
+            throws SimilarityException {
+
+        this.similarityFunction = similarityFunction;
+
+        // Sub-clusters are the clusters (and partitions) of this affinity function
+        this.hierarchy = hierarchy.setSimilarityFunction(similarityFunction);
+        this.clustering = hierarchy.getSubClustering();
+        setAssignmentStrategy(new HierarchicalAssignmentStrategy());
+        this.index = new ClusteringIndex();
+        this.headSimilarities = localHeadSimilarities(similarityFunction, index.heads);
+    }
+
+    /**
+     * Affinity function for a given clustering (see {@link ClusteringAffinityFunction#withInsertedTerms(Collection)}).
+     *
+     * @param similarityFunction A custom {@link MeSHSimilarityFunction} (which was used to obtain the clustering)
+     * @param clustering         Clustering
+     * @throws SimilarityException Thrown if the head similarities could not be calculated
+     */
+    private ClusteringAffinityFunction(MeSHSimilarityFunction similarityFunction, Clustering clustering)
+            throws SimilarityException {
+
+        this.similarityFunction = similarityFunction;
+        this.clustering = clustering.setSimilarityFunction(similarityFunction);
+        this.index = new ClusteringIndex();
+        this.headSimilarities = localHeadSimilarities(similarityFunction, index.heads);
     }
 
     /**
      * Affinity function that initializes the clustering from a pathlength csv file (e.g. term1|term2|pathlength...).
-     * Uses a {@link CSVSimilarityLoader} as {@link MeSHSimilarityFunction}
+     * Uses a {@link PathLengthSimilarity} as {@link MeSHSimilarityFunction}
      *
      * @param alpha         Similarity threshold
      * @param pathLengthCSV Path to pathlength csv
@@ -162,193 +250,306 @@ public class ClusteringAffinityFunction implements AffinityFunction, Serializabl
      * @throws IOException         Error on file read/write.
      */
     public ClusteringAffinityFunction(double alpha, String pathLengthCSV) throws SimilarityException, IOException {
-        this(alpha, new CSVSimilarityLoader(pathLengthCSV));
+        this(alpha, new PathLengthSimilarity(pathLengthCSV));
     }
 
 
-//##################### Overwritten Methods ######################
+//##################### Clustering-based Fragmentation (Partition-Mappings, Cluster-Algorithm)  ######################
 
+    /**
+     * This method identifies the cluster id to a given term. A term of the active domain of the clustering is
+     * looked up in the precomputed {@link TermPartitionTable}, only for other terms the most similar cluster head
+     * is determined. The results for such terms are kept in a bounded LRU cache (see
+     * {@link ClusteringAffinityFunction#setIdentifyClusterCacheSize(int)}), which is invalidated whenever the
+     * clustering changes.
+     *
+     * @param term The term to match to a cluster
+     * @return Number of the cluster
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
+     */
     @Override
-    public void reset() {
-        // No-op.
-    }
+    public int identifyCluster(String term) throws SimilarityException {
 
-    @Override
-    public void removeNode(UUID nodeId) {
-        // No-op
+        // Term of the active domain? -> partition is the cluster the term belongs to
+        ClusteringIndex index = getIndex();
+        int partition = index.partitions.get(term);
+        if (partition >= 0)
+            return partition;
+
+        // Term outside the active domain -> result of an earlier identification cached?
+        ConcurrentLRUCache<String, Integer> cache = index.unseenTerms;
+        if (cache != null) {
+            Integer cached = cache.get(term);
+            if (cached != null)
+                return cached;
+        }
+
+        partition = identifyUnseenCluster(term, index);
+        if (cache != null && partition >= 0)
+            cache.put(term, partition);
+        return partition;
     }
 
 
     /**
-     * Gets the total number of partitions. There should be at least as much partitions as nodes,
-     * so that each node can host at least one partition.
+     * Identify the cluster id to a term that is not contained in the active domain of the clustering, i.e. find
+     * the cluster head with maximal similarity to the term.
      *
-     * @return Number of Partitions
+     * @param term  The term to match to a cluster
+     * @param index Lookup structures of the current clustering
+     * @return Number of the cluster
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
      */
-    @Override
-    public int partitions() {
-        return parts;
+    private int identifyUnseenCluster(String term, ClusteringIndex index) throws SimilarityException {
+        return HeadSimilarityResolver.identifyCluster(similarityFunction, term, index.heads, index.headIds);
     }
 
 
     /**
-     * Returns the partition mapping for the given key.
-     * See {@link AffinityFunction#partition(Object)} for more details.
+     * Get the lookup structures of the current clustering. They are rebuilt if the clustering has been changed
+     * since they were built (see {@link Clustering#getVersion()}) or after deserialization.
      *
-     * @param key Key
-     * @return Partition number
+     * @return Clustering index
      */
-    @Override
-    public int partition(Object key) {
-
-        if (key == null)
-            throw new IllegalArgumentException("The key passed to the AffinityFunction's method " +
-                    "partition(Object key) was null.");
-
-        // If the key is of type BinaryObject, then deserialize it first
-        if (key instanceof BinaryObject) {
-            BinaryObject binary = (BinaryObject) key;
-            key = binary.deserialize();
+    private ClusteringIndex getIndex() {
+        ClusteringIndex index = this.index;
+        if (index == null || index.version != clustering.getVersion()) {
+            index = new ClusteringIndex();
+            this.index = index;
         }
+        return index;
+    }
 
 
-        // If the key is of type IllKey, find the partition based on the clustering (i-th cluster = i-th partition)
-        // If the key is of type FragIDKey, find the partition based on the derived fragmentation (contained in key)
-        if (key instanceof IllKey) {
-            IllKey illKey = (IllKey) key;
-            try {
-                return this.identifyCluster(illKey.getDisease());
-            } catch (SimilarityException e) {
-                e.printStackTrace();
-                return -1;
-            }
-        }
-        if (key instanceof FragIDKey) {
-            return ((FragIDKey) key).getFragID();
+    /**
+     * Lookup structures derived from the clustering: the partition of each term of the active domain,
+     * the term ids of the cluster heads and the cached partitions of terms outside the active domain.
+     */
+    private final class ClusteringIndex {
+
+        /**
+         * Version of the clustering the index was built for
+         */
+        private final int version;
+
+        /**
+         * Partition of each term of the active domain
+         */
+        private final TermPartitionTable partitions;
+
+        /**
+         * Heads of the clusters (i-th head = head of the i-th cluster)
+         */
+        private final String[] heads;
+
+        /**
+         * Term ids of the cluster heads in the dictionary of the similarity function
+         * (null if it is not an {@link IndexedSimilarityFunction}, -1 for heads unknown to the dictionary)
+         */
+        private final int[] headIds;
+
+        /**
+         * Cached partitions of terms outside the active domain (null if caching is disabled)
+         */
+        private final ConcurrentLRUCache<String, Integer> unseenTerms;
+
+        /**
+         * Build the index from the clusters of the current clustering.
+         */
+        private ClusteringIndex() {
+            this.version = clustering.getVersion();
+            this.partitions = new TermPartitionTable(clustering);
+            this.heads = new String[clustering.size()];
+            for (int i = 0; i < heads.length; i++)
+                heads[i] = clustering.getHead(i);
+            this.headIds = similarityFunction instanceof IndexedSimilarityFunction
+                    ? HeadSimilarityResolver.headIds((IndexedSimilarityFunction) similarityFunction, heads) : null;
+            this.unseenTerms = identifyClusterCacheSize > 0
+                    ? new ConcurrentLRUCache<>(identifyClusterCacheSize) : null;
         }
 
-        throw new IllegalArgumentException("ERROR: The key object " + key + " is of some other type: "
-                + key.getClass() + "!");
-
+        /**
+         * Build the index from the term to cluster mapping of the binary clustering file the current clustering
+         * was loaded from (instead of collecting the terms from the clusters again).
+         *
+         * @param file Binary clustering file of the current clustering
+         */
+        private ClusteringIndex(ClusteringFile file) {
+            this.version = clustering.getVersion();
+            this.partitions = new TermPartitionTable(file.getTerms(), file.getClusterOf());
+            this.heads = file.getHeads();
+            this.headIds = similarityFunction instanceof IndexedSimilarityFunction
+                    ? HeadSimilarityResolver.headIds((IndexedSimilarityFunction) similarityFunction, heads) : null;
+            this.unseenTerms = identifyClusterCacheSize > 0
+                    ? new ConcurrentLRUCache<>(identifyClusterCacheSize) : null;
+        }
     }
 
 
     /**
-     * This function maps all the partitions of this cache to nodes of the cluster. The outer list
-     * of the returned nested lists is indexed by the partition number and stores the mapping of that
-     * partition to a list of nodes of the cluster (inner lists).
-     * The current functionality is limited to map each partition only to one primary node without backups.
+     * Get the pairwise similarities of the cluster heads of the current clustering. The matrix is calculated when
+     * the clustering is built, loaded or changed by {@link ClusteringAffinityFunction#insertTerms(Collection)}
+     * (or read from the binary {@link ClusteringFile}), so the partition assignment does not look up similarities.
      *
-     * @param affCtx Context to be passed to the function automatically. For details see {@link AffinityFunction}.
-     * @return Assignment of partitions to nodes
+     * @return Matrix of head similarities indexed by cluster numbers or null if not available
      */
     @Override
-    public List<List<ClusterNode>> assignPartitions(AffinityFunctionContext affCtx) {
-        if (affCtx == null)
-            throw new IllegalArgumentException("AffinityFunctionContext passed to the AffinityFunction's method " +
-                    "assignPartitions(AffinityFunctionContext affCtx) was null.");
-
-        // Resulting list maps each partition to a list of nodes
-        this.partitionAssignment = new ArrayList<>(this.parts);
+    public double[][] getHeadSimilarities() {
+        double[][] similarities = this.headSimilarities;
+        return similarities != null && similarities.length == clustering.size() ? similarities : null;
+    }
 
-        // Get all the nodes in the cluster
-        List<ClusterNode> allNodes = affCtx.currentTopologySnapshot();
 
-        // Assign each partition to a node (no replication)
-        for (int i = 0; i < this.parts; i++) {
-            List<ClusterNode> assignedNodes = this.assignPartition(i, allNodes);
-            this.partitionAssignment.add(i, assignedNodes);
-        }
+    /**
+     * Get the super-cluster whose data is stored in a partition (see {@link HierarchicalClustering}).
+     *
+     * @param partition Partition number
+     * @return Number of the super-cluster (the cluster of the partition for a flat clustering)
+     */
+    @Override
+    public int superClusterOfPartition(int partition) {
+        int cluster = clusterOfPartition(partition);
+        return hierarchy != null ? hierarchy.superClusterOf(cluster) : cluster;
+    }
 
-        return this.partitionAssignment;
+    /**
+     * Get the sub-clusters of a super-cluster (see {@link HierarchicalClustering#getSubClusters(int)}).
+     *
+     * @param superCluster Number of the super-cluster (see {@link ClusteringAffinityFunction#identifySuperCluster(String)})
+     * @return Consecutive cluster numbers (only the cluster itself for a flat clustering)
+     */
+    @Override
+    public int[] getClustersOfSuperCluster(int superCluster) {
+        return hierarchy != null ? hierarchy.getSubClusters(superCluster)
+                : super.getClustersOfSuperCluster(superCluster);
     }
 
+    /**
+     * Identify the super-cluster of a term (see {@link ClusteringAffinityFunction#identifyCluster(String)}).
+     *
+     * @param term The term to match to a super-cluster
+     * @return Number of the super-cluster (the cluster of the term for a flat clustering)
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
+     */
+    @Override
+    public int identifySuperCluster(String term) throws SimilarityException {
+        int cluster = identifyCluster(term);
+        return hierarchy != null && cluster >= 0 ? hierarchy.superClusterOf(cluster) : cluster;
+    }
 
-//##################### Clustering-based Fragmentation (Partition-Mappings, Cluster-Algorithm)  ######################
 
     /**
-     * Assign a certain partition to a certain node in the cluster.
      * <p>
-     * This functionality can also be optionally extended later to map partitions to several nodes,
-     * e.g. primary and backup nodes according to the clustering-based fragmentation.
+     * Insert new terms into the clustering without recomputing it (see {@link Clustering#insertTerms(Collection)}
+     * and, for a hierarchical clustering, {@link HierarchicalClustering#insertTerms(Collection, boolean)}). </p>
+     * <p>
+     * Before the partitions are assigned (i.e. before the cache is started), new cluster heads may be promoted: the
+     * number of partitions grows and the fragments of the changed partitions
+     * ({@link ClusteringUpdate#getChangedPartitions(ClusteringAffinityFunction)}) have to be reloaded. </p>
+     * <p>
+     * Once the partitions are assigned, Ignite has fixed the number of partitions of the cache, and every node uses
+     * its own copy of this affinity function. The terms are then only inserted if no new head has to be promoted:
+     * each new term is assigned to the cluster of its most similar head, which is the same cluster that the other
+     * nodes identify for the term (see {@link ClusteringAffinityFunction#identifyCluster(String)}; for a
+     * hierarchical clustering, the most similar sub-cluster head of all super-clusters determines the
+     * super-cluster). Otherwise an {@link IllegalStateException} is thrown and the clustering is not changed;
+     * the new clustering has to be distributed by a new cache (see
+     * {@link ClusteringAffinityFunction#withInsertedTerms(Collection)}). </p>
      *
-     * @param partition The number of the partition to assign to a node
-     * @param allNodes  A list of all nodes in the cluster, can be provided by e.g.
-     *                  {@link AffinityFunctionContext#currentTopologySnapshot()}
-     * @return List of cluster nodes (currently containing only one node) to which the partition is mapped
+     * @param terms New terms of the active domain
+     * @return Inserted and moved terms and the changed clusters
+     * @throws SimilarityException   Thrown if an error occurs during similarity calculation
+     * @throws IllegalStateException Thrown if the partitions are assigned and a new head would have to be promoted
      */
-    public List<ClusterNode> assignPartition(int partition, List<ClusterNode> allNodes) {
-        /* (assuming i partitions and k nodes, k <= i)
-           The i-th partition is assigned to the (i % k)-th node
-           Example: 2 Nodes
-                - partition 0 with respiratory diseases --> node 0, partition 1 with fractures --> node 1
-        */
-        List<ClusterNode> result = new ArrayList<>();
-        result.add(allNodes.get(partition % allNodes.size()));
-        return result;
+    public ClusteringUpdate insertTerms(Collection<String> terms) throws SimilarityException {
+        boolean promote = !isAssigned();
+        ClusteringUpdate update = hierarchy != null ? hierarchy.insertTerms(terms, promote)
+                : clustering.insertTerms(terms, promote);
+        if (update.getNewClusters() > 0 || !update.getMovedTerms().isEmpty()) {
+            this.headSimilarities = null;
+            reset();
+            this.headSimilarities = headSimilarities(similarityFunction, getIndex().heads);
+        }
+        return update;
     }
 
-
     /**
-     * This method identifies the cluster id to a given term.
+     * <p>
+     * Create a new affinity function whose clustering additionally contains the given terms (new cluster heads are
+     * promoted as needed, see {@link ClusteringAffinityFunction#insertTerms(Collection)}). The clustering of this
+     * affinity function is not changed. </p>
+     * <p>
+     * Ignite neither allows to change the number of partitions nor the affinity function of a started cache, so a
+     * new clustering is distributed to all nodes by new caches: </p>
+     * <ol>
+     * <li>Create the new affinity function by this method and write its clustering to a file (e.g. by
+     * {@link Clustering#writeToBinaryFile(String)} or {@link HierarchicalClustering#serializeToFile(String)}).</li>
+     * <li>Add cache templates with new names to the Spring XML configuration whose affinity function loads that
+     * file, e.g. by {@link ClusteringAffinityFunction#ClusteringAffinityFunction(MeSHSimilarityFunction, String)}.
+     * Ignite sends the affinity function of a new cache to every node.</li>
+     * <li>Create the tables with the new templates and load the data (e.g. by
+     * {@link materializedfragments.SetupCaches} with the new affinity function), switch the queries to the new
+     * tables and drop the old ones.</li>
+     * </ol>
      *
-     * @param term The term to match to a cluster
-     * @return Number of the cluster
+     * @param terms New terms of the active domain
+     * @return New affinity function with the same settings (sub-partitions, assignment strategy, ...)
      * @throws SimilarityException Thrown if an error occurs during similarity calculation
      */
-    public int identifyCluster(String term) throws SimilarityException {
-
-        // If the similarity function is of type SimClusteringTableSimilarity, use provided method to identify cluster
-        if (this.similarityFunction instanceof SimClusteringTableSimilarity) {
-            SimClusteringTableSimilarity scts = (SimClusteringTableSimilarity) this.similarityFunction;
-            if (scts.isIdentifyClusterEnabled()) {
-                try {
-                    return scts.identifyCluster(term);
-                } catch (NoSuchMethodException e) {
-                    throw new SimilarityException("Method identifyCluster(String term) of class " +
-                            scts.getClass().getName() + " is not enabled but was invoked!", e);
-                }
-            }
-        }
+    public ClusteringAffinityFunction withInsertedTerms(Collection<String> terms) throws SimilarityException {
+        ClusteringAffinityFunction copy = hierarchy != null
+                ? new ClusteringAffinityFunction(similarityFunction, hierarchy.copy())
+                : new ClusteringAffinityFunction(similarityFunction, clustering.copy());
+        copy.setAssignmentStrategy(getAssignmentStrategy())
+                .setSubPartitions(subPartitions)
+                .setIdentifyClusterCacheSize(identifyClusterCacheSize);
+        copy.insertTerms(terms);
+        return copy;
+    }
 
-        // Identify the cluster to which this term belongs
-        // If term is equal to the head of i-th cluster (store heads during check for further identification) return i
-        int clustersize = clustering.size();
-        String[] head = new String[clustersize];
-        for (int i = 0; i < clustersize; i++) {
-            head[i] = clustering.getHead(i);
-            if (term.equals(head[i]))
-                return i;
 
-        }
-
-        // No head matched -> calculate similarity of t to each of the heads and find maximum similarity
-        double max = -1;
-        int argMax = -1;
-        for (int i = 0; i < head.length; i++) {
-            double sim = similarityFunction.similarity(term, head[i]);
-            if (max < sim) {
-                max = sim;
-                argMax = i;
-            }
-        }
+//################################# Getter & Setter  ########################################
 
-        return argMax;
+    /**
+     * Get the number of clusters of the underlying clustering.
+     *
+     * @return Number of clusters
+     */
+    @Override
+    public int numberOfClusters() {
+        return clustering.size();
     }
 
-
     /**
-     * Get the corresponding (primary) node for a given partition
+     * Get the head of a cluster of the underlying clustering.
      *
-     * @param partition Partition number
-     * @return Node storing that partition
+     * @param cluster Number of the cluster
+     * @return Head term
      */
-    public ClusterNode getNodeOfPartition(int partition) {
-        return this.partitionAssignment.get(partition).get(0);
+    @Override
+    public String getHead(int cluster) {
+        return clustering.getHead(cluster);
     }
 
+    /**
+     * Get the number of terms of a cluster of the underlying clustering (including its head).
+     *
+     * @param cluster Number of the cluster
+     * @return Number of terms
+     */
+    @Override
+    public int clusterSize(int cluster) {
+        return clustering.getCluster(cluster).getAdom().size() + 1;
+    }
 
-//################################# Getter & Setter  ########################################
+    /**
+     * Get the hierarchical clustering whose sub-clusters are the clusters of this affinity function.
+     *
+     * @return Hierarchical clustering (null for a flat clustering)
+     */
+    public HierarchicalClustering getHierarchy() {
+        return hierarchy;
+    }
 
     /**
      * Get list of clusters of underlying clustering
@@ -373,6 +574,7 @@ public class ClusteringAffinityFunction implements AffinityFunction, Serializabl
      *
      * @return List of terms
      */
+    @Override
     public ArrayList<String> getTerms() {
         return new ArrayList<>(similarityFunction.getTerms());
     }
@@ -383,6 +585,7 @@ public class ClusteringAffinityFunction implements AffinityFunction, Serializabl
      * @param diseaseTerm MeSH disease term
      * @return CUI of given term or "" if unknown or input term was wrong
      */
+    @Override
     public String getCUI(String diseaseTerm) {
         Map<String, String> map = similarityFunction.getTermsWithCUIs();
         if (map == null)
@@ -395,10 +598,108 @@ public class ClusteringAffinityFunction implements AffinityFunction, Serializabl
      *
      * @return Similarity function
      */
+    @Override
     public MeSHSimilarityFunction getSimilarityFunction() {
         return similarityFunction;
     }
 
+    /**
+     * Set the strategy to map the partitions to the nodes of the cluster
+     * (e.g. by the property "assignmentStrategy" in the Spring XML configuration). For a hierarchical clustering,
+     * the {@link HierarchicalAssignmentStrategy} is set on construction; another strategy spreads the sub-clusters
+     * of a super-cluster over several nodes (a warning is printed).
+     *
+     * @param assignmentStrategy Assignment strategy
+     * @return {@code This} for chaining
+     */
+    @Override
+    public ClusteringAffinityFunction setAssignmentStrategy(PartitionAssignmentStrategy assignmentStrategy) {
+        if (hierarchy != null && assignmentStrategy != null
+                && !(assignmentStrategy instanceof HierarchicalAssignmentStrategy))
+            System.out.println("WARNING: The " + assignmentStrategy.getClass().getSimpleName() + " replaces the "
+                    + "HierarchicalAssignmentStrategy of the hierarchical clustering: the sub-clusters of a "
+                    + "super-cluster are no longer mapped to the same node!");
+        super.setAssignmentStrategy(assignmentStrategy);
+        return this;
+    }
+
+    /**
+     * Get the number of sub-partitions of each cluster.
+     *
+     * @return Number of sub-partitions per cluster
+     */
+    @Override
+    public int getSubPartitions() {
+        return subPartitions;
+    }
+
+    /**
+     * Set the number of sub-partitions of each cluster (e.g. by the property "subPartitions" in the Spring XML
+     * configuration). The entries of a cluster are spread over its sub-partitions by the person id, so a large
+     * cluster can be stored on several nodes. The partitions of cluster i are i * subPartitions, ...,
+     * (i + 1) * subPartitions - 1. Must be the same on all nodes and must not be changed after the caches are
+     * created.
+     *
+     * @param subPartitions Number of sub-partitions per cluster (at least 1, default: 1)
+     * @return {@code This} for chaining
+     */
+    public ClusteringAffinityFunction setSubPartitions(int subPartitions) {
+        if (subPartitions < 1)
+            throw new IllegalArgumentException("The number of sub-partitions must be at least 1: " + subPartitions);
+        this.subPartitions = subPartitions;
+        return this;
+    }
+
+    /**
+     * Get the maximal number of cached cluster identifications of terms outside the active domain.
+     *
+     * @return Cache size (0 = no caching)
+     */
+    public int getIdentifyClusterCacheSize() {
+        return identifyClusterCacheSize;
+    }
+
+    /**
+     * Set the maximal number of cached cluster identifications of terms outside the active domain
+     * (discards the currently cached identifications).
+     *
+     * @param identifyClusterCacheSize Cache size (0 = no caching)
+     * @return {@code This} for chaining
+     */
+    public ClusteringAffinityFunction setIdentifyClusterCacheSize(int identifyClusterCacheSize) {
+        if (identifyClusterCacheSize < 0)
+            throw new IllegalArgumentException("The cache size must not be negative: " + identifyClusterCacheSize);
+        this.identifyClusterCacheSize = identifyClusterCacheSize;
+        this.index = new ClusteringIndex();
+        return this;
+    }
+
+    /**
+     * Get the cache of cluster identifications of terms outside the active domain for the current clustering
+     * (e.g. to read its hit, miss and eviction counters).
+     *
+     * @return Cache or null if caching is disabled
+     */
+    public ConcurrentLRUCache<String, Integer> getIdentifyClusterCache() {
+        return getIndex().unseenTerms;
+    }
+
+//################################# Serialization  ########################################
+
+    /**
+     * Deserialize the affinity function and build the lookup structures of the clustering.
+     *
+     * @param in Input stream
+     * @throws IOException            Error on reading
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        if (this.subPartitions < 1)
+            this.subPartitions = 1;
+        this.index = new ClusteringIndex();
+    }
+
     //################################### MAIN-Method  #########################################
 
     /**
@@ -463,32 +764,22 @@ public class ClusteringAffinityFunction implements AffinityFunction, Serializabl
         // < 0.10 there is 3 clusters and 1 cluster (btw 0.001 steps do not produce other values than in the table)
         termsFile = "csv" + separ + "terms100.txt";
         simFile = "csv" + separ + "result100.csv";
-        // Test clustering (with statistics)
-        for (double alpha = 0.1; alpha <= 0.17; alpha = alpha + 0.005) {
-            maf = new ClusteringAffinityFunction(alpha, termsFile, simFile);
-            maf.clustering.printClusteringStatistics();
-        }
-        terms100 = maf.getTerms();
+        // Test clustering (with statistics), all thresholds in one clustering sweep
+        CSVSimilarityLoader loader100 = new CSVSimilarityLoader(termsFile, simFile);
+        ClusteringSweep sweep = new ClusteringSweep(loader100, ClusteringSweep.alphaRange(0.1, 0.17, 0.005));
+        for (Clustering c : sweep.getClusterings().values())
+            c.printClusteringStatistics();
+        terms100 = new ArrayList<>(loader100.getTerms());
         System.out.println("-----------------------------------------------------------------");
 
 
         // 500, 1000, 2500 and all MeSH Terms (from pathlength csvs)
-        // Good alphas (500):
-        for (double alp = 0.1; alp <= 0.18; alp = alp + 0.01) {
-            maf = new ClusteringAffinityFunction(alp, "csv" + separ + "pathlengths500.csv");
-            maf.clustering.printClusteringStatistics();
-        }
-        for (double alp = 0.1; alp <= 0.18; alp = alp + 0.01) {
-            maf = new ClusteringAffinityFunction(alp, "csv" + separ + "pathlengths1000.csv");
-            maf.clustering.printClusteringStatistics();
-        }
-        for (double alp = 0.1; alp <= 0.18; alp = alp + 0.01) {
-            maf = new ClusteringAffinityFunction(alp, "csv" + separ + "pathlengths2500.csv");
-            maf.clustering.printClusteringStatistics();
-        }
-        for (double alp = 0.1; alp <= 0.18; alp = alp + 0.01) {
-            maf = new ClusteringAffinityFunction(alp, "csv" + separ + "pathlengthsAll.csv");
-            maf.clustering.printClusteringStatistics();
+        // Good alphas (500), one clustering sweep per term set:
+        for (String fileName : new String[]{"500", "1000", "2500", "All"}) {
+            PathLengthSimilarity pathLengths = new PathLengthSimilarity("csv" + separ + "pathlengths" + fileName + ".csv");
+            sweep = new ClusteringSweep(pathLengths, ClusteringSweep.alphaRange(0.1, 0.18, 0.01));
+            for (Clustering c : sweep.getClusterings().values())
+                c.printClusteringStatistics();
         }
 
     }
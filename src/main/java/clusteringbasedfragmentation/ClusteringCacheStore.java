@@ -65,10 +65,11 @@ public class ClusteringCacheStore extends CacheLoadOnlyStoreAdapter<Integer, Str
     @Override
     protected Iterator<IgniteBiTuple<Integer, String>> inputIterator(@Nullable Object... args) throws CacheLoaderException {
         try {
-            Clustering clustering = Clustering.deserializeFromFile(clusteringFile);
+            // Only the heads are needed: a binary clustering file provides them without building the clusters
+            String[] heads = ClusteringFile.load(clusteringFile).getHeads();
             ArrayList<IgniteBiTuple<Integer, String>> list = new ArrayList<>();
-            for (int i = 0; i < clustering.size(); i++) {
-                list.add(new IgniteBiTuple<>(i, clustering.getHead(i)));
+            for (int i = 0; i < heads.length; i++) {
+                list.add(new IgniteBiTuple<>(i, heads[i]));
             }
             return list.iterator();
         } catch (IOException | ClassNotFoundException e) {
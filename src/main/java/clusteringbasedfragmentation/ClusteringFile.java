@@ -0,0 +1,510 @@
+package clusteringbasedfragmentation;
+
+import clusteringbasedfragmentation.similarityfunctions.MeSHSimilarityFunction;
+import clusteringbasedfragmentation.similarityfunctions.PathLengthSimilarity;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * <p>
+ * Compact binary representation of a {@link Clustering}: a table of the terms and int arrays for the cluster of
+ * each term and the head of each cluster. It is written and read without Java serialization, the file is read via
+ * a memory-mapped {@link FileChannel}. The term table together with the clusters of the terms is a dense
+ * term to cluster mapping, so the lookup table of an affinity function can be built directly from it (see
+ * {@link CompactClusteringAffinityFunction#CompactClusteringAffinityFunction(String, int, UnseenTermResolver)}). </p>
+ * <p>
+ * The binary format (big-endian) consists of:
+ * <ul>
+ * <li>Header: magic number {@link ClusteringFile#MAGIC} (int), format version (int), number of terms n (int),
+ * number of clusters k (int), alpha (double), positions of the string offsets, the clusters of the terms, the
+ * heads, the term table and the head similarities (5 longs, the last one is 0 without head similarities; version
+ * 1 files have no head similarities and only 4 longs)</li>
+ * <li>String offsets section: n + 1 ints, the UTF-8 bytes of term i are at [offset(i), offset(i + 1)) relative to
+ * the start of the term table</li>
+ * <li>Clusters: n ints, the cluster of term i</li>
+ * <li>Heads: k ints, the term of the head of cluster i</li>
+ * <li>Head similarities (optional): k * (k - 1) / 2 doubles, the similarities of the heads i &gt; j in the order
+ * (1, 0), (2, 0), (2, 1), (3, 0), ... (see {@link AbstractClusteringAffinityFunction#getHeadSimilarities()})</li>
+ * <li>Term table: UTF-8 bytes of all terms in lexicographical order</li>
+ * </ul>
+ * {@link Clustering#deserializeFromFile(String)} reads both this format and serialized {@link Clustering} objects.
+ * Existing files are converted by {@link ClusteringFile#migrate(String, String)} (see
+ * {@link ClusteringFile#main(String[])}). </p>
+ */
+public final class ClusteringFile {
+
+    /**
+     * Magic number of the binary clustering file ("CLST")
+     */
+    public static final int MAGIC = 0x434C5354;
+
+    /**
+     * Current version of the binary clustering file format
+     */
+    public static final int VERSION = 2;
+
+    /**
+     * Size of the header in bytes
+     */
+    private static final int HEADER_SIZE = 64;
+
+    /**
+     * Size of the header of version 1 files (without head similarities) in bytes
+     */
+    private static final int HEADER_SIZE_V1 = 56;
+
+    /**
+     * Similarity threshold of the clustering
+     */
+    private final double alpha;
+
+    /**
+     * Terms in lexicographical order
+     */
+    private final String[] terms;
+
+    /**
+     * Cluster of each term
+     */
+    private final int[] clusterOf;
+
+    /**
+     * Term of the head of each cluster
+     */
+    private final int[] heads;
+
+    /**
+     * Pairwise similarities of the heads (null if not available)
+     */
+    private final double[][] headSimilarities;
+
+
+    private ClusteringFile(double alpha, String[] terms, int[] clusterOf, int[] heads, double[][] headSimilarities) {
+        this.alpha = alpha;
+        this.terms = terms;
+        this.clusterOf = clusterOf;
+        this.heads = heads;
+        this.headSimilarities = headSimilarities;
+    }
+
+
+    /**
+     * Get the binary representation of a clustering.
+     *
+     * @param clustering Clustering
+     * @return Binary representation
+     */
+    public static ClusteringFile of(Clustering clustering) {
+        ArrayList<String> all = new ArrayList<>();
+        for (Cluster<String> c : clustering) {
+            all.add(c.getHead());
+            all.addAll(c.getAdom());
+        }
+        String[] terms = all.toArray(new String[0]);
+        Arrays.sort(terms);
+
+        int[] clusterOf = new int[terms.length];
+        int[] heads = new int[clustering.size()];
+        for (int i = 0; i < heads.length; i++) {
+            Cluster<String> c = clustering.getCluster(i);
+            heads[i] = Arrays.binarySearch(terms, c.getHead());
+            clusterOf[heads[i]] = i;
+            for (String term : c.getAdom())
+                clusterOf[Arrays.binarySearch(terms, term)] = i;
+        }
+        return new ClusteringFile(clustering.getAlpha(), terms, clusterOf, heads, null);
+    }
+
+    /**
+     * Get a copy of this clustering with the pairwise similarities of its heads, e.g. to write them to the file so
+     * that the affinity functions need not query them (see
+     * {@link AbstractClusteringAffinityFunction#getHeadSimilarities()}).
+     *
+     * @param headSimilarities Matrix of head similarities indexed by cluster numbers (null = none)
+     * @return Clustering with head similarities
+     */
+    public ClusteringFile withHeadSimilarities(double[][] headSimilarities) {
+        if (headSimilarities != null && headSimilarities.length != heads.length)
+            throw new IllegalArgumentException("The head similarities of " + headSimilarities.length
+                    + " clusters do not match the " + heads.length + " clusters.");
+        return new ClusteringFile(alpha, terms, clusterOf, heads, headSimilarities);
+    }
+
+    /**
+     * Get a copy of this clustering with the pairwise similarities of its heads calculated by a similarity
+     * function.
+     *
+     * @param similarityFunction Similarity function (which was used to obtain the clustering)
+     * @return Clustering with head similarities
+     * @throws SimilarityException Thrown if the similarity of two heads cannot be calculated
+     */
+    public ClusteringFile withHeadSimilarities(MeSHSimilarityFunction similarityFunction) throws SimilarityException {
+        return withHeadSimilarities(AbstractClusteringAffinityFunction.headSimilarities(similarityFunction,
+                getHeads()));
+    }
+
+
+    /**
+     * Build the clustering (the adoms are {@link HashSet}s of the terms of the clusters without their heads).
+     *
+     * @return Clustering without similarity function
+     */
+    public Clustering toClustering() {
+        ArrayList<HashSet<String>> adoms = new ArrayList<>(heads.length);
+        for (int i = 0; i < heads.length; i++)
+            adoms.add(new HashSet<>());
+        for (int t = 0; t < terms.length; t++)
+            if (heads[clusterOf[t]] != t)
+                adoms.get(clusterOf[t]).add(terms[t]);
+
+        ArrayList<Cluster<String>> clusters = new ArrayList<>(heads.length);
+        for (int i = 0; i < heads.length; i++)
+            clusters.add(new Cluster<>(terms[heads[i]], adoms.get(i)));
+        return new Clustering().setClusters(clusters).setAlpha(alpha);
+    }
+
+
+//##################### Reading & Writing ######################
+
+    /**
+     * Check whether a file is a binary clustering file (by its magic number).
+     *
+     * @param file Path to the file
+     * @return True if the file starts with {@link ClusteringFile#MAGIC}
+     * @throws IOException Error on file read
+     */
+    public static boolean isClusteringFile(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readInt() == MAGIC;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Load a clustering file in either format: binary clustering files are read directly, serialized
+     * {@link Clustering} objects are converted. For a serialized {@link HierarchicalClustering}, its sub-clustering
+     * is converted (its sub-clusters are the clusters of the affinity functions).
+     *
+     * @param file Path to the binary or serialized (hierarchical) clustering file
+     * @return Binary representation of the clustering
+     * @throws IOException            Error on file read or invalid file
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    public static ClusteringFile load(String file) throws IOException, ClassNotFoundException {
+        if (isClusteringFile(file))
+            return read(file);
+        if (HierarchicalClustering.isHierarchicalClusteringFile(file))
+            return of(HierarchicalClustering.deserializeFromFile(file).getSubClustering());
+        return of(Clustering.deserializeFromFile(file));
+    }
+
+    /**
+     * Read a binary clustering file.
+     *
+     * @param file Path to the binary clustering file
+     * @return Binary representation of the clustering
+     * @throws IOException Error on file read or invalid file
+     */
+    public static ClusteringFile read(String file) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE_V1)
+                throw new IOException("File '" + file + "' is no binary clustering file!");
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            // Header
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("File '" + file + "' is no binary clustering file!");
+            int version = buffer.getInt();
+            if (version != 1 && version != VERSION)
+                throw new IOException("Unsupported version " + version + " of binary clustering file '" + file
+                        + "' (supported: 1 - " + VERSION + ")!");
+            if (version > 1 && channel.size() < HEADER_SIZE)
+                throw new IOException("File '" + file + "' is no binary clustering file!");
+            int numTerms = buffer.getInt();
+            int numClusters = buffer.getInt();
+            double alpha = buffer.getDouble();
+            long offsetsPos = buffer.getLong();
+            long clustersPos = buffer.getLong();
+            long headsPos = buffer.getLong();
+            long stringsPos = buffer.getLong();
+            long headSimilaritiesPos = version > 1 ? buffer.getLong() : 0;
+
+            // Int sections
+            int[] offsets = readInts(buffer, offsetsPos, numTerms + 1);
+            int[] clusterOf = readInts(buffer, clustersPos, numTerms);
+            int[] heads = readInts(buffer, headsPos, numClusters);
+            if (stringsPos + offsets[numTerms] > channel.size())
+                throw new IOException("Term table of file '" + file + "' is truncated!");
+
+            // Term table
+            String[] terms = new String[numTerms];
+            for (int i = 0; i < numTerms; i++) {
+                byte[] bytes = new byte[offsets[i + 1] - offsets[i]];
+                buffer.position((int) (stringsPos + offsets[i]));
+                buffer.get(bytes);
+                terms[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+
+            // Consistency of the clusters and heads
+            for (int i = 0; i < numTerms; i++)
+                if (clusterOf[i] < 0 || clusterOf[i] >= numClusters || i > 0 && terms[i - 1].compareTo(terms[i]) >= 0)
+                    throw new IOException("Invalid term table or clusters in file '" + file + "'!");
+            for (int i = 0; i < numClusters; i++)
+                if (heads[i] < 0 || heads[i] >= numTerms || clusterOf[heads[i]] != i)
+                    throw new IOException("Invalid head of cluster " + i + " in file '" + file + "'!");
+
+            // Head similarities
+            double[][] headSimilarities = null;
+            if (headSimilaritiesPos > 0) {
+                long length = (long) numClusters * (numClusters - 1) / 2;
+                if (length > Integer.MAX_VALUE || headSimilaritiesPos + 8L * length > channel.size())
+                    throw new IOException("Head similarities of file '" + file + "' are truncated!");
+                double[] lower = new double[(int) length];
+                ByteBuffer section = buffer.duplicate();
+                section.position((int) headSimilaritiesPos);
+                section.slice().asDoubleBuffer().get(lower);
+                headSimilarities = new double[numClusters][numClusters];
+                int n = 0;
+                for (int i = 0; i < numClusters; i++) {
+                    headSimilarities[i][i] = 1.0;
+                    for (int j = 0; j < i; j++) {
+                        headSimilarities[i][j] = lower[n];
+                        headSimilarities[j][i] = lower[n++];
+                    }
+                }
+            }
+
+            return new ClusteringFile(alpha, terms, clusterOf, heads, headSimilarities);
+        }
+    }
+
+    /**
+     * Read an int section of a mapped file.
+     *
+     * @param buffer   Mapped file
+     * @param position Position of the section
+     * @param length   Number of ints
+     * @return Ints
+     * @throws IOException Section exceeds the file
+     */
+    private static int[] readInts(MappedByteBuffer buffer, long position, int length) throws IOException {
+        if (length < 0 || position + 4L * length > buffer.capacity())
+            throw new IOException("Section at position " + position + " exceeds the clustering file!");
+        int[] values = new int[length];
+        ByteBuffer section = buffer.duplicate();
+        section.position((int) position);
+        section.slice().asIntBuffer().get(values);
+        return values;
+    }
+
+    /**
+     * Write this clustering (and its head similarities if available) to a binary clustering file.
+     *
+     * @param file Path to the output file
+     * @throws IOException Error on file write
+     */
+    public void write(String file) throws IOException {
+        int numTerms = terms.length;
+
+        // Encode the terms and calculate the string offsets
+        byte[][] encoded = new byte[numTerms][];
+        int[] offsets = new int[numTerms + 1];
+        for (int i = 0; i < numTerms; i++) {
+            encoded[i] = terms[i].getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+        long offsetsPos = HEADER_SIZE;
+        long clustersPos = offsetsPos + 4L * (numTerms + 1);
+        long headsPos = clustersPos + 4L * numTerms;
+        long stringsPos = headsPos + 4L * heads.length;
+        long headSimilaritiesPos = headSimilarities != null ? stringsPos + offsets[numTerms] : 0;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+
+            // Header
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numTerms);
+            out.writeInt(heads.length);
+            out.writeDouble(alpha);
+            out.writeLong(offsetsPos);
+            out.writeLong(clustersPos);
+            out.writeLong(headsPos);
+            out.writeLong(stringsPos);
+            out.writeLong(headSimilaritiesPos);
+
+            // Int sections and term table
+            for (int offset : offsets)
+                out.writeInt(offset);
+            for (int cluster : clusterOf)
+                out.writeInt(cluster);
+            for (int head : heads)
+                out.writeInt(head);
+            for (byte[] bytes : encoded)
+                out.write(bytes);
+
+            // Head similarities (lower triangle)
+            if (headSimilarities != null)
+                for (int i = 0; i < heads.length; i++)
+                    for (int j = 0; j < i; j++)
+                        out.writeDouble(headSimilarities[i][j]);
+        }
+    }
+
+    /**
+     * Convert a serialized {@link Clustering} (see {@link Clustering#serializeToFile(String)}) to a binary
+     * clustering file (a serialized {@link HierarchicalClustering} is converted to its sub-clustering, see
+     * {@link ClusteringFile#load(String)}). The input file may be the output file, it is then replaced.
+     *
+     * @param clusteringFile Path to the serialized clustering
+     * @param file           Path to the output file
+     * @throws IOException            Error on file read/write
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    public static void migrate(String clusteringFile, String file) throws IOException, ClassNotFoundException {
+        migrate(clusteringFile, file, null);
+    }
+
+    /**
+     * Convert a serialized {@link Clustering} to a binary clustering file (see
+     * {@link ClusteringFile#migrate(String, String)}) and store the similarities of its heads, so that the affinity
+     * functions loading the file place the backups by the head similarities without querying them.
+     *
+     * @param clusteringFile     Path to the serialized clustering
+     * @param file               Path to the output file
+     * @param similarityFunction Similarity function for the head similarities (null = keep the head similarities
+     *                           of a binary input file)
+     * @throws IOException            Error on file read/write or on the calculation of the head similarities
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    public static void migrate(String clusteringFile, String file, MeSHSimilarityFunction similarityFunction)
+            throws IOException, ClassNotFoundException {
+        ClusteringFile binary = load(clusteringFile);
+        if (similarityFunction != null) {
+            try {
+                binary = binary.withHeadSimilarities(similarityFunction);
+            } catch (SimilarityException e) {
+                throw new IOException("The head similarities of '" + clusteringFile + "' could not be calculated: "
+                        + e.getMessage(), e);
+            }
+        }
+        Path output = Paths.get(file);
+        Path temp = Paths.get(file + ".tmp");
+        binary.write(temp.toString());
+        Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+        System.out.println("Wrote " + binary.size() + " clusters of " + binary.terms.length + " terms "
+                + (binary.headSimilarities != null ? "with head similarities " : "")
+                + "to binary clustering file '" + file + "'!");
+    }
+
+
+//##################### Getter ######################
+
+    /**
+     * Get the similarity threshold of the clustering
+     *
+     * @return Alpha
+     */
+    public double getAlpha() {
+        return alpha;
+    }
+
+    /**
+     * Number of clusters
+     *
+     * @return Number of clusters
+     */
+    public int size() {
+        return heads.length;
+    }
+
+    /**
+     * Get the heads of the clusters
+     *
+     * @return Heads (i-th head = head of the i-th cluster)
+     */
+    public String[] getHeads() {
+        String[] result = new String[heads.length];
+        for (int i = 0; i < heads.length; i++)
+            result[i] = terms[heads[i]];
+        return result;
+    }
+
+    /**
+     * Get the terms of the clustering (shared, must not be modified)
+     *
+     * @return Terms in lexicographical order
+     */
+    String[] getTerms() {
+        return terms;
+    }
+
+    /**
+     * Get the cluster of each term (shared, must not be modified)
+     *
+     * @return Cluster of the term with the same index in {@link ClusteringFile#getTerms()}
+     */
+    int[] getClusterOf() {
+        return clusterOf;
+    }
+
+    /**
+     * Get the pairwise similarities of the heads (shared, must not be modified)
+     *
+     * @return Matrix of head similarities indexed by cluster numbers (null if not available)
+     */
+    double[][] getHeadSimilarities() {
+        return headSimilarities;
+    }
+
+
+//##################### Main ######################
+
+    /**
+     * Migration tool: convert serialized clusterings (e.g. clustering/clustering500) to binary clustering files
+     * and compare the load times of both formats. With a path length file, the head similarities are stored.
+     *
+     * @param args Optional "-pathLengths" and a path length csv- or zip-File (e.g. csv/pathlengths500.zip), then
+     *             pairs of input and output files, e.g. clustering/clustering500 clustering/clustering500.bin
+     *             (the output file may be the input file)
+     * @throws Exception Error on file read/write
+     */
+    public static void main(String[] args) throws Exception {
+        int first = args.length >= 2 && args[0].equals("-pathLengths") ? 2 : 0;
+        if (args.length == first || (args.length - first) % 2 != 0) {
+            System.out.println("Usage: ClusteringFile [-pathLengths <path length file>] <serialized clustering> "
+                    + "<output file> ...");
+            return;
+        }
+        MeSHSimilarityFunction similarityFunction = first > 0 ? new PathLengthSimilarity(args[1]) : null;
+        for (int i = first; i < args.length; i += 2) {
+            long inputSize = new File(args[i]).length();
+            long start = System.nanoTime();
+            Clustering serialized = Clustering.deserializeFromFile(args[i]);
+            long serializedTime = System.nanoTime() - start;
+
+            migrate(args[i], args[i + 1], similarityFunction);
+
+            start = System.nanoTime();
+            Clustering binary = Clustering.deserializeFromFile(args[i + 1]);
+            long binaryTime = System.nanoTime() - start;
+            System.out.println("Serialized: " + inputSize + " bytes, loaded in " + serializedTime / 1000000000.0
+                    + "s; binary: " + new File(args[i + 1]).length() + " bytes, loaded in "
+                    + binaryTime / 1000000000.0 + "s; identical clusters: " + binary.hasSameClusters(serialized));
+        }
+    }
+
+}
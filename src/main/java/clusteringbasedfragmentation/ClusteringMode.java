@@ -0,0 +1,28 @@
+package clusteringbasedfragmentation;
+
+/**
+ * Selects the implementation of the clustering procedure that is used by {@link Clustering}.
+ * All modes produce exactly the same clusters, they only differ in their run time.
+ */
+public enum ClusteringMode {
+
+    /**
+     * Original clustering procedure that rescans every term against every cluster head in each iteration
+     * (to find the next head, to reassign the terms and to update the minimal similarity).
+     */
+    REFERENCE,
+
+    /**
+     * Clustering procedure that keeps the similarity of each term to its current head and therefore only
+     * compares the terms against the newly created head in each iteration. See {@link ClusteringProcess}.
+     */
+    INCREMENTAL,
+
+    /**
+     * Incremental clustering procedure whose similarity scans (reassignment of the terms to the new head and
+     * update of the minimal similarity) are executed in parallel by a {@link java.util.concurrent.ForkJoinPool}.
+     * The number of threads can be set on construction of the {@link Clustering}. See {@link ClusteringProcess}.
+     */
+    PARALLEL
+
+}
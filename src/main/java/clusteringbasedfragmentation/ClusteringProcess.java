@@ -0,0 +1,531 @@
+package clusteringbasedfragmentation;
+
+import clusteringbasedfragmentation.similarityfunctions.IndexedSimilarityFunction;
+import clusteringbasedfragmentation.similarityfunctions.MeSHSimilarityFunction;
+import clusteringbasedfragmentation.similarityfunctions.TermDictionary;
+
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * <p>
+ * Incremental implementation of the clustering procedure of {@link Clustering} (see
+ * {@link ClusteringMode#INCREMENTAL}). </p>
+ * <p>
+ * For each term, the similarity to the head of the cluster it currently belongs to is kept. Thus, in
+ * each iteration the terms only have to be compared against the newly created head: a term moves to
+ * the new cluster if it is at least as similar to the new head as to its current head, and the minimal
+ * similarity for the next iteration is obtained in the same pass. The terms are kept in an
+ * {@link IndexedMinHeap} keyed by these similarities, so the candidates for the next head (the terms with the
+ * minimal similarity) are found in O(log n) instead of scanning all clusters; only the first cluster containing
+ * a candidate is scanned if it contains several candidates. </p>
+ * <p>
+ * Internally, the procedure runs on term ids: each term is represented by a {@link Term} that carries its id,
+ * and if the similarity function is an {@link IndexedSimilarityFunction}, all similarities are looked up by ids.
+ * A {@link Term} has the same hash code and ordering as its String, so the clusters (and their iteration
+ * order, which determines the next head in case of equal similarities) behave exactly like in the reference
+ * procedure and the resulting clustering is identical. </p>
+ * <p>
+ * If a {@link ForkJoinPool} is given (see {@link ClusteringMode#PARALLEL}), the similarity scans are executed in
+ * parallel: the initial scan over all terms and the reassignment of the terms of each existing cluster to the new
+ * head. The per-cluster results are combined in cluster order, so the clusters are the same as in the sequential
+ * procedure. The similarity function must then allow for concurrent lookups. </p>
+ */
+class ClusteringProcess {
+
+    /**
+     * Similarity function
+     */
+    private final MeSHSimilarityFunction similarityFunction;
+
+    /**
+     * Similarity function that allows for lookups by ids (null if the similarity function is not indexed)
+     */
+    private final IndexedSimilarityFunction indexedFunction;
+
+    /**
+     * Clusters of terms created so far (the last one has the most recently chosen head)
+     */
+    private final ArrayList<Cluster<Term>> clusters;
+
+    /**
+     * Similarity of each term (by id) to the head of the cluster it currently belongs to
+     */
+    private final double[] headSimilarity;
+
+    /**
+     * Similarity of each moved term (by id) to the new head, applied after the reassignment of all clusters
+     */
+    private final double[] movedSimilarity;
+
+    /**
+     * Index of the cluster each term (by id) currently belongs to
+     */
+    private final int[] clusterOf;
+
+    /**
+     * Term of each id
+     */
+    private final Term[] termOf;
+
+    /**
+     * Terms that are no heads, keyed by their similarity to their heads
+     */
+    private final IndexedMinHeap heap;
+
+    /**
+     * Minimal similarity of any term to the head of its cluster
+     */
+    private double simMin;
+
+    /**
+     * Pool for the parallel similarity scans (null = sequential procedure)
+     */
+    private final ForkJoinPool pool;
+
+    /**
+     * Minimal number of terms of a parallel task (smaller ranges are not split further)
+     */
+    private static final int PARALLEL_THRESHOLD = 1024;
+
+
+    /**
+     * Initialize the clustering procedure with a first cluster, whose head is the first term of the active
+     * domain and which contains all the other terms.
+     *
+     * @param activeDomain       Active domain (the first term becomes the first head)
+     * @param similarityFunction Similarity function
+     * @throws SimilarityException Error on similarity calculation
+     */
+    ClusteringProcess(List<String> activeDomain, MeSHSimilarityFunction similarityFunction)
+            throws SimilarityException {
+        this(activeDomain, similarityFunction, null);
+    }
+
+    /**
+     * Initialize the clustering procedure (see {@link ClusteringProcess#ClusteringProcess(List, MeSHSimilarityFunction)})
+     * with parallel similarity scans.
+     *
+     * @param activeDomain       Active domain (the first term becomes the first head)
+     * @param similarityFunction Similarity function (must allow for concurrent lookups if a pool is given)
+     * @param pool               Pool for the parallel similarity scans (null = sequential procedure)
+     * @throws SimilarityException Error on similarity calculation
+     */
+    ClusteringProcess(List<String> activeDomain, MeSHSimilarityFunction similarityFunction, ForkJoinPool pool)
+            throws SimilarityException {
+
+        if (activeDomain.isEmpty())
+            throw new IllegalArgumentException("The active domain is empty.");
+
+        this.similarityFunction = similarityFunction;
+        this.pool = pool;
+
+        // Represent the terms by their ids (in the dictionary of an indexed function or in the active domain)
+        ArrayList<Term> adom = new ArrayList<>(activeDomain.size());
+        if (similarityFunction instanceof IndexedSimilarityFunction) {
+            this.indexedFunction = (IndexedSimilarityFunction) similarityFunction;
+            TermDictionary dictionary = indexedFunction.getDictionary();
+            for (String term : activeDomain) {
+                int id = dictionary.id(term);
+                if (id < 0)
+                    throw new SimilarityException("Term '" + term + "' is not known to the similarity function!");
+                adom.add(new Term(term, id));
+            }
+            this.headSimilarity = new double[dictionary.size()];
+        } else {
+            this.indexedFunction = null;
+            for (int i = 0; i < activeDomain.size(); i++)
+                adom.add(new Term(activeDomain.get(i), i));
+            this.headSimilarity = new double[activeDomain.size()];
+        }
+
+        // Initialize first cluster with all values from the active domain (except head)
+        Term headElement = adom.remove(0);
+        Cluster<Term> c = new Cluster<>(headElement, new HashSet<>(adom));
+        this.clusters = new ArrayList<>();
+        this.clusters.add(c);
+
+        // Initial minimal similarity for next head
+        this.simMin = 1.0;
+        if (pool != null) {
+            Term[] terms = adom.toArray(new Term[0]);
+            invoke(new InitialScanTask(terms, headElement, 0, terms.length));
+            for (Term term : terms)
+                if (headSimilarity[term.id] < simMin)
+                    simMin = headSimilarity[term.id];
+        } else {
+            for (Term term : c.getAdom()) {
+                double sim = similarity(term, headElement);
+                headSimilarity[term.id] = sim;
+                if (sim < simMin)
+                    simMin = sim;
+            }
+        }
+
+        // Heap of the terms (all terms belong to the first cluster)
+        this.movedSimilarity = new double[headSimilarity.length];
+        this.clusterOf = new int[headSimilarity.length];
+        this.termOf = new Term[headSimilarity.length];
+        termOf[headElement.id] = headElement;
+        int[] ids = new int[adom.size()];
+        for (int i = 0; i < ids.length; i++) {
+            Term term = adom.get(i);
+            termOf[term.id] = term;
+            ids[i] = term.id;
+        }
+        this.heap = new IndexedMinHeap(headSimilarity, ids);
+    }
+
+
+    /**
+     * Minimal similarity of any term to the head of its cluster.
+     *
+     * @return Minimal similarity
+     */
+    double getSimMin() {
+        return simMin;
+    }
+
+    /**
+     * Get the clusters created so far as clusters of MeSH terms.
+     *
+     * @return List of clusters
+     */
+    ArrayList<Cluster<String>> getClusters() {
+        ArrayList<Cluster<String>> result = new ArrayList<>(clusters.size());
+        for (Cluster<Term> c : clusters) {
+            HashSet<String> adom = new HashSet<>(c.getAdom().size() * 4 / 3 + 1);
+            for (Term term : c.getAdom())
+                adom.add(term.term);
+            result.add(new Cluster<>(c.getHead().term, adom));
+        }
+        return result;
+    }
+
+    /**
+     * Number of clusters created so far.
+     *
+     * @return Number of clusters
+     */
+    int size() {
+        return clusters.size();
+    }
+
+    /**
+     * Sizes (number of terms including the head) of the clusters created so far.
+     *
+     * @return Size of each cluster
+     */
+    int[] getClusterSizes() {
+        int[] sizes = new int[clusters.size()];
+        for (int i = 0; i < sizes.length; i++)
+            sizes[i] = clusters.get(i).getAdom().size() + 1;
+        return sizes;
+    }
+
+
+    /**
+     * Perform one iteration of the clustering procedure: the term with the smallest similarity to its head
+     * becomes the head of a new cluster, the terms that are at least as similar to the new head as to their
+     * current head are moved to the new cluster and the minimal similarity is updated.
+     *
+     * @return The new head
+     * @throws SimilarityException Error on similarity calculation
+     */
+    String step() throws SimilarityException {
+
+        Term nextHead = selectNextHead();
+
+        // Create next cluster (moving terms from the old clusters' adoms if they are more similar to nextHead)
+        HashSet<Term> nextAdom = new HashSet<>();
+        double min = 1;
+        if (pool != null) {
+
+            // Reassign the terms of the clusters in parallel, then combine the results in cluster order
+            int numClusters = clusters.size();
+            @SuppressWarnings({"rawtypes", "unchecked"})
+            List<Term>[] moved = new List[numClusters];
+            double[] mins = new double[numClusters];
+            invoke(new ReassignTask(nextHead, 0, numClusters, moved, mins));
+            for (int i = 0; i < numClusters; i++) {
+                moveTerms(moved[i], nextAdom);
+                if (min >= mins[i])
+                    min = mins[i];
+            }
+        } else {
+            List<Term> moved = new ArrayList<>();
+            for (Cluster<Term> c : clusters) {
+                double clusterMin = reassign(c, nextHead, moved);
+                if (min >= clusterMin)
+                    min = clusterMin;
+            }
+            moveTerms(moved, nextAdom);
+        }
+
+        clusters.add(new Cluster<>(nextHead, nextAdom));
+        simMin = min;
+        return nextHead.term;
+    }
+
+
+    /**
+     * Remove the terms of a cluster that are at least as similar to the new head as to their current head. The
+     * similarities of the removed terms to the new head are stored in {@link ClusteringProcess#movedSimilarity}, they
+     * are applied by {@link ClusteringProcess#moveTerms(List, HashSet)} (so the heap is not changed concurrently).
+     *
+     * @param c        Cluster
+     * @param nextHead New head
+     * @param moved    List to which the moved terms are appended (in adom iteration order)
+     * @return Minimal similarity of the terms (remaining and moved) to their heads, 1 if there are no terms
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private double reassign(Cluster<Term> c, Term nextHead, List<Term> moved) throws SimilarityException {
+        HashSet<Term> adom = new HashSet<>(c.getAdom());
+        double min = 1;
+        Iterator<Term> it = adom.iterator();
+        while (it.hasNext()) {
+            Term term = it.next();
+            double sim = similarity(term, nextHead);
+            double current = headSimilarity[term.id];
+            if (current <= sim) {
+                it.remove();
+                moved.add(term);
+                movedSimilarity[term.id] = sim;
+                current = sim;
+            }
+
+            // Update minimal similarity on the fly
+            if (min >= current)
+                min = current;
+        }
+        c.setAdom(adom);
+        return min;
+    }
+
+    /**
+     * Add moved terms to the new cluster (the last cluster to be created) and update their similarities to their
+     * heads in the heap.
+     *
+     * @param moved    Moved terms (in the order in which they are added to the new cluster)
+     * @param nextAdom Adom of the new cluster
+     */
+    private void moveTerms(List<Term> moved, HashSet<Term> nextAdom) {
+        int cluster = clusters.size();
+        for (Term term : moved) {
+            nextAdom.add(term);
+            headSimilarity[term.id] = movedSimilarity[term.id];
+            clusterOf[term.id] = cluster;
+            heap.update(term.id);
+        }
+    }
+
+
+    /**
+     * Execute a parallel task in the pool and rethrow a {@link SimilarityException} raised by one of its subtasks.
+     *
+     * @param task Task
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private void invoke(RecursiveAction task) throws SimilarityException {
+        try {
+            pool.invoke(task);
+        } catch (RuntimeException e) {
+            for (Throwable cause = e; cause != null; cause = cause.getCause())
+                if (cause instanceof SimilarityException)
+                    throw (SimilarityException) cause;
+            throw e;
+        }
+    }
+
+
+    /**
+     * Parallel task that calculates the similarity of a range of terms to the first head.
+     */
+    private final class InitialScanTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 5064921632189446317L;
+
+        private final Term[] terms;
+        private final Term head;
+        private final int from;
+        private final int to;
+
+        private InitialScanTask(Term[] terms, Term head, int from, int to) {
+            this.terms = terms;
+            this.head = head;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > PARALLEL_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new InitialScanTask(terms, head, from, mid), new InitialScanTask(terms, head, mid, to));
+                return;
+            }
+            try {
+                for (int i = from; i < to; i++)
+                    headSimilarity[terms[i].id] = similarity(terms[i], head);
+            } catch (SimilarityException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+
+    /**
+     * Parallel task that reassigns the terms of a range of clusters to the new head
+     * (see {@link ClusteringProcess#reassign(Cluster, Term, List)}).
+     */
+    private final class ReassignTask extends RecursiveAction {
+
+        private static final long serialVersionUID = -1405772734542810215L;
+
+        private final Term nextHead;
+        private final int from;
+        private final int to;
+
+        /**
+         * Moved terms of each cluster
+         */
+        private final List<Term>[] moved;
+
+        /**
+         * Minimal similarity of each cluster
+         */
+        private final double[] mins;
+
+        private ReassignTask(Term nextHead, int from, int to, List<Term>[] moved, double[] mins) {
+            this.nextHead = nextHead;
+            this.from = from;
+            this.to = to;
+            this.moved = moved;
+            this.mins = mins;
+        }
+
+        @Override
+        protected void compute() {
+
+            // Split the range of clusters as long as it contains enough terms
+            if (to - from > 1) {
+                int terms = 0;
+                for (int i = from; i < to; i++)
+                    terms += clusters.get(i).getAdom().size();
+                if (terms > PARALLEL_THRESHOLD) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new ReassignTask(nextHead, from, mid, moved, mins),
+                            new ReassignTask(nextHead, mid, to, moved, mins));
+                    return;
+                }
+            }
+            try {
+                for (int i = from; i < to; i++) {
+                    moved[i] = new ArrayList<>();
+                    mins[i] = reassign(clusters.get(i), nextHead, moved[i]);
+                }
+            } catch (SimilarityException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+
+    /**
+     * Find the first term (in cluster and adom iteration order) whose similarity to its head equals the minimal
+     * similarity and remove it from its cluster. The candidates are taken from the heap, only if the first cluster
+     * containing a candidate contains several candidates, its adom is scanned for the first one.
+     *
+     * @return Next head
+     */
+    private Term selectNextHead() {
+        if (heap.isEmpty())
+            throw new IllegalStateException("No term with minimal similarity " + simMin + " found.");
+
+        // Candidate in the first cluster and number of candidates in that cluster
+        int first = -1;
+        int count = 0;
+        for (int id : heap.minima()) {
+            if (first < 0 || clusterOf[id] < clusterOf[first]) {
+                first = id;
+                count = 1;
+            } else if (clusterOf[id] == clusterOf[first])
+                count++;
+        }
+
+        Cluster<Term> c = clusters.get(clusterOf[first]);
+        Term nextHead = termOf[first];
+        if (count > 1) {
+            double min = heap.minKey();
+            for (Term term : c.getAdom()) {
+                if (headSimilarity[term.id] == min) {
+                    nextHead = term;
+                    break;
+                }
+            }
+        }
+        c.getAdom().remove(nextHead);
+        heap.remove(nextHead.id);
+        return nextHead;
+    }
+
+
+    /**
+     * Similarity of two terms (by ids if the similarity function is indexed).
+     *
+     * @param term1 Term
+     * @param term2 Term
+     * @return Similarity value
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private double similarity(Term term1, Term term2) throws SimilarityException {
+        if (indexedFunction != null)
+            return indexedFunction.similarity(term1.id, term2.id);
+        return similarityFunction.similarity(term1.term, term2.term);
+    }
+
+
+    /**
+     * A MeSH term together with its id. Hash code and ordering are those of the term String, so that hash
+     * based collections of {@link Term}s iterate in the same order as the same collections of Strings.
+     */
+    static final class Term implements Comparable<Term> {
+
+        /**
+         * MeSH term
+         */
+        final String term;
+
+        /**
+         * Id of the term
+         */
+        final int id;
+
+        Term(String term, int id) {
+            this.term = term;
+            this.id = id;
+        }
+
+        @Override
+        public int hashCode() {
+            return term.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Term && ((Term) obj).id == id;
+        }
+
+        @Override
+        public int compareTo(Term other) {
+            return term.compareTo(other.term);
+        }
+
+        @Override
+        public String toString() {
+            return term;
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+package clusteringbasedfragmentation;
+
+import clusteringbasedfragmentation.similarityfunctions.MeSHSimilarityFunction;
+import clusteringbasedfragmentation.similarityfunctions.PathLengthSimilarity;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>
+ * Computes the clusterings of the active domain for several similarity thresholds (alpha) in a single run of the
+ * clustering procedure. </p>
+ * <p>
+ * The clustering procedure is greedy: it adds one head after the other as long as the minimal similarity of any
+ * term to its head (sim_min) is below alpha, and sim_min never decreases. Hence, the clustering for a smaller
+ * alpha is an intermediate state of the procedure for a larger alpha. The sweep runs the procedure once up to the
+ * largest alpha, takes a snapshot of the clusters whenever sim_min reaches the next requested alpha and records
+ * sim_min after each step. The clusterings are identical to the ones constructed by
+ * {@link Clustering#Clustering(double, MeSHSimilarityFunction)} for each alpha. </p>
+ */
+public class ClusteringSweep {
+
+    /**
+     * Similarity function
+     */
+    private final MeSHSimilarityFunction similarityFunction;
+
+    /**
+     * Clustering of each requested alpha
+     */
+    private final TreeMap<Double, Clustering> clusterings = new TreeMap<>();
+
+    /**
+     * Heads in the order in which they were chosen
+     */
+    private final ArrayList<String> heads = new ArrayList<>();
+
+    /**
+     * Minimal similarity of any term to its head after each step (i-th entry: with i + 1 clusters)
+     */
+    private final ArrayList<Double> simMins = new ArrayList<>();
+
+
+    /**
+     * Run the clustering procedure once for all given alphas (sequentially).
+     *
+     * @param similarityFunction Similarity function (provides the active domain)
+     * @param alphas             Similarity thresholds
+     * @throws SimilarityException Error on similarity calculation
+     */
+    public ClusteringSweep(MeSHSimilarityFunction similarityFunction, double... alphas) throws SimilarityException {
+        this(similarityFunction, 1, alphas);
+    }
+
+    /**
+     * Run the clustering procedure once for all given alphas.
+     *
+     * @param similarityFunction Similarity function (provides the active domain, must allow for concurrent lookups
+     *                           if the parallelism is greater than 1)
+     * @param parallelism        Number of threads (1 = sequential, see {@link ClusteringMode#PARALLEL})
+     * @param alphas             Similarity thresholds
+     * @throws SimilarityException Error on similarity calculation
+     */
+    public ClusteringSweep(MeSHSimilarityFunction similarityFunction, int parallelism, double... alphas)
+            throws SimilarityException {
+
+        if (alphas.length == 0)
+            throw new IllegalArgumentException("No similarity threshold given.");
+        this.similarityFunction = similarityFunction;
+
+        double[] sorted = alphas.clone();
+        Arrays.sort(sorted);
+        System.out.println("Starting the clustering sweep for " + sorted.length + " thresholds up to alpha = "
+                + sorted[sorted.length - 1] + " ...");
+        long time = System.nanoTime();
+
+        ArrayList<String> activeDomain = new ArrayList<>(similarityFunction.getTerms());
+        if (activeDomain.isEmpty())
+            throw new IllegalArgumentException("The active domain is empty.");
+
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            ClusteringProcess process = new ClusteringProcess(activeDomain, similarityFunction, pool);
+            heads.add(activeDomain.get(0));
+            simMins.add(process.getSimMin());
+
+            for (double alpha : sorted) {
+                while (process.getSimMin() < alpha) {
+                    heads.add(process.step());
+                    simMins.add(process.getSimMin());
+                }
+                if (!clusterings.containsKey(alpha)) {
+                    Clustering clustering = new Clustering().setClusters(process.getClusters()).setAlpha(alpha)
+                            .setSimilarityFunction(similarityFunction);
+                    clusterings.put(alpha, clustering);
+                }
+            }
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+
+        time = System.nanoTime() - time;
+        System.out.println("Finished clustering sweep in " + time / 1000000000.0 + " seconds!");
+    }
+
+
+    /**
+     * Get the number of clusters of the clustering for any alpha up to the largest reached minimal similarity
+     * (see {@link ClusteringSweep#getMaxSimMin()}), not only for the requested thresholds.
+     *
+     * @param alpha Similarity threshold
+     * @return Number of clusters or -1 if alpha is greater than the largest reached minimal similarity
+     */
+    public int numberOfClusters(double alpha) {
+        // sim_min never decreases -> binary search for the first step with sim_min >= alpha
+        int low = 0, high = simMins.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (simMins.get(mid) < alpha)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low < simMins.size() ? low + 1 : -1;
+    }
+
+
+//##################### Getter ######################
+
+    /**
+     * Get the clustering of a requested alpha.
+     *
+     * @param alpha Similarity threshold (one of the requested thresholds)
+     * @return Clustering or null if the threshold was not requested
+     */
+    public Clustering getClustering(double alpha) {
+        return clusterings.get(alpha);
+    }
+
+    /**
+     * Get the clusterings of all requested alphas.
+     *
+     * @return Clusterings sorted by alpha
+     */
+    public SortedMap<Double, Clustering> getClusterings() {
+        return Collections.unmodifiableSortedMap(clusterings);
+    }
+
+    /**
+     * Get the heads in the order in which they were chosen (the clustering with k clusters has the first k heads).
+     *
+     * @return Heads
+     */
+    public List<String> getHeads() {
+        return Collections.unmodifiableList(heads);
+    }
+
+    /**
+     * Get the minimal similarity of any term to its head after each step.
+     *
+     * @return Minimal similarities (i-th entry: with i + 1 clusters)
+     */
+    public List<Double> getSimMins() {
+        return Collections.unmodifiableList(simMins);
+    }
+
+    /**
+     * Get the largest reached minimal similarity of any term to its head.
+     *
+     * @return Minimal similarity after the last step
+     */
+    public double getMaxSimMin() {
+        return simMins.get(simMins.size() - 1);
+    }
+
+    /**
+     * Get the similarity function
+     *
+     * @return Similarity function
+     */
+    public MeSHSimilarityFunction getSimilarityFunction() {
+        return similarityFunction;
+    }
+
+    /**
+     * Similarity thresholds from - to (inclusive) in the given steps, e.g. the alphas of a sweep.
+     *
+     * @param from First threshold
+     * @param to   Last threshold
+     * @param step Step between two thresholds
+     * @return Thresholds in ascending order
+     */
+    public static double[] alphaRange(double from, double to, double step) {
+        List<Double> alphas = new ArrayList<>();
+        for (double alpha = from; alpha <= to; alpha = alpha + step)
+            alphas.add(alpha);
+        double[] result = new double[alphas.size()];
+        for (int i = 0; i < result.length; i++)
+            result[i] = alphas.get(i);
+        return result;
+    }
+
+
+//##################### Main ######################
+
+    /**
+     * Test unit: compare the run time of the sweep with the separate construction of the clusterings for
+     * alpha = 0.1, 0.11, ..., 0.18 and check that the clusterings are identical.
+     *
+     * @param args Path length csv- or zip-File (default: csv/pathlengths1000.zip)
+     * @throws Exception Error on loading or clustering
+     */
+    public static void main(String[] args) throws Exception {
+        String pathLengthFile = args.length > 0 ? args[0] : "csv" + File.separator + "pathlengths1000.zip";
+        PathLengthSimilarity similarity = new PathLengthSimilarity(pathLengthFile);
+
+        double[] alphas = alphaRange(0.1, 0.18, 0.01);
+
+        long start = System.nanoTime();
+        ClusteringSweep sweep = new ClusteringSweep(similarity, alphas);
+        long sweepTime = System.nanoTime() - start;
+
+        boolean identical = true;
+        start = System.nanoTime();
+        for (double alpha : alphas) {
+            Clustering clustering = new Clustering(alpha, similarity, ClusteringMode.INCREMENTAL);
+            identical &= clustering.hasSameClusters(sweep.getClustering(alpha));
+        }
+        long separateTime = System.nanoTime() - start;
+
+        System.out.println("##### Clustering sweep over " + alphas.length + " thresholds:");
+        for (double alpha : alphas)
+            System.out.println(" - alpha = " + alpha + ": " + sweep.getClustering(alpha).size() + " clusters");
+        System.out.println(" - Sweep: " + sweepTime / 1000000000.0 + "s, separate clusterings: "
+                + separateTime / 1000000000.0 + "s (speedup " + (double) separateTime / sweepTime + ")");
+        System.out.println(" - Identical clusterings: " + identical);
+        System.out.println("#####\n");
+    }
+
+}
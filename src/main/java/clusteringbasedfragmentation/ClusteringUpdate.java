@@ -0,0 +1,138 @@
+package clusteringbasedfragmentation;
+
+import java.util.*;
+
+/**
+ * Result of an incremental insertion of terms into a clustering (see {@link Clustering#insertTerms(Collection)}):
+ * the clusters of the inserted terms, the terms of the former active domain that were moved to a new cluster head
+ * and the clusters whose terms changed. The fragments of the changed clusters (resp. their partitions, see
+ * {@link ClusteringUpdate#getChangedPartitions(ClusteringAffinityFunction)}) have to be reloaded.
+ */
+public class ClusteringUpdate {
+
+    /**
+     * Number of clusters before the insertion
+     */
+    private final int previousSize;
+
+    /**
+     * Cluster of each inserted term (in insertion order)
+     */
+    private final LinkedHashMap<String, Integer> insertedTerms = new LinkedHashMap<>();
+
+    /**
+     * New cluster of each term of the former active domain that was moved to a new head
+     */
+    private final LinkedHashMap<String, Integer> movedTerms = new LinkedHashMap<>();
+
+    /**
+     * Clusters that gained or lost terms, including the new clusters
+     */
+    private final TreeSet<Integer> changedClusters = new TreeSet<>();
+
+
+    /**
+     * Create an empty update.
+     *
+     * @param previousSize Number of clusters before the insertion
+     */
+    ClusteringUpdate(int previousSize) {
+        this.previousSize = previousSize;
+    }
+
+
+    /**
+     * Record the (current) cluster of an inserted term.
+     *
+     * @param term    Inserted term
+     * @param cluster Number of the cluster
+     */
+    void insert(String term, int cluster) {
+        insertedTerms.put(term, cluster);
+        changedClusters.add(cluster);
+    }
+
+    /**
+     * Record the move of a term to another cluster.
+     *
+     * @param term Term
+     * @param from Number of the previous cluster
+     * @param to   Number of the new cluster
+     */
+    void move(String term, int from, int to) {
+        if (insertedTerms.containsKey(term))
+            insertedTerms.put(term, to);
+        else
+            movedTerms.put(term, to);
+        changedClusters.add(from);
+        changedClusters.add(to);
+    }
+
+
+//##################### Getter ######################
+
+    /**
+     * Get the cluster of each inserted term (terms that were already contained in the clustering are omitted).
+     *
+     * @return Cluster of each inserted term
+     */
+    public Map<String, Integer> getInsertedTerms() {
+        return Collections.unmodifiableMap(insertedTerms);
+    }
+
+    /**
+     * Get the new cluster of each term of the former active domain that was moved to a newly promoted head.
+     *
+     * @return New cluster of each moved term
+     */
+    public Map<String, Integer> getMovedTerms() {
+        return Collections.unmodifiableMap(movedTerms);
+    }
+
+    /**
+     * Get the clusters that gained or lost terms, including the new clusters.
+     *
+     * @return Numbers of the changed clusters in ascending order
+     */
+    public SortedSet<Integer> getChangedClusters() {
+        return Collections.unmodifiableSortedSet(changedClusters);
+    }
+
+    /**
+     * Get the number of clusters that were created for newly promoted heads. Their numbers follow the numbers of
+     * the previous clusters.
+     *
+     * @return Number of new clusters
+     */
+    public int getNewClusters() {
+        return changedClusters.isEmpty() ? 0 : Math.max(0, changedClusters.last() + 1 - previousSize);
+    }
+
+    /**
+     * Get the partitions of the changed clusters of an affinity function (all sub-partitions of each changed
+     * cluster).
+     *
+     * @param affinityFunction Affinity function using the updated clustering
+     * @return Changed partitions in ascending order
+     */
+    public int[] getChangedPartitions(ClusteringAffinityFunction affinityFunction) {
+        int[] partitions = new int[changedClusters.size() * affinityFunction.getSubPartitions()];
+        int i = 0;
+        for (int cluster : changedClusters)
+            for (int partition : affinityFunction.getPartitionsOfCluster(cluster))
+                partitions[i++] = partition;
+        return partitions;
+    }
+
+    /**
+     * Get string representation of the update
+     *
+     * @return String representation
+     */
+    @Override
+    public String toString() {
+        return "ClusteringUpdate: " + insertedTerms.size() + " inserted terms, " + movedTerms.size()
+                + " moved terms, " + getNewClusters() + " new clusters, changed clusters " + changedClusters;
+    }
+
+}
@@ -0,0 +1,570 @@
+package clusteringbasedfragmentation;
+
+import clusteringbasedfragmentation.assignment.HierarchicalAssignmentStrategy;
+import clusteringbasedfragmentation.assignment.PartitionAssignmentStrategy;
+import clusteringbasedfragmentation.similarityfunctions.MappedPathLengthSimilarity;
+import clusteringbasedfragmentation.similarityfunctions.MeSHSimilarityFunction;
+import clusteringbasedfragmentation.similarityfunctions.PathLengthSimilarity;
+import utils.ConcurrentLRUCache;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Lightweight variant of the {@link ClusteringAffinityFunction} for the cache configurations that are sent to
+ * joining nodes and clients. </p>
+ * <p>
+ * The {@link ClusteringAffinityFunction} is serialized together with its similarity function, which may hold
+ * all pairwise similarities of the terms (e.g. the {@link clusteringbasedfragmentation.similarityfunctions.CSVSimilarityLoader}).
+ * The serialized form of this affinity function only holds the dense mapping of the terms of the active domain to
+ * their clusters and the cluster heads. Terms outside the active domain are resolved by an optional
+ * {@link UnseenTermResolver} (e.g. a {@link HeadSimilarityResolver} with a {@link MappedPathLengthSimilarity}). </p>
+ * <p>
+ * The partitions of a key are the same as for the {@link ClusteringAffinityFunction} the clustering was taken from
+ * (including its sub-partitions). The partitions are mapped to the nodes by the same
+ * {@link clusteringbasedfragmentation.assignment.PartitionAssignmentStrategy} and backup placement, the head
+ * similarities for the backup placement are taken from the similarity function of a {@link HeadSimilarityResolver}
+ * (without resolver, the backups are only balanced over the nodes). </p>
+ * <p>
+ * For a {@link HierarchicalClustering}, the clusters are its sub-clusters and only the first sub-cluster of each
+ * super-cluster is kept additionally, so queries can be relaxed to the super-cluster as for the
+ * {@link ClusteringAffinityFunction}. </p>
+ */
+public class CompactClusteringAffinityFunction extends AbstractClusteringAffinityFunction {
+
+    private static final long serialVersionUID = -1873318790542427391L;
+
+    /**
+     * Default maximal number of cached cluster identifications of terms outside the active domain.
+     */
+    private static final int DFLT_IDENTIFY_CLUSTER_CACHE_SIZE = 10000;
+
+    /**
+     * Terms of the active domain (dense term to cluster mapping with clusters)
+     */
+    private final String[] terms;
+
+    /**
+     * Cluster of the term with the same index
+     */
+    private final int[] clusters;
+
+    /**
+     * Heads of the clusters (i-th head = head of the i-th cluster)
+     */
+    private final String[] heads;
+
+    /**
+     * First sub-cluster of each super-cluster of a {@link HierarchicalClustering} (with the number of clusters as
+     * last entry, null for a flat clustering)
+     */
+    private final int[] firstSubCluster;
+
+    /**
+     * Number of sub-partitions of each cluster
+     */
+    private final int subPartitions;
+
+    /**
+     * Resolver for terms outside the active domain (null = such terms have no cluster)
+     */
+    private final UnseenTermResolver resolver;
+
+    /**
+     * Maximal number of cached cluster identifications of terms outside the active domain (0 = no caching)
+     */
+    private int identifyClusterCacheSize = DFLT_IDENTIFY_CLUSTER_CACHE_SIZE;
+
+    /**
+     * Lookup table of the clusters of the terms (built from the dense mapping)
+     */
+    private transient TermPartitionTable table;
+
+    /**
+     * Cached clusters of terms outside the active domain (null if caching is disabled)
+     */
+    private transient volatile ConcurrentLRUCache<String, Integer> unseenTerms;
+
+    /**
+     * Number of terms of each cluster (calculated lazily, see
+     * {@link CompactClusteringAffinityFunction#clusterSize(int)})
+     */
+    private transient volatile int[] clusterSizes;
+
+    /**
+     * Pairwise similarities of the cluster heads (null if not available), taken from the clustering or calculated
+     * by the similarity function of the resolver
+     * (see {@link CompactClusteringAffinityFunction#getHeadSimilarities()})
+     */
+    private final double[][] headSimilarities;
+
+//##################### Constructors ######################
+
+    /**
+     * Compact affinity function with the clustering and the number of sub-partitions of an affinity function.
+     *
+     * @param affinityFunction Affinity function
+     * @param resolver         Resolver for terms outside the active domain (null = such terms have no cluster)
+     * @throws SimilarityException Thrown if the head similarities could not be calculated
+     */
+    public CompactClusteringAffinityFunction(ClusteringAffinityFunction affinityFunction, UnseenTermResolver resolver)
+            throws SimilarityException {
+        this(ClusteringFile.of(affinityFunction.getClustering())
+                        .withHeadSimilarities(affinityFunction.getHeadSimilarities()),
+                firstSubClusters(affinityFunction.getHierarchy()), affinityFunction.getSubPartitions(), resolver);
+        setAssignmentStrategy(affinityFunction.getAssignmentStrategy());
+    }
+
+    /**
+     * Compact affinity function that loads the clustering from a file, e.g. in the Spring XML configuration. A
+     * binary clustering file (see {@link ClusteringFile}) directly provides the term to cluster mapping, a
+     * serialized {@link Clustering} is converted. For a serialized {@link HierarchicalClustering} (see
+     * {@link HierarchicalClustering#serializeToFile(String)}), the affinity function is set up as by
+     * {@link CompactClusteringAffinityFunction#CompactClusteringAffinityFunction(HierarchicalClustering, int, UnseenTermResolver)}.
+     *
+     * @param clusteringFile Path to the binary or serialized (hierarchical) clustering file
+     * @param subPartitions  Number of sub-partitions per cluster
+     * @param resolver       Resolver for terms outside the active domain (null = such terms have no cluster)
+     * @throws IOException            Thrown if the clustering file could not be found/read.
+     * @throws ClassNotFoundException Thrown if a class could not be found in classpath
+     * @throws SimilarityException    Thrown if the head similarities are not contained in the file and could not
+     *                                be calculated
+     */
+    public CompactClusteringAffinityFunction(String clusteringFile, int subPartitions, UnseenTermResolver resolver)
+            throws IOException, ClassNotFoundException, SimilarityException {
+        this(HierarchicalClustering.isHierarchicalClusteringFile(clusteringFile)
+                ? HierarchicalClustering.deserializeFromFile(clusteringFile) : null, clusteringFile, subPartitions,
+                resolver);
+    }
+
+    /**
+     * Compact affinity function for a clustering file that has already been checked for a hierarchical clustering.
+     *
+     * @param hierarchy      Hierarchical clustering of the file (null for a flat clustering file)
+     * @param clusteringFile Path to the binary or serialized clustering file (only read for a flat clustering)
+     * @param subPartitions  Number of sub-partitions per cluster
+     * @param resolver       Resolver for terms outside the active domain (null = such terms have no cluster)
+     * @throws IOException            Thrown if the clustering file could not be found/read.
+     * @throws ClassNotFoundException Thrown if a class could not be found in classpath
+     * @throws SimilarityException    Thrown if the head similarities could not be calculated
+     */
+    private CompactClusteringAffinityFunction(HierarchicalClustering hierarchy, String clusteringFile,
+                                              int subPartitions, UnseenTermResolver resolver)
+            throws IOException, ClassNotFoundException, SimilarityException {
+        this(hierarchy != null ? ClusteringFile.of(hierarchy.getSubClustering()) : ClusteringFile.load(clusteringFile),
+                firstSubClusters(hierarchy), subPartitions, resolver);
+    }
+
+    /**
+     * Compact affinity function for a {@link HierarchicalClustering}: the sub-clusters are mapped to the
+     * partitions and, by the {@link HierarchicalAssignmentStrategy}, all partitions of a super-cluster are mapped to
+     * the same node.
+     *
+     * @param hierarchy     Hierarchical clustering
+     * @param subPartitions Number of sub-partitions per cluster
+     * @param resolver      Resolver for terms outside the active domain (null = such terms have no cluster)
+     * @throws SimilarityException Thrown if the head similarities could not be calculated
+     */
+    public CompactClusteringAffinityFunction(HierarchicalClustering hierarchy, int subPartitions,
+                                             UnseenTermResolver resolver) throws SimilarityException {
+        this(ClusteringFile.of(hierarchy.getSubClustering()), firstSubClusters(hierarchy), subPartitions, resolver);
+    }
+
+    /**
+     * Compact affinity function for a clustering.
+     *
+     * @param clustering    Clustering
+     * @param subPartitions Number of sub-partitions per cluster
+     * @param resolver      Resolver for terms outside the active domain (null = such terms have no cluster)
+     * @throws SimilarityException Thrown if the head similarities could not be calculated
+     */
+    public CompactClusteringAffinityFunction(Clustering clustering, int subPartitions, UnseenTermResolver resolver)
+            throws SimilarityException {
+        this(ClusteringFile.of(clustering), subPartitions, resolver);
+    }
+
+    /**
+     * Compact affinity function for the binary representation of a clustering.
+     *
+     * @param clustering    Binary representation of the clustering
+     * @param subPartitions Number of sub-partitions per cluster
+     * @param resolver      Resolver for terms outside the active domain (null = such terms have no cluster)
+     * @throws SimilarityException Thrown if the head similarities are not contained in the clustering and could not
+     *                             be calculated
+     */
+    public CompactClusteringAffinityFunction(ClusteringFile clustering, int subPartitions, UnseenTermResolver resolver)
+            throws SimilarityException {
+        this(clustering, null, subPartitions, resolver);
+    }
+
+    /**
+     * Compact affinity function for the binary representation of a (sub-)clustering.
+     *
+     * @param clustering      Binary representation of the clustering (the sub-clustering of a hierarchy)
+     * @param firstSubCluster First sub-cluster of each super-cluster (see
+     *                        {@link CompactClusteringAffinityFunction#firstSubClusters(HierarchicalClustering)},
+     *                        null for a flat clustering)
+     * @param subPartitions   Number of sub-partitions per cluster
+     * @param resolver        Resolver for terms outside the active domain (null = such terms have no cluster)
+     * @throws SimilarityException Thrown if the head similarities are not contained in the clustering and could not
+     *                             be calculated
+     */
+    private CompactClusteringAffinityFunction(ClusteringFile clustering, int[] firstSubCluster, int subPartitions,
+                                              UnseenTermResolver resolver) throws SimilarityException {
+        if (subPartitions < 1)
+            throw new IllegalArgumentException("The number of sub-partitions must be at least 1: " + subPartitions);
+
+        this.terms = clustering.getTerms();
+        this.clusters = clustering.getClusterOf();
+        this.heads = clustering.getHeads();
+        this.firstSubCluster = firstSubCluster;
+        this.subPartitions = subPartitions;
+        this.resolver = resolver;
+        this.table = new TermPartitionTable(terms, clusters);
+        this.unseenTerms = new ConcurrentLRUCache<>(identifyClusterCacheSize);
+        this.headSimilarities = clustering.getHeadSimilarities() != null ? clustering.getHeadSimilarities()
+                : localHeadSimilarities(getSimilarityFunction(), heads);
+        if (firstSubCluster != null)
+            setAssignmentStrategy(new HierarchicalAssignmentStrategy());
+    }
+
+    /**
+     * Get the first sub-cluster of each super-cluster of a hierarchical clustering.
+     *
+     * @param hierarchy Hierarchical clustering (may be null)
+     * @return First sub-cluster of each super-cluster with the number of sub-clusters as last entry
+     * (null for no hierarchy)
+     */
+    private static int[] firstSubClusters(HierarchicalClustering hierarchy) {
+        if (hierarchy == null)
+            return null;
+        int[] first = new int[hierarchy.numberOfSuperClusters() + 1];
+        for (int i = 0; i < first.length - 1; i++)
+            first[i] = hierarchy.getSubClusters(i)[0];
+        first[first.length - 1] = hierarchy.numberOfSubClusters();
+        return first;
+    }
+
+
+//##################### Clustering-based Fragmentation ######################
+
+    /**
+     * Identify the cluster of a term: terms of the active domain are looked up in the term table, other terms
+     * are resolved by the {@link UnseenTermResolver} (results are cached).
+     *
+     * @param term The term to match to a cluster
+     * @return Number of the cluster or -1 if the term is unknown and no resolver is configured
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
+     */
+    @Override
+    public int identifyCluster(String term) throws SimilarityException {
+        int cluster = table.get(term);
+        if (cluster >= 0 || resolver == null)
+            return cluster;
+
+        ConcurrentLRUCache<String, Integer> cache = this.unseenTerms;
+        if (cache != null) {
+            Integer cached = cache.get(term);
+            if (cached != null)
+                return cached;
+        }
+        cluster = resolver.identifyCluster(term, heads);
+        if (cache != null && cluster >= 0)
+            cache.put(term, cluster);
+        return cluster;
+    }
+
+    /**
+     * Get the number of clusters.
+     *
+     * @return Number of clusters
+     */
+    @Override
+    public int numberOfClusters() {
+        return heads.length;
+    }
+
+    /**
+     * Get the head of a cluster.
+     *
+     * @param cluster Number of the cluster
+     * @return Head term
+     */
+    @Override
+    public String getHead(int cluster) {
+        return heads[cluster];
+    }
+
+    /**
+     * Get the number of terms of a cluster (including its head), counted once from the term to cluster mapping.
+     *
+     * @param cluster Number of the cluster
+     * @return Number of terms
+     */
+    @Override
+    public int clusterSize(int cluster) {
+        int[] sizes = this.clusterSizes;
+        if (sizes == null) {
+            sizes = new int[heads.length];
+            for (int c : clusters)
+                sizes[c]++;
+            this.clusterSizes = sizes;
+        }
+        return sizes[cluster];
+    }
+
+    /**
+     * Get the super-cluster whose data is stored in a partition (see {@link HierarchicalClustering}).
+     *
+     * @param partition Partition number
+     * @return Number of the super-cluster (the cluster of the partition for a flat clustering)
+     */
+    @Override
+    public int superClusterOfPartition(int partition) {
+        return superClusterOf(clusterOfPartition(partition));
+    }
+
+    /**
+     * Get the sub-clusters of a super-cluster (see {@link HierarchicalClustering#getSubClusters(int)}).
+     *
+     * @param superCluster Number of the super-cluster (see {@link CompactClusteringAffinityFunction#identifySuperCluster(String)})
+     * @return Consecutive cluster numbers (only the cluster itself for a flat clustering)
+     */
+    @Override
+    public int[] getClustersOfSuperCluster(int superCluster) {
+        if (firstSubCluster == null)
+            return super.getClustersOfSuperCluster(superCluster);
+        int[] result = new int[firstSubCluster[superCluster + 1] - firstSubCluster[superCluster]];
+        for (int i = 0; i < result.length; i++)
+            result[i] = firstSubCluster[superCluster] + i;
+        return result;
+    }
+
+    /**
+     * Identify the super-cluster of a term (see {@link CompactClusteringAffinityFunction#identifyCluster(String)}).
+     *
+     * @param term The term to match to a super-cluster
+     * @return Number of the super-cluster (the cluster of the term for a flat clustering)
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
+     */
+    @Override
+    public int identifySuperCluster(String term) throws SimilarityException {
+        int cluster = identifyCluster(term);
+        return cluster >= 0 ? superClusterOf(cluster) : cluster;
+    }
+
+    /**
+     * Get the super-cluster of a cluster.
+     *
+     * @param cluster Number of the cluster
+     * @return Number of the super-cluster (the cluster itself for a flat clustering)
+     */
+    private int superClusterOf(int cluster) {
+        if (firstSubCluster == null)
+            return cluster;
+        // firstSubCluster is strictly increasing -> last super-cluster whose first sub-cluster is <= cluster
+        int i = Arrays.binarySearch(firstSubCluster, cluster);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Get the terms of the active domain.
+     *
+     * @return List of terms
+     */
+    @Override
+    public ArrayList<String> getTerms() {
+        return new ArrayList<>(Arrays.asList(terms));
+    }
+
+    /**
+     * Get the pairwise similarities of the cluster heads. They are taken from the clustering (e.g. the binary
+     * {@link ClusteringFile}) or calculated on construction if the resolver has an in-memory similarity function,
+     * so the partition assignment does not look up similarities.
+     *
+     * @return Matrix of head similarities indexed by cluster numbers or null if not available
+     */
+    @Override
+    public double[][] getHeadSimilarities() {
+        return headSimilarities;
+    }
+
+    /**
+     * Get the similarity function of the resolver for terms outside the active domain.
+     *
+     * @return Similarity function of a {@link HeadSimilarityResolver} (null for other or no resolvers)
+     */
+    @Override
+    public MeSHSimilarityFunction getSimilarityFunction() {
+        return resolver instanceof HeadSimilarityResolver
+                ? ((HeadSimilarityResolver) resolver).getSimilarityFunction() : null;
+    }
+
+
+//################################# Getter & Setter  ########################################
+
+    /**
+     * Get the heads of the clusters
+     *
+     * @return Cluster heads (i-th head = head of the i-th cluster)
+     */
+    public String[] getHeads() {
+        return heads.clone();
+    }
+
+    /**
+     * Get the number of terms of the active domain
+     *
+     * @return Number of terms
+     */
+    public int getNumberOfTerms() {
+        return table.size();
+    }
+
+    /**
+     * Get the number of sub-partitions of each cluster.
+     *
+     * @return Number of sub-partitions per cluster
+     */
+    @Override
+    public int getSubPartitions() {
+        return subPartitions;
+    }
+
+    /**
+     * Set the strategy to map the partitions to the nodes of the cluster
+     * (e.g. by the property "assignmentStrategy" in the Spring XML configuration). For a hierarchical clustering,
+     * the {@link HierarchicalAssignmentStrategy} is set on construction; another strategy spreads the sub-clusters
+     * of a super-cluster over several nodes (a warning is printed).
+     *
+     * @param assignmentStrategy Assignment strategy
+     * @return {@code This} for chaining
+     */
+    @Override
+    public CompactClusteringAffinityFunction setAssignmentStrategy(PartitionAssignmentStrategy assignmentStrategy) {
+        if (firstSubCluster != null && assignmentStrategy != null
+                && !(assignmentStrategy instanceof HierarchicalAssignmentStrategy))
+            System.out.println("WARNING: The " + assignmentStrategy.getClass().getSimpleName() + " replaces the "
+                    + "HierarchicalAssignmentStrategy of the hierarchical clustering: the sub-clusters of a "
+                    + "super-cluster are no longer mapped to the same node!");
+        super.setAssignmentStrategy(assignmentStrategy);
+        return this;
+    }
+
+    /**
+     * Get the resolver for terms outside the active domain
+     *
+     * @return Resolver (null if none is configured)
+     */
+    public UnseenTermResolver getResolver() {
+        return resolver;
+    }
+
+    /**
+     * Get the maximal number of cached cluster identifications of terms outside the active domain.
+     *
+     * @return Cache size (0 = no caching)
+     */
+    public int getIdentifyClusterCacheSize() {
+        return identifyClusterCacheSize;
+    }
+
+    /**
+     * Set the maximal number of cached cluster identifications of terms outside the active domain
+     * (discards the currently cached identifications).
+     *
+     * @param identifyClusterCacheSize Cache size (0 = no caching)
+     * @return {@code This} for chaining
+     */
+    public CompactClusteringAffinityFunction setIdentifyClusterCacheSize(int identifyClusterCacheSize) {
+        if (identifyClusterCacheSize < 0)
+            throw new IllegalArgumentException("The cache size must not be negative: " + identifyClusterCacheSize);
+        this.identifyClusterCacheSize = identifyClusterCacheSize;
+        this.unseenTerms = identifyClusterCacheSize > 0 ? new ConcurrentLRUCache<>(identifyClusterCacheSize) : null;
+        return this;
+    }
+
+    /**
+     * Get the cache of cluster identifications of terms outside the active domain
+     * (e.g. to read its hit, miss and eviction counters).
+     *
+     * @return Cache or null if caching is disabled
+     */
+    public ConcurrentLRUCache<String, Integer> getIdentifyClusterCache() {
+        return unseenTerms;
+    }
+
+
+//################################# Serialization  ########################################
+
+    /**
+     * Deserialize the affinity function and build the term table.
+     *
+     * @param in Input stream
+     * @throws IOException            Error on reading
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.table = new TermPartitionTable(terms, clusters);
+        this.unseenTerms = identifyClusterCacheSize > 0 ? new ConcurrentLRUCache<>(identifyClusterCacheSize) : null;
+    }
+
+    /**
+     * Get the size of the serialized form of an object.
+     *
+     * @param object Serializable object
+     * @return Number of bytes
+     * @throws IOException Error on serialization
+     */
+    private static int serializedSize(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(object);
+        }
+        return bytes.size();
+    }
+
+
+//################################### MAIN-Method  #########################################
+
+    /**
+     * Test unit: compare the serialized size of a {@link ClusteringAffinityFunction} and of its compact variant
+     * and check that both identify the same clusters for all terms.
+     *
+     * @param args Path length csv- or zip-File and alpha (default: csv/pathlengths1000.zip 0.15)
+     * @throws Exception Error on clustering or serialization
+     */
+    public static void main(String[] args) throws Exception {
+        String pathLengthFile = args.length > 0 ? args[0] : "csv" + File.separator + "pathlengths1000.zip";
+        double alpha = args.length > 1 ? Double.parseDouble(args[1]) : 0.15;
+
+        PathLengthSimilarity similarity = new PathLengthSimilarity(pathLengthFile);
+        ClusteringAffinityFunction affinityFunction = new ClusteringAffinityFunction(alpha, similarity);
+        CompactClusteringAffinityFunction compact = new CompactClusteringAffinityFunction(affinityFunction, null);
+
+        // Compact variant after transfer to another node
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(compact);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            compact = (CompactClusteringAffinityFunction) in.readObject();
+        }
+
+        int mismatches = 0;
+        for (String term : affinityFunction.getTerms())
+            if (affinityFunction.identifyCluster(term) != compact.identifyCluster(term))
+                mismatches++;
+
+        System.out.println("##### Serialized affinity functions (" + compact.getNumberOfTerms() + " terms, "
+                + compact.partitions() + " partitions):");
+        System.out.println(" - ClusteringAffinityFunction:        " + serializedSize(affinityFunction) + " bytes");
+        System.out.println(" - CompactClusteringAffinityFunction: " + bytes.size() + " bytes");
+        System.out.println(" - Terms with different clusters:     " + mismatches);
+        System.out.println("#####\n");
+    }
+
+}
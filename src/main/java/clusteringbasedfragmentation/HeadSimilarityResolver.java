@@ -0,0 +1,156 @@
+package clusteringbasedfragmentation;
+
+import clusteringbasedfragmentation.similarityfunctions.*;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * {@link UnseenTermResolver} that assigns a term to the cluster with the most similar head (the same rule as
+ * {@link ClusteringAffinityFunction#identifyCluster(String)} applies to terms outside the active domain, both use
+ * {@link HeadSimilarityResolver#identifyCluster(MeSHSimilarityFunction, String, String[], int[])}). </p>
+ * <p>
+ * The similarity function is serialized with the resolver, so it should be one with a small serialized form, e.g.
+ * a {@link MappedPathLengthSimilarity} (only the file path) or a {@link SimClusteringTableSimilarity} (only the
+ * cache names), and not one that holds all pairwise similarities. </p>
+ */
+public class HeadSimilarityResolver implements UnseenTermResolver {
+
+    private static final long serialVersionUID = 3391452268216408797L;
+
+    /**
+     * Similarity function to compare the term with the cluster heads
+     */
+    private final MeSHSimilarityFunction similarityFunction;
+
+
+    /**
+     * Resolver that compares unseen terms with the cluster heads by the given similarity function.
+     *
+     * @param similarityFunction Similarity function (must be serializable)
+     */
+    public HeadSimilarityResolver(MeSHSimilarityFunction similarityFunction) {
+        this.similarityFunction = similarityFunction;
+    }
+
+
+    @Override
+    public int identifyCluster(String term, String[] heads) throws SimilarityException {
+        return identifyCluster(similarityFunction, term, heads, null);
+    }
+
+
+    /**
+     * Identify the cluster of a term by the head with maximal similarity to the term (the first one on ties).
+     * Shared by the resolver and the {@link ClusteringAffinityFunction} for terms outside the active domain.
+     *
+     * @param similarityFunction Similarity function
+     * @param term               The term to match to a cluster
+     * @param heads              Heads of the clusters (i-th head = head of the i-th cluster)
+     * @param headIds            Term ids of the heads if the similarity function is an
+     *                           {@link IndexedSimilarityFunction} (-1 for heads unknown to the dictionary, null = look
+     *                           up the ids)
+     * @return Number of the cluster
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
+     */
+    static int identifyCluster(MeSHSimilarityFunction similarityFunction, String term, String[] heads,
+                               int[] headIds) throws SimilarityException {
+
+        // If the similarity function is of type SimClusteringTableSimilarity, use provided method to identify cluster
+        if (similarityFunction instanceof SimClusteringTableSimilarity) {
+            SimClusteringTableSimilarity scts = (SimClusteringTableSimilarity) similarityFunction;
+            if (scts.isIdentifyClusterEnabled()) {
+                try {
+                    return scts.identifyCluster(term);
+                } catch (NoSuchMethodException e) {
+                    throw new SimilarityException("Method identifyCluster(String term) of class " +
+                            scts.getClass().getName() + " is not enabled but was invoked!", e);
+                }
+            }
+        }
+
+        // Indexed similarity function and known term? -> identify cluster by term ids
+        if (similarityFunction instanceof IndexedSimilarityFunction) {
+            IndexedSimilarityFunction indexed = (IndexedSimilarityFunction) similarityFunction;
+            int id = indexed.getDictionary().id(term);
+            if (id >= 0)
+                return identifyCluster(id, indexed, heads, headIds != null ? headIds : headIds(indexed, heads));
+        }
+
+        // Term is a head?
+        for (int i = 0; i < heads.length; i++) {
+            if (term.equals(heads[i]))
+                return i;
+        }
+
+        // Find head with maximum similarity (all similarities at once)
+        return similarityFunction.mostSimilar(term, Arrays.asList(heads));
+    }
+
+    /**
+     * Identify the cluster of a term only by term ids (see
+     * {@link HeadSimilarityResolver#identifyCluster(MeSHSimilarityFunction, String, String[], int[])}).
+     *
+     * @param id      Term id in the dictionary of the indexed similarity function
+     * @param indexed Indexed similarity function
+     * @param heads   Heads of the clusters
+     * @param headIds Term ids of the cluster heads (-1 for heads unknown to the dictionary)
+     * @return Number of the cluster
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
+     */
+    private static int identifyCluster(int id, IndexedSimilarityFunction indexed, String[] heads, int[] headIds)
+            throws SimilarityException {
+
+        // Term is a head?
+        boolean allKnown = true;
+        for (int i = 0; i < headIds.length; i++) {
+            if (id == headIds[i])
+                return i;
+            allKnown &= headIds[i] >= 0;
+        }
+
+        // All heads known to the dictionary -> similarities to all heads at once (row scan)
+        if (allKnown)
+            return indexed.mostSimilar(id, headIds);
+
+        // Find head with maximum similarity
+        double max = -1;
+        int argMax = -1;
+        for (int i = 0; i < headIds.length; i++) {
+            double sim = headIds[i] >= 0 ? indexed.similarity(id, headIds[i])
+                    : indexed.similarity(indexed.getDictionary().term(id), heads[i]);
+            if (max < sim) {
+                max = sim;
+                argMax = i;
+            }
+        }
+
+        return argMax;
+    }
+
+    /**
+     * Get the term ids of the cluster heads in the dictionary of an indexed similarity function.
+     *
+     * @param indexed Indexed similarity function
+     * @param heads   Heads of the clusters
+     * @return Term ids (-1 for heads unknown to the dictionary)
+     */
+    static int[] headIds(IndexedSimilarityFunction indexed, String[] heads) {
+        TermDictionary dictionary = indexed.getDictionary();
+        int[] headIds = new int[heads.length];
+        for (int i = 0; i < heads.length; i++)
+            headIds[i] = dictionary.id(heads[i]);
+        return headIds;
+    }
+
+
+    /**
+     * Get the similarity function
+     *
+     * @return Similarity function
+     */
+    public MeSHSimilarityFunction getSimilarityFunction() {
+        return similarityFunction;
+    }
+
+}
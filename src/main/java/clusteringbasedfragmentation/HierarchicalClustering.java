@@ -0,0 +1,464 @@
+package clusteringbasedfragmentation;
+
+import clusteringbasedfragmentation.similarityfunctions.MeSHSimilarityFunction;
+import clusteringbasedfragmentation.similarityfunctions.PathLengthSimilarity;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * <p>
+ * Two-level clustering of the active domain: super-clusters for a low similarity threshold and, within each
+ * super-cluster, sub-clusters for a higher similarity threshold. The super-clusters are coarse fragments for the
+ * placement on the nodes, the sub-clusters are fine fragments for pruning and relaxation (see
+ * {@link ClusteringAffinityFunction#ClusteringAffinityFunction(MeSHSimilarityFunction, HierarchicalClustering)}).
+ * </p>
+ * <p>
+ * The super-clusters are constructed by the clustering procedure. The clustering procedure is then applied to the
+ * terms of each super-cluster (starting with its head), so the sub-clusters are nested in the super-clusters and
+ * the head of a super-cluster is the head of its first sub-cluster. The sub-clusters of all super-clusters form a
+ * flat clustering (sub-clustering), in which the sub-clusters of each super-cluster are numbered consecutively.
+ * </p>
+ */
+public class HierarchicalClustering implements Serializable {
+
+    private static final long serialVersionUID = -4920337152862214738L;
+
+    /**
+     * Clustering for the low similarity threshold
+     */
+    private final Clustering superClustering;
+
+    /**
+     * Sub-clusters of all super-clusters for the high similarity threshold
+     */
+    private final Clustering subClustering;
+
+    /**
+     * Number of the first sub-cluster of each super-cluster (with the number of sub-clusters as last entry)
+     */
+    private int[] firstSubCluster;
+
+
+    /**
+     * Constructs the hierarchical clustering of the active domain (sequentially).
+     *
+     * @param superAlpha         Similarity threshold of the super-clusters
+     * @param subAlpha           Similarity threshold of the sub-clusters (at least superAlpha)
+     * @param similarityFunction Similarity function (provides the active domain)
+     * @throws SimilarityException Error on similarity calculation
+     */
+    public HierarchicalClustering(double superAlpha, double subAlpha, MeSHSimilarityFunction similarityFunction)
+            throws SimilarityException {
+        this(superAlpha, subAlpha, similarityFunction, 1);
+    }
+
+    /**
+     * Constructs the hierarchical clustering of the active domain.
+     *
+     * @param superAlpha         Similarity threshold of the super-clusters
+     * @param subAlpha           Similarity threshold of the sub-clusters (at least superAlpha)
+     * @param similarityFunction Similarity function (provides the active domain, must allow for concurrent lookups
+     *                           if the parallelism is greater than 1)
+     * @param parallelism        Number of threads of the clustering procedure (1 = sequential, see
+     *                           {@link ClusteringMode#PARALLEL})
+     * @throws SimilarityException Error on similarity calculation
+     */
+    public HierarchicalClustering(double superAlpha, double subAlpha, MeSHSimilarityFunction similarityFunction,
+                                  int parallelism) throws SimilarityException {
+        if (subAlpha < superAlpha)
+            throw new IllegalArgumentException("The similarity threshold of the sub-clusters (" + subAlpha
+                    + ") must not be smaller than the one of the super-clusters (" + superAlpha + ").");
+
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            ArrayList<String> activeDomain = new ArrayList<>(similarityFunction.getTerms());
+            if (activeDomain.isEmpty())
+                throw new IllegalArgumentException("The active domain is empty.");
+
+            System.out.println("Starting the hierarchical clustering procedure for alpha = " + superAlpha + " / "
+                    + subAlpha + " ...");
+            long time = System.nanoTime();
+
+            ClusteringProcess superProcess = new ClusteringProcess(activeDomain, similarityFunction, pool);
+            while (superProcess.getSimMin() < superAlpha)
+                superProcess.step();
+            this.superClustering = new Clustering().setClusters(superProcess.getClusters()).setAlpha(superAlpha)
+                    .setSimilarityFunction(similarityFunction);
+
+            // Sub-clustering of each super-cluster, starting with its head
+            ArrayList<Cluster<String>> subClusters = new ArrayList<>();
+            this.firstSubCluster = new int[superClustering.size() + 1];
+            for (int i = 0; i < superClustering.size(); i++) {
+                firstSubCluster[i] = subClusters.size();
+                subClusters.addAll(subClusters(superClustering.getCluster(i), subAlpha, similarityFunction, pool));
+            }
+            firstSubCluster[superClustering.size()] = subClusters.size();
+            this.subClustering = new Clustering().setClusters(subClusters).setAlpha(subAlpha)
+                    .setSimilarityFunction(similarityFunction);
+
+            time = System.nanoTime() - time;
+            System.out.println("Finished hierarchical clustering (" + superClustering.size() + " super-clusters, "
+                    + subClusters.size() + " sub-clusters) in " + time / 1000000000.0 + " seconds!");
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+
+
+    /**
+     * Hierarchical clustering of the given levels (see {@link HierarchicalClustering#copy()}).
+     *
+     * @param superClustering Clustering for the low similarity threshold
+     * @param subClustering   Sub-clusters of all super-clusters for the high similarity threshold
+     * @param firstSubCluster Number of the first sub-cluster of each super-cluster
+     */
+    private HierarchicalClustering(Clustering superClustering, Clustering subClustering, int[] firstSubCluster) {
+        this.superClustering = superClustering;
+        this.subClustering = subClustering;
+        this.firstSubCluster = firstSubCluster;
+    }
+
+    /**
+     * Apply the clustering procedure to the terms of a super-cluster, starting with its head.
+     *
+     * @param superCluster       Super-cluster
+     * @param subAlpha           Similarity threshold of the sub-clusters
+     * @param similarityFunction Similarity function
+     * @param pool               Pool for the parallel clustering procedure (null = sequential)
+     * @return Sub-clusters (the first one has the head of the super-cluster)
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private static ArrayList<Cluster<String>> subClusters(Cluster<String> superCluster, double subAlpha,
+                                                          MeSHSimilarityFunction similarityFunction,
+                                                          ForkJoinPool pool) throws SimilarityException {
+        ArrayList<String> terms = new ArrayList<>(superCluster.getAdom().size() + 1);
+        terms.add(superCluster.getHead());
+        terms.addAll(superCluster.getAdom());
+
+        ClusteringProcess process = new ClusteringProcess(terms, similarityFunction, pool);
+        while (process.getSimMin() < subAlpha)
+            process.step();
+        return process.getClusters();
+    }
+
+
+    /**
+     * <p>
+     * Insert new terms into the hierarchical clustering without recomputing it. The terms are inserted into the
+     * super-clusters (see {@link Clustering#insertTerms(Collection, boolean)}) and then into the sub-clusters of
+     * their super-clusters, so new sub-clusters are appended to the sub-clusters of their super-cluster and the
+     * following sub-clusters are renumbered. If a new super-cluster head is promoted, the sub-clusters of the new
+     * super-cluster and of the super-clusters that lost terms to it are constructed again. </p>
+     * <p>
+     * Without promotion (e.g. if the partitions of an affinity function are already assigned), each new term is
+     * assigned to its most similar sub-cluster head of all super-clusters, i.e. to the sub-cluster that
+     * {@link ClusteringAffinityFunction#identifyCluster(String)} identifies for the term on the other nodes, and to
+     * the super-cluster of this sub-cluster. </p>
+     * <p>
+     * Both levels are updated on copies, which replace the clusters at the end (the version of the sub-clustering
+     * changes, see {@link Clustering#getVersion()}). </p>
+     *
+     * @param terms   New terms (terms that are already contained in the clustering are ignored)
+     * @param promote If false, the terms are only inserted if no new head has to be promoted on either level
+     * @return Inserted terms and terms of the former active domain with a new sub-cluster number, as well as the
+     * changed sub-clusters
+     * @throws SimilarityException   Error on similarity calculation or a new term without a known similarity to
+     *                               any head (the clustering is not changed)
+     * @throws IllegalStateException Thrown if promote is false and a new head would have to be promoted
+     *                               (the clustering is not changed)
+     */
+    public ClusteringUpdate insertTerms(Collection<String> terms, boolean promote) throws SimilarityException {
+        if (!promote)
+            return insertTermsWithoutPromotion(terms);
+
+        MeSHSimilarityFunction similarityFunction = subClustering.getSimilarityFunction();
+        Clustering superCopy = superClustering.copy();
+        ClusteringUpdate superUpdate = superCopy.insertTerms(terms, promote);
+
+        // Super-clusters that lost or gained terms of the former active domain
+        TermPartitionTable superClusterOf = new TermPartitionTable(superClustering);
+        Set<Integer> rebuilt = new HashSet<>();
+        for (Map.Entry<String, Integer> moved : superUpdate.getMovedTerms().entrySet()) {
+            rebuilt.add(superClusterOf.get(moved.getKey()));
+            rebuilt.add(moved.getValue());
+        }
+
+        // Inserted terms per super-cluster
+        Map<Integer, List<String>> inserted = new HashMap<>();
+        for (Map.Entry<String, Integer> term : superUpdate.getInsertedTerms().entrySet())
+            inserted.computeIfAbsent(term.getValue(), c -> new ArrayList<>()).add(term.getKey());
+
+        ArrayList<Cluster<String>> subClusters = new ArrayList<>();
+        int[] first = new int[superCopy.size() + 1];
+        for (int i = 0; i < superCopy.size(); i++) {
+            first[i] = subClusters.size();
+            if (i >= superClustering.size() || rebuilt.contains(i)) {
+                subClusters.addAll(subClusters(superCopy.getCluster(i), subClustering.getAlpha(),
+                        similarityFunction, null));
+                continue;
+            }
+            Clustering sub = new Clustering().setAlpha(subClustering.getAlpha())
+                    .setSimilarityFunction(similarityFunction)
+                    .setClusters(new ArrayList<>(subClustering.getClusters()
+                            .subList(firstSubCluster[i], firstSubCluster[i + 1])));
+            if (inserted.containsKey(i))
+                sub.insertTerms(inserted.get(i), promote);
+            subClusters.addAll(sub.getClusters());
+        }
+        first[superCopy.size()] = subClusters.size();
+
+        // Record the changes in the numbering of the sub-clusters
+        TermPartitionTable subClusterOf = new TermPartitionTable(subClustering);
+        ClusteringUpdate update = new ClusteringUpdate(subClustering.size());
+        for (int j = 0; j < subClusters.size(); j++) {
+            Cluster<String> c = subClusters.get(j);
+            recordChange(update, subClusterOf, c.getHead(), j);
+            for (String term : c.getAdom())
+                recordChange(update, subClusterOf, term, j);
+        }
+
+        if (!update.getInsertedTerms().isEmpty()) {
+            superClustering.setClusters(superCopy.getClusters());
+            subClustering.setClusters(subClusters);
+            this.firstSubCluster = first;
+        }
+        return update;
+    }
+
+    /**
+     * Insert new terms without promoting new heads
+     * (see {@link HierarchicalClustering#insertTerms(Collection, boolean)}): each term is inserted into the
+     * sub-cluster of its most similar sub-cluster head and into the super-cluster of this sub-cluster, so the
+     * numbering of the sub-clusters does not change.
+     *
+     * @param terms New terms (terms that are already contained in the clustering are ignored)
+     * @return Inserted terms with their sub-clusters
+     * @throws SimilarityException   Error on similarity calculation or a new term without a known similarity to
+     *                               any head (the clustering is not changed)
+     * @throws IllegalStateException Thrown if a new term is less than alpha-similar to the head of its sub-cluster
+     *                               or super-cluster, i.e. a new head would have to be promoted
+     *                               (the clustering is not changed)
+     */
+    private ClusteringUpdate insertTermsWithoutPromotion(Collection<String> terms) throws SimilarityException {
+        MeSHSimilarityFunction similarityFunction = subClustering.getSimilarityFunction();
+        Clustering subCopy = subClustering.copy();
+        ClusteringUpdate update = subCopy.insertTerms(terms, false);
+
+        // Add the terms to the super-clusters of their sub-clusters (on copies of the changed super-clusters)
+        ArrayList<Cluster<String>> superClusters = new ArrayList<>(superClustering.getClusters());
+        for (Map.Entry<String, Integer> term : update.getInsertedTerms().entrySet()) {
+            int superCluster = superClusterOf(term.getValue());
+            Cluster<String> c = superClusters.get(superCluster);
+            if (similarityFunction.similarity(term.getKey(), c.getHead()) < superClustering.getAlpha())
+                throw new IllegalStateException("The term " + term.getKey() + " is less than alpha-similar to the "
+                        + "head of its super-cluster, a new head would have to be promoted.");
+            if (c == superClustering.getCluster(superCluster)) {
+                c = new Cluster<>(c.getHead(), new HashSet<>(c.getAdom()));
+                superClusters.set(superCluster, c);
+            }
+            c.getAdom().add(term.getKey());
+        }
+
+        if (!update.getInsertedTerms().isEmpty()) {
+            superClustering.setClusters(superClusters);
+            subClustering.setClusters(subCopy.getClusters());
+        }
+        return update;
+    }
+
+    /**
+     * Record the sub-cluster of a term after an insertion if the term is new or its sub-cluster number changed.
+     *
+     * @param update       Update to record the change in
+     * @param subClusterOf Sub-clusters before the insertion
+     * @param term         Term
+     * @param subCluster   Number of the sub-cluster after the insertion
+     */
+    private static void recordChange(ClusteringUpdate update, TermPartitionTable subClusterOf, String term,
+                                     int subCluster) {
+        int previous = subClusterOf.get(term);
+        if (previous < 0)
+            update.insert(term, subCluster);
+        else if (previous != subCluster)
+            update.move(term, previous, subCluster);
+    }
+
+    /**
+     * Copy the hierarchical clustering, e.g. to insert terms into the copy
+     * (see {@link HierarchicalClustering#insertTerms(Collection, boolean)}).
+     *
+     * @return Copy with the same clusters on both levels
+     */
+    public HierarchicalClustering copy() {
+        return new HierarchicalClustering(superClustering.copy(), subClustering.copy(), firstSubCluster.clone());
+    }
+
+
+    /**
+     * Get the super-cluster of a sub-cluster.
+     *
+     * @param subCluster Number of the sub-cluster
+     * @return Number of the super-cluster
+     */
+    public int superClusterOf(int subCluster) {
+        if (subCluster < 0 || subCluster >= subClustering.size())
+            throw new IllegalArgumentException("Sub-cluster " + subCluster + " does not exist.");
+        // firstSubCluster is strictly increasing -> last super-cluster whose first sub-cluster is <= subCluster
+        int i = Arrays.binarySearch(firstSubCluster, subCluster);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    /**
+     * Get the sub-clusters of a super-cluster.
+     *
+     * @param superCluster Number of the super-cluster
+     * @return Numbers of the sub-clusters (consecutive, the first one has the head of the super-cluster)
+     */
+    public int[] getSubClusters(int superCluster) {
+        int[] result = new int[firstSubCluster[superCluster + 1] - firstSubCluster[superCluster]];
+        for (int i = 0; i < result.length; i++)
+            result[i] = firstSubCluster[superCluster] + i;
+        return result;
+    }
+
+
+//##################### Getter ######################
+
+    /**
+     * Get the super-clusters
+     *
+     * @return Clustering for the low similarity threshold
+     */
+    public Clustering getSuperClustering() {
+        return superClustering;
+    }
+
+    /**
+     * Get the sub-clusters of all super-clusters
+     *
+     * @return Flat clustering for the high similarity threshold
+     */
+    public Clustering getSubClustering() {
+        return subClustering;
+    }
+
+    /**
+     * Get the number of super-clusters
+     *
+     * @return Number of super-clusters
+     */
+    public int numberOfSuperClusters() {
+        return superClustering.size();
+    }
+
+    /**
+     * Get the number of sub-clusters
+     *
+     * @return Number of sub-clusters
+     */
+    public int numberOfSubClusters() {
+        return subClustering.size();
+    }
+
+    /**
+     * Set the similarity function of both levels (e.g. after deserialization).
+     *
+     * @param similarityFunction Similarity function
+     * @return {@code This} for chaining
+     */
+    public HierarchicalClustering setSimilarityFunction(MeSHSimilarityFunction similarityFunction) {
+        superClustering.setSimilarityFunction(similarityFunction);
+        subClustering.setSimilarityFunction(similarityFunction);
+        return this;
+    }
+
+
+//##################### Serialization ######################
+
+    /**
+     * Serialize the hierarchical clustering to a file.
+     *
+     * @param file Path to output file
+     */
+    public void serializeToFile(String file) {
+        try (ObjectOutputStream objectOut = new ObjectOutputStream(new FileOutputStream(file))) {
+            objectOut.writeObject(this);
+            System.out.println("Wrote hierarchical clustering to file '" + file + "'!");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Deserialize a hierarchical clustering from a file
+     *
+     * @param file Path to input file
+     * @return Hierarchical clustering that was read from file
+     * @throws IOException            Error on file read
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    public static HierarchicalClustering deserializeFromFile(String file) throws IOException, ClassNotFoundException {
+        HierarchicalClustering clustering;
+        try (ObjectInputStream objectIn = new ObjectInputStream(new FileInputStream(file))) {
+            clustering = (HierarchicalClustering) objectIn.readObject();
+        }
+        System.out.println("Read hierarchical clustering from file '" + file + "'!");
+        return clustering;
+    }
+
+    /**
+     * Check whether a file contains a serialized hierarchical clustering (see
+     * {@link HierarchicalClustering#serializeToFile(String)}) by the class name at the start of the
+     * serialization stream, without deserializing it.
+     *
+     * @param file Path to the file
+     * @return True if the serialized object is a {@link HierarchicalClustering}
+     * @throws IOException Error on file read
+     */
+    public static boolean isHierarchicalClusteringFile(String file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            return in.readShort() == ObjectStreamConstants.STREAM_MAGIC
+                    && in.readShort() == ObjectStreamConstants.STREAM_VERSION
+                    && in.readByte() == ObjectStreamConstants.TC_OBJECT
+                    && in.readByte() == ObjectStreamConstants.TC_CLASSDESC
+                    && in.readUTF().equals(HierarchicalClustering.class.getName());
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+
+//##################### Main ######################
+
+    /**
+     * Construct and serialize the hierarchical clustering of a path length file and print the sub-clusters per
+     * super-cluster.
+     *
+     * @param args Path length csv- or zip-File, alpha of the super-clusters, alpha of the sub-clusters and output
+     *             file (default: csv/pathlengths1000.zip 0.1 0.2 clustering/hierarchical1000)
+     * @throws Exception Error on loading, clustering or writing
+     */
+    public static void main(String[] args) throws Exception {
+        String separ = File.separator;
+        String pathLengthFile = args.length > 0 ? args[0] : "csv" + separ + "pathlengths1000.zip";
+        double superAlpha = args.length > 1 ? Double.parseDouble(args[1]) : 0.1;
+        double subAlpha = args.length > 2 ? Double.parseDouble(args[2]) : 0.2;
+        String output = args.length > 3 ? args[3] : "clustering" + separ + "hierarchical1000";
+
+        HierarchicalClustering hierarchy = new HierarchicalClustering(superAlpha, subAlpha,
+                new PathLengthSimilarity(pathLengthFile), Runtime.getRuntime().availableProcessors());
+
+        System.out.println("##### Hierarchical clustering (alpha = " + superAlpha + " / " + subAlpha + "):");
+        for (int i = 0; i < hierarchy.numberOfSuperClusters(); i++) {
+            Cluster<String> c = hierarchy.getSuperClustering().getCluster(i);
+            System.out.println(" - Super-cluster " + i + " (" + c.getHead() + ", " + (c.getAdom().size() + 1)
+                    + " terms): " + hierarchy.getSubClusters(i).length + " sub-clusters");
+        }
+        System.out.println("#####\n");
+        hierarchy.serializeToFile(output);
+    }
+
+}
@@ -0,0 +1,213 @@
+package clusteringbasedfragmentation;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Binary min-heap over term ids, keyed by an external array of similarity values (e.g. the similarity of each term
+ * to the head of its cluster). The position of each id in the heap is kept, so the key of a contained id can be
+ * changed and an id can be removed in O(log n). </p>
+ * <p>
+ * The heap does not observe the key array: after the key of a contained id has been changed,
+ * {@link IndexedMinHeap#update(int)} has to be called. </p>
+ */
+final class IndexedMinHeap {
+
+    /**
+     * Keys of the ids (indexed by id)
+     */
+    private final double[] keys;
+
+    /**
+     * Ids in heap order
+     */
+    private final int[] heap;
+
+    /**
+     * Position of each id in the heap (-1 if the id is not contained)
+     */
+    private final int[] position;
+
+    /**
+     * Number of ids in the heap
+     */
+    private int size;
+
+
+    /**
+     * Create a heap for the ids 0, ..., keys.length - 1 with the given keys.
+     *
+     * @param keys Keys of the ids
+     * @param ids  Initially contained ids
+     */
+    IndexedMinHeap(double[] keys, int[] ids) {
+        this.keys = keys;
+        this.heap = new int[keys.length];
+        this.position = new int[keys.length];
+        Arrays.fill(position, -1);
+
+        for (int id : ids) {
+            if (position[id] < 0) {
+                heap[size] = id;
+                position[id] = size++;
+            }
+        }
+        for (int i = size / 2 - 1; i >= 0; i--)
+            siftDown(i);
+    }
+
+
+    /**
+     * Check whether the heap is empty.
+     *
+     * @return True if the heap contains no id
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Number of ids in the heap.
+     *
+     * @return Number of ids
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Check whether an id is contained in the heap.
+     *
+     * @param id Id
+     * @return True if the id is contained
+     */
+    boolean contains(int id) {
+        return position[id] >= 0;
+    }
+
+    /**
+     * Get the minimal key.
+     *
+     * @return Minimal key of the contained ids
+     */
+    double minKey() {
+        if (size == 0)
+            throw new IllegalStateException("The heap is empty.");
+        return keys[heap[0]];
+    }
+
+    /**
+     * Get all ids whose key equals the minimal key (in heap order).
+     *
+     * @return Ids with minimal key
+     */
+    int[] minima() {
+        double min = minKey();
+        int[] result = new int[4];
+        int count = 0;
+
+        // Depth-first search over the heap, only descending into children with the minimal key
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int i = stack[--top];
+            if (keys[heap[i]] != min)
+                continue;
+            if (count == result.length)
+                result = Arrays.copyOf(result, count * 2);
+            result[count++] = heap[i];
+            for (int child = 2 * i + 1; child <= 2 * i + 2 && child < size; child++) {
+                if (top == stack.length)
+                    stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = child;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Insert an id (with its current key).
+     *
+     * @param id Id (must not be contained)
+     */
+    void add(int id) {
+        if (position[id] >= 0)
+            throw new IllegalArgumentException("Id " + id + " is already contained in the heap.");
+        heap[size] = id;
+        position[id] = size;
+        siftUp(size++);
+    }
+
+    /**
+     * Remove an id.
+     *
+     * @param id Id
+     * @return True if the id was contained
+     */
+    boolean remove(int id) {
+        int i = position[id];
+        if (i < 0)
+            return false;
+        position[id] = -1;
+        int last = heap[--size];
+        if (i < size) {
+            heap[i] = last;
+            position[last] = i;
+            siftDown(i);
+            siftUp(position[last]);
+        }
+        return true;
+    }
+
+    /**
+     * Restore the heap order after the key of a contained id has been changed.
+     *
+     * @param id Id
+     */
+    void update(int id) {
+        int i = position[id];
+        if (i < 0)
+            throw new IllegalArgumentException("Id " + id + " is not contained in the heap.");
+        siftDown(i);
+        siftUp(position[id]);
+    }
+
+
+    private void siftUp(int i) {
+        int id = heap[i];
+        double key = keys[id];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int parentId = heap[parent];
+            if (keys[parentId] <= key)
+                break;
+            heap[i] = parentId;
+            position[parentId] = i;
+            i = parent;
+        }
+        heap[i] = id;
+        position[id] = i;
+    }
+
+    private void siftDown(int i) {
+        int id = heap[i];
+        double key = keys[id];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int right = child + 1;
+            if (right < size && keys[heap[right]] < keys[heap[child]])
+                child = right;
+            int childId = heap[child];
+            if (key <= keys[childId])
+                break;
+            heap[i] = childId;
+            position[childId] = i;
+            i = child;
+        }
+        heap[i] = id;
+        position[id] = i;
+    }
+
+}
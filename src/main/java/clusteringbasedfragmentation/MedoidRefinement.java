@@ -0,0 +1,466 @@
+package clusteringbasedfragmentation;
+
+import clusteringbasedfragmentation.similarityfunctions.MeSHSimilarityFunction;
+import clusteringbasedfragmentation.similarityfunctions.PathLengthSimilarity;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * <p>
+ * Optional k-medoids style refinement of a clustering. The greedy clustering procedure chooses the term that is
+ * farthest from all heads as the next head, so heads are often peripheral terms of their clusters. The refinement
+ * alternates two steps: </p>
+ * <ul>
+ * <li>Medoid step: the head of each cluster is replaced by the member with the largest sum of similarities to all
+ * members of the cluster, provided that all members are still alpha-similar to it</li>
+ * <li>Assignment step: each term moves to the head it is strictly more similar to than to its current head</li>
+ * </ul>
+ * <p>
+ * Both steps keep the invariant of the clustering (every term is at least alpha-similar to its head) and the
+ * numbers of the clusters, so the mapping of clusters to partitions is unchanged. The refinement stops if no head
+ * is replaced or the maximal number of iterations is reached. The clusters are evaluated in parallel. The medoid
+ * step needs |C|^2 / 2 similarity lookups per cluster C, the assignment step one lookup per term and head. </p>
+ */
+public class MedoidRefinement {
+
+    /**
+     * Default maximal number of iterations
+     */
+    private static final int DFLT_MAX_ITERATIONS = 5;
+
+    /**
+     * Maximal number of iterations (medoid step and assignment step)
+     */
+    private int maxIterations = DFLT_MAX_ITERATIONS;
+
+    /**
+     * Number of threads (1 = sequential)
+     */
+    private int parallelism = 1;
+
+
+    /**
+     * Refinement with the default number of iterations (sequential).
+     */
+    public MedoidRefinement() {
+    }
+
+
+    /**
+     * Refine a clustering. The given clustering is not modified.
+     *
+     * @param clustering Clustering with similarity function (must allow for concurrent lookups if the parallelism
+     *                   is greater than 1)
+     * @return Refined clustering and the mean similarity of the terms to their heads before and after
+     * @throws SimilarityException Error on similarity calculation
+     */
+    public Result refine(Clustering clustering) throws SimilarityException {
+        MeSHSimilarityFunction similarityFunction = clustering.getSimilarityFunction();
+        if (similarityFunction == null)
+            throw new IllegalStateException("The clustering has no similarity function.");
+
+        System.out.println("Starting medoid refinement of " + clustering.size() + " clusters (at most "
+                + maxIterations + " iterations) ...");
+        long time = System.nanoTime();
+
+        ArrayList<Cluster<String>> clusters = new ArrayList<>(clustering.size());
+        for (Cluster<String> c : clustering)
+            clusters.add(new Cluster<>(c.getHead(), new HashSet<>(c.getAdom())));
+
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            double before = meanSimilarity(clusters, similarityFunction, pool);
+            int iterations = 0;
+            int swaps = 0;
+            int moves = 0;
+            while (iterations < maxIterations) {
+                iterations++;
+                int swapped = medoidStep(clusters, clustering.getAlpha(), similarityFunction, pool);
+                if (swapped == 0)
+                    break;
+                swaps += swapped;
+                moves += assignmentStep(clusters, similarityFunction, pool);
+            }
+            double after = meanSimilarity(clusters, similarityFunction, pool);
+
+            time = System.nanoTime() - time;
+            System.out.println("Finished medoid refinement in " + time / 1000000000.0 + " seconds!");
+
+            Clustering refined = new Clustering().setClusters(clusters).setAlpha(clustering.getAlpha())
+                    .setSimilarityFunction(similarityFunction);
+            return new Result(refined, before, after, iterations, swaps, moves);
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+
+
+    /**
+     * Replace the head of each cluster by its medoid (see {@link MedoidRefinement}).
+     *
+     * @param clusters           Clusters (modified)
+     * @param alpha              Similarity threshold
+     * @param similarityFunction Similarity function
+     * @param pool               Pool for the parallel evaluation (null = sequential)
+     * @return Number of replaced heads
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private int medoidStep(List<Cluster<String>> clusters, double alpha, MeSHSimilarityFunction similarityFunction,
+                           ForkJoinPool pool) throws SimilarityException {
+
+        List<Callable<String>> tasks = new ArrayList<>(clusters.size());
+        for (Cluster<String> c : clusters) {
+            tasks.add(() -> {
+                // Members with the head first (it is kept on ties)
+                String[] members = new String[c.getAdom().size() + 1];
+                members[0] = c.getHead();
+                int m = 1;
+                for (String term : c.getAdom())
+                    members[m++] = term;
+
+                // Sum of and minimal similarity to the other members, each pair is looked up once
+                double[] sums = new double[members.length];
+                double[] mins = new double[members.length];
+                Arrays.fill(mins, 1.0);
+                for (int i = 0; i < members.length; i++) {
+                    for (int j = 0; j < i; j++) {
+                        double sim = similarityFunction.similarity(members[i], members[j]);
+                        sums[i] += sim;
+                        sums[j] += sim;
+                        mins[i] = Math.min(mins[i], sim);
+                        mins[j] = Math.min(mins[j], sim);
+                    }
+                }
+
+                int medoid = 0;
+                for (int i = 1; i < members.length; i++)
+                    if (mins[i] >= alpha && sums[i] > sums[medoid])
+                        medoid = i;
+                return members[medoid];
+            });
+        }
+        List<String> medoids = invokeAll(tasks, pool);
+
+        int swapped = 0;
+        for (int i = 0; i < clusters.size(); i++) {
+            Cluster<String> c = clusters.get(i);
+            String medoid = medoids.get(i);
+            if (!medoid.equals(c.getHead())) {
+                c.getAdom().remove(medoid);
+                c.getAdom().add(c.getHead());
+                c.setHead(medoid);
+                swapped++;
+            }
+        }
+        return swapped;
+    }
+
+    /**
+     * Move each term to the head it is strictly more similar to than to its current head.
+     *
+     * @param clusters           Clusters (modified)
+     * @param similarityFunction Similarity function
+     * @param pool               Pool for the parallel evaluation (null = sequential)
+     * @return Number of moved terms
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private int assignmentStep(List<Cluster<String>> clusters, MeSHSimilarityFunction similarityFunction,
+                               ForkJoinPool pool) throws SimilarityException {
+
+        // Terms of each cluster that are more similar to another head, with the number of that cluster
+        List<Callable<List<Map.Entry<String, Integer>>>> tasks = new ArrayList<>(clusters.size());
+        for (int j = 0; j < clusters.size(); j++) {
+            int current = j;
+            tasks.add(() -> {
+                List<Map.Entry<String, Integer>> moves = new ArrayList<>();
+                Cluster<String> c = clusters.get(current);
+                for (String term : c.getAdom()) {
+                    double max = similarityFunction.similarity(term, c.getHead());
+                    int argMax = -1;
+                    for (int i = 0; i < clusters.size(); i++) {
+                        if (i == current)
+                            continue;
+                        double sim = similarityFunction.similarity(term, clusters.get(i).getHead());
+                        if (sim > max) {
+                            max = sim;
+                            argMax = i;
+                        }
+                    }
+                    if (argMax >= 0)
+                        moves.add(new AbstractMap.SimpleImmutableEntry<>(term, argMax));
+                }
+                return moves;
+            });
+        }
+
+        int moved = 0;
+        List<List<Map.Entry<String, Integer>>> results = invokeAll(tasks, pool);
+        for (int j = 0; j < results.size(); j++) {
+            for (Map.Entry<String, Integer> move : results.get(j)) {
+                clusters.get(j).getAdom().remove(move.getKey());
+                clusters.get(move.getValue()).getAdom().add(move.getKey());
+                moved++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Mean similarity of the terms to the heads of their clusters (heads are not counted).
+     *
+     * @param clusters           Clusters
+     * @param similarityFunction Similarity function
+     * @param pool               Pool for the parallel evaluation (null = sequential)
+     * @return Mean intra-cluster similarity (1 if all clusters consist of their heads only)
+     * @throws SimilarityException Error on similarity calculation
+     */
+    private double meanSimilarity(List<Cluster<String>> clusters, MeSHSimilarityFunction similarityFunction,
+                                  ForkJoinPool pool) throws SimilarityException {
+        List<Callable<Double>> tasks = new ArrayList<>(clusters.size());
+        for (Cluster<String> c : clusters) {
+            tasks.add(() -> {
+                double sum = 0;
+                for (String term : c.getAdom())
+                    sum += similarityFunction.similarity(term, c.getHead());
+                return sum;
+            });
+        }
+        double sum = 0;
+        for (double s : invokeAll(tasks, pool))
+            sum += s;
+        int terms = 0;
+        for (Cluster<String> c : clusters)
+            terms += c.getAdom().size();
+        return terms == 0 ? 1.0 : sum / terms;
+    }
+
+    /**
+     * Execute tasks in the pool (or sequentially if there is no pool).
+     *
+     * @param tasks Tasks
+     * @param pool  Pool (null = sequential)
+     * @param <T>   Result type
+     * @return Results in the order of the tasks
+     * @throws SimilarityException Error on similarity calculation in a task
+     */
+    private static <T> List<T> invokeAll(List<Callable<T>> tasks, ForkJoinPool pool) throws SimilarityException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            if (pool == null) {
+                for (Callable<T> task : tasks)
+                    results.add(task.call());
+            } else {
+                for (Future<T> future : pool.invokeAll(tasks))
+                    results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SimilarityException)
+                throw (SimilarityException) e.getCause();
+            throw new IllegalStateException("Medoid refinement failed.", e.getCause());
+        } catch (SimilarityException | RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Medoid refinement was interrupted.", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Medoid refinement failed.", e);
+        }
+        return results;
+    }
+
+
+    /**
+     * Result of the refinement: refined clustering and statistics.
+     */
+    public static final class Result {
+
+        /**
+         * Refined clustering
+         */
+        private final Clustering clustering;
+
+        /**
+         * Mean similarity of the terms to their heads before the refinement
+         */
+        private final double meanSimilarityBefore;
+
+        /**
+         * Mean similarity of the terms to their heads after the refinement
+         */
+        private final double meanSimilarityAfter;
+
+        /**
+         * Number of executed iterations
+         */
+        private final int iterations;
+
+        /**
+         * Number of replaced heads (over all iterations)
+         */
+        private final int swaps;
+
+        /**
+         * Number of moved terms (over all iterations)
+         */
+        private final int moves;
+
+        private Result(Clustering clustering, double meanSimilarityBefore, double meanSimilarityAfter,
+                       int iterations, int swaps, int moves) {
+            this.clustering = clustering;
+            this.meanSimilarityBefore = meanSimilarityBefore;
+            this.meanSimilarityAfter = meanSimilarityAfter;
+            this.iterations = iterations;
+            this.swaps = swaps;
+            this.moves = moves;
+        }
+
+        /**
+         * Get the refined clustering
+         *
+         * @return Clustering (same cluster numbers as the original clustering)
+         */
+        public Clustering getClustering() {
+            return clustering;
+        }
+
+        /**
+         * Get the mean similarity of the terms to their heads before the refinement
+         *
+         * @return Mean intra-cluster similarity
+         */
+        public double getMeanSimilarityBefore() {
+            return meanSimilarityBefore;
+        }
+
+        /**
+         * Get the mean similarity of the terms to their heads after the refinement
+         *
+         * @return Mean intra-cluster similarity
+         */
+        public double getMeanSimilarityAfter() {
+            return meanSimilarityAfter;
+        }
+
+        /**
+         * Get the number of executed iterations
+         *
+         * @return Iterations
+         */
+        public int getIterations() {
+            return iterations;
+        }
+
+        /**
+         * Get the number of replaced heads over all iterations
+         *
+         * @return Number of head swaps
+         */
+        public int getSwaps() {
+            return swaps;
+        }
+
+        /**
+         * Get the number of terms that moved to another cluster over all iterations
+         *
+         * @return Number of moved terms
+         */
+        public int getMoves() {
+            return moves;
+        }
+
+        /**
+         * Get the statistics report of the refinement.
+         *
+         * @return Report
+         */
+        public String getReport() {
+            return "##### Medoid refinement of " + clustering.size() + " clusters:\n"
+                    + " - Iterations: " + iterations + "\n"
+                    + " - Replaced heads: " + swaps + ", moved terms: " + moves + "\n"
+                    + " - Mean intra-cluster similarity: " + meanSimilarityBefore + " -> " + meanSimilarityAfter + "\n"
+                    + "#####\n";
+        }
+
+        @Override
+        public String toString() {
+            return getReport();
+        }
+    }
+
+
+//##################### Getter & Setter ######################
+
+    /**
+     * Get the maximal number of iterations
+     *
+     * @return Maximal number of iterations
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * Set the maximal number of iterations (each consisting of a medoid step and an assignment step)
+     *
+     * @param maxIterations Maximal number of iterations (at least 1, default: 5)
+     * @return {@code This} for chaining
+     */
+    public MedoidRefinement setMaxIterations(int maxIterations) {
+        if (maxIterations < 1)
+            throw new IllegalArgumentException("The maximal number of iterations must be at least 1: "
+                    + maxIterations);
+        this.maxIterations = maxIterations;
+        return this;
+    }
+
+    /**
+     * Get the number of threads
+     *
+     * @return Parallelism
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Set the number of threads that evaluate the clusters
+     *
+     * @param parallelism Parallelism (1 = sequential)
+     * @return {@code This} for chaining
+     */
+    public MedoidRefinement setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+
+//##################### Main ######################
+
+    /**
+     * Test unit: refine the clustering of a path length file and print the mean intra-cluster similarity before
+     * and after the refinement.
+     *
+     * @param args Path length csv- or zip-File, alpha and maximal number of iterations
+     *             (default: csv/pathlengths1000.zip 0.15 5)
+     * @throws Exception Error on loading or clustering
+     */
+    public static void main(String[] args) throws Exception {
+        String pathLengthFile = args.length > 0 ? args[0] : "csv" + File.separator + "pathlengths1000.zip";
+        double alpha = args.length > 1 ? Double.parseDouble(args[1]) : 0.15;
+        int maxIterations = args.length > 2 ? Integer.parseInt(args[2]) : DFLT_MAX_ITERATIONS;
+
+        Clustering clustering = new Clustering(alpha, new PathLengthSimilarity(pathLengthFile),
+                ClusteringMode.INCREMENTAL);
+        Result result = new MedoidRefinement().setMaxIterations(maxIterations)
+                .setParallelism(Runtime.getRuntime().availableProcessors()).refine(clustering);
+        System.out.print(result.getReport());
+        result.getClustering().printClusteringStatistics();
+    }
+
+}
@@ -0,0 +1,106 @@
+package clusteringbasedfragmentation;
+
+import materializedfragments.FragIDKey;
+import materializedfragments.IllKey;
+import org.apache.ignite.Ignite;
+import org.apache.ignite.Ignition;
+import org.apache.ignite.binary.BinaryObject;
+import org.apache.ignite.configuration.IgniteConfiguration;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Microbenchmark for {@link ClusteringAffinityFunction#partition(Object)} on {@link BinaryObject} keys. </p>
+ * <p>
+ * It compares the latency and the allocated bytes per call of the binary fast path, that reads only the
+ * partitioning field of the key, with the former approach, that deserializes the whole key before the
+ * partition is determined. The binary keys are created by a local Ignite node. </p>
+ */
+public class PartitionBenchmark {
+
+    /**
+     * Number of measured rounds (each round calls partition() once for every key)
+     */
+    private static final int ROUNDS = 200;
+
+    /**
+     * Number of warm-up rounds
+     */
+    private static final int WARMUP_ROUNDS = 100;
+
+
+    /**
+     * Interface for the benchmarked variants of partition()
+     */
+    private interface PartitionCall {
+        int partition(Object key);
+    }
+
+
+    /**
+     * Measure the average latency and allocation per call of a partition() variant.
+     *
+     * @param name Name of the variant
+     * @param keys Binary keys
+     * @param call Variant of partition()
+     */
+    private static void measure(String name, List<BinaryObject> keys, PartitionCall call) {
+        long checksum = 0;
+        for (int r = 0; r < WARMUP_ROUNDS; r++)
+            for (BinaryObject key : keys)
+                checksum += call.partition(key);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++)
+            for (BinaryObject key : keys)
+                checksum += call.partition(key);
+        long time = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+
+        long calls = (long) ROUNDS * keys.size();
+        System.out.println(name + ": " + (double) time / calls + " ns/call, " + (double) allocated / calls
+                + " bytes/call (checksum " + checksum + ")");
+    }
+
+
+    /**
+     * Run the benchmark for ILL keys and FragID keys.
+     *
+     * @param args Optional: path length csv- or zip-File (default: csv/pathlengths500.zip)
+     * @throws Exception Error on clustering or Ignite startup
+     */
+    public static void main(String[] args) throws Exception {
+
+        String pathLengthFile = args.length > 0 ? args[0] : "csv" + File.separator + "pathlengths500.zip";
+        ClusteringAffinityFunction affinityFunction = new ClusteringAffinityFunction(0.15, pathLengthFile);
+        List<String> terms = affinityFunction.getTerms();
+
+        try (Ignite ignite = Ignition.start(new IgniteConfiguration())) {
+
+            // Binary keys for all terms
+            List<BinaryObject> illKeys = new ArrayList<>(terms.size());
+            List<BinaryObject> fragIDKeys = new ArrayList<>(terms.size());
+            for (int i = 0; i < terms.size(); i++) {
+                illKeys.add(ignite.binary().toBinary(new IllKey(i, terms.get(i))));
+                fragIDKeys.add(ignite.binary().toBinary(new FragIDKey(i % affinityFunction.getClusters().size(), i)));
+            }
+
+            System.out.println("##### partition() on " + terms.size() + " binary keys:");
+            measure("IllKey, deserialize", illKeys,
+                    key -> affinityFunction.partition(((BinaryObject) key).deserialize()));
+            measure("IllKey, binary field", illKeys, affinityFunction::partition);
+            measure("FragIDKey, deserialize", fragIDKeys,
+                    key -> affinityFunction.partition(((BinaryObject) key).deserialize()));
+            measure("FragIDKey, binary field", fragIDKeys, affinityFunction::partition);
+            System.out.println("#####\n");
+        }
+    }
+
+}
@@ -0,0 +1,151 @@
+package clusteringbasedfragmentation;
+
+/**
+ * <p>
+ * Immutable lookup table that maps each term of the active domain of a {@link Clustering} to the partition
+ * (i.e. the index of the cluster) it belongs to. </p>
+ * <p>
+ * The table uses open addressing with linear probing on two parallel arrays, so a lookup is a single hash
+ * probe in most cases and neither allocates objects nor compares the term against all cluster heads. </p>
+ */
+final class TermPartitionTable {
+
+    /**
+     * Terms (null for empty slots), the capacity is a power of two
+     */
+    private final String[] terms;
+
+    /**
+     * Partition of the term in the same slot
+     */
+    private final int[] partitions;
+
+    /**
+     * Bit mask to map a hash code to a slot
+     */
+    private final int mask;
+
+    /**
+     * Number of terms in the table
+     */
+    private final int size;
+
+
+    /**
+     * Build the table for all heads and terms of the clusters of a clustering (the i-th cluster is the
+     * i-th partition).
+     *
+     * @param clustering Clustering
+     */
+    TermPartitionTable(Clustering clustering) {
+
+        int numTerms = 0;
+        for (Cluster<String> c : clustering)
+            numTerms += c.getAdom().size() + 1;
+        int capacity = capacity(numTerms);
+
+        this.terms = new String[capacity];
+        this.partitions = new int[capacity];
+        this.mask = capacity - 1;
+
+        int count = 0;
+        for (int i = 0; i < clustering.size(); i++) {
+            Cluster<String> c = clustering.getCluster(i);
+            if (put(c.getHead(), i))
+                count++;
+            for (String term : c.getAdom())
+                if (put(term, i))
+                    count++;
+        }
+        this.size = count;
+    }
+
+    /**
+     * Build the table from a dense term to partition mapping.
+     *
+     * @param terms      Terms
+     * @param partitions Partition of the term with the same index
+     */
+    TermPartitionTable(String[] terms, int[] partitions) {
+        int capacity = capacity(terms.length);
+        this.terms = new String[capacity];
+        this.partitions = new int[capacity];
+        this.mask = capacity - 1;
+
+        int count = 0;
+        for (int i = 0; i < terms.length; i++)
+            if (put(terms[i], partitions[i]))
+                count++;
+        this.size = count;
+    }
+
+
+    /**
+     * Get the partition of a term.
+     *
+     * @param term MeSH term
+     * @return Partition of the term or -1 if the term is not contained in the clustering
+     */
+    int get(String term) {
+        int slot = hash(term) & mask;
+        String t;
+        while ((t = terms[slot]) != null) {
+            if (t.equals(term))
+                return partitions[slot];
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Number of terms in the table.
+     *
+     * @return Number of terms
+     */
+    int size() {
+        return size;
+    }
+
+
+    /**
+     * Insert a term (the first insertion of a term wins).
+     *
+     * @param term      MeSH term
+     * @param partition Partition of the term
+     * @return True if the term was inserted, false if it was already contained
+     */
+    private boolean put(String term, int partition) {
+        int slot = hash(term) & mask;
+        String t;
+        while ((t = terms[slot]) != null) {
+            if (t.equals(term))
+                return false;
+            slot = (slot + 1) & mask;
+        }
+        terms[slot] = term;
+        partitions[slot] = partition;
+        return true;
+    }
+
+    /**
+     * Capacity of a table: power of two with a load factor of at most 0.5.
+     *
+     * @param numTerms Number of terms
+     * @return Capacity
+     */
+    private static int capacity(int numTerms) {
+        return Integer.highestOneBit(Math.max(2, numTerms) * 2 - 1) << 1;
+    }
+
+    /**
+     * Spread the hash code of a term, so that the lower bits used for the slot depend on all bits.
+     *
+     * @param term MeSH term
+     * @return Hash value
+     */
+    private static int hash(String term) {
+        int h = term.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -0,0 +1,22 @@
+package clusteringbasedfragmentation;
+
+import java.io.Serializable;
+
+/**
+ * Resolves the cluster of a term that is not contained in the active domain of a clustering, e.g. a disease of a
+ * query that does not occur in the data. Used by the {@link CompactClusteringAffinityFunction}, which does not
+ * carry a similarity function itself. Implementations are serialized together with the affinity function.
+ */
+public interface UnseenTermResolver extends Serializable {
+
+    /**
+     * Identify the cluster of a term outside the active domain of the clustering.
+     *
+     * @param term  The term to match to a cluster
+     * @param heads Heads of the clusters (i-th head = head of the i-th cluster)
+     * @return Number of the cluster or -1 if no cluster could be identified
+     * @throws SimilarityException Thrown if an error occurs during similarity calculation
+     */
+    int identifyCluster(String term, String[] heads) throws SimilarityException;
+
+}
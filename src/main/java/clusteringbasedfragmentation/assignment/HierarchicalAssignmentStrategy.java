@@ -0,0 +1,56 @@
+package clusteringbasedfragmentation.assignment;
+
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
+import clusteringbasedfragmentation.HierarchicalClustering;
+import org.apache.ignite.cache.affinity.AffinityFunctionContext;
+import org.apache.ignite.cluster.ClusterNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>
+ * Assignment strategy for a {@link HierarchicalClustering}: all partitions of a super-cluster (i.e. of its
+ * sub-clusters) are assigned to the same node, so a query relaxed from a sub-cluster to its super-cluster is
+ * answered by a single node. The super-clusters are bin-packed onto the nodes by their number of terms (see
+ * {@link WeightedAssignmentStrategy}). The similarity threshold of the super-clusters should be chosen such that
+ * there are at least as many super-clusters as nodes. </p>
+ * <p>
+ * For an affinity function with a flat clustering, each cluster is treated as a super-cluster. </p>
+ */
+public class HierarchicalAssignmentStrategy implements PartitionAssignmentStrategy {
+
+    private static final long serialVersionUID = 2264958036617309745L;
+
+    @Override
+    public List<List<ClusterNode>> assignPartitions(AbstractClusteringAffinityFunction affinityFunction,
+                                                    AffinityFunctionContext affCtx) {
+        List<ClusterNode> allNodes = affCtx.currentTopologySnapshot();
+        int[] nodeOfSuperCluster = WeightedAssignmentStrategy.binPack(superClusterWeights(affinityFunction),
+                allNodes.size());
+
+        List<List<ClusterNode>> assignment = new ArrayList<>(affinityFunction.partitions());
+        for (int i = 0; i < affinityFunction.partitions(); i++) {
+            List<ClusterNode> nodes = new ArrayList<>();
+            nodes.add(allNodes.get(nodeOfSuperCluster[affinityFunction.superClusterOfPartition(i)]));
+            assignment.add(nodes);
+        }
+        return assignment;
+    }
+
+    /**
+     * Get the weight (number of terms) of each super-cluster.
+     *
+     * @param affinityFunction Affinity function providing the clustering
+     * @return Super-cluster weights
+     */
+    private static double[] superClusterWeights(AbstractClusteringAffinityFunction affinityFunction) {
+        // the terms of a super-cluster are the terms of its sub-clusters
+        int subPartitions = affinityFunction.getSubPartitions();
+        double[] weights = new double[affinityFunction.superClusterOfPartition(affinityFunction.partitions() - 1) + 1];
+        for (int i = 0; i < affinityFunction.numberOfClusters(); i++)
+            weights[affinityFunction.superClusterOfPartition(i * subPartitions)] += affinityFunction.clusterSize(i);
+        return weights;
+    }
+
+}
@@ -0,0 +1,28 @@
+package clusteringbasedfragmentation.assignment;
+
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
+import org.apache.ignite.cache.affinity.AffinityFunctionContext;
+import org.apache.ignite.cluster.ClusterNode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Default assignment strategy: the i-th partition is assigned to the (i % k)-th of k nodes
+ * (see {@link AbstractClusteringAffinityFunction#assignPartition(int, List)}).
+ */
+public class ModuloAssignmentStrategy implements PartitionAssignmentStrategy {
+
+    private static final long serialVersionUID = -2318503591842233427L;
+
+    @Override
+    public List<List<ClusterNode>> assignPartitions(AbstractClusteringAffinityFunction affinityFunction,
+                                                    AffinityFunctionContext affCtx) {
+        List<ClusterNode> allNodes = affCtx.currentTopologySnapshot();
+        List<List<ClusterNode>> assignment = new ArrayList<>(affinityFunction.partitions());
+        for (int i = 0; i < affinityFunction.partitions(); i++)
+            assignment.add(affinityFunction.assignPartition(i, allNodes));
+        return assignment;
+    }
+
+}
@@ -0,0 +1,50 @@
+package clusteringbasedfragmentation.assignment;
+
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
+import org.apache.ignite.cache.affinity.AffinityFunctionContext;
+import org.apache.ignite.cluster.ClusterNode;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * <p>
+ * Strategy of a {@link AbstractClusteringAffinityFunction} to map its partitions (i.e. the clusters of the
+ * clustering-based fragmentation) to the nodes of the cluster. The strategy can be selected in the Spring XML configuration by the
+ * property "assignmentStrategy" of the affinity function bean. </p>
+ * <p>
+ * Note that the assignment must be deterministic, i.e. all nodes must compute the same assignment for the same
+ * topology. </p>
+ */
+public interface PartitionAssignmentStrategy extends Serializable {
+
+    /**
+     * Map all partitions of the affinity function to nodes of the cluster
+     * (see {@link org.apache.ignite.cache.affinity.AffinityFunction#assignPartitions(AffinityFunctionContext)}).
+     *
+     * @param affinityFunction Affinity function providing the partitions and the clustering
+     * @param affCtx           Context with the current topology
+     * @return Assignment of partitions to nodes (outer list indexed by partition number)
+     */
+    List<List<ClusterNode>> assignPartitions(AbstractClusteringAffinityFunction affinityFunction,
+                                             AffinityFunctionContext affCtx);
+
+    /**
+     * Reset the state of the strategy, if any (see {@link org.apache.ignite.cache.affinity.AffinityFunction#reset()}).
+     */
+    default void reset() {
+        // No state by default
+    }
+
+    /**
+     * Remove a node that left the topology from the state of the strategy, if any
+     * (see {@link org.apache.ignite.cache.affinity.AffinityFunction#removeNode(UUID)}).
+     *
+     * @param nodeId Id of the node
+     */
+    default void removeNode(UUID nodeId) {
+        // No state by default
+    }
+
+}
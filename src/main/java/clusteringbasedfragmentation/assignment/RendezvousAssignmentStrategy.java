@@ -0,0 +1,173 @@
+package clusteringbasedfragmentation.assignment;
+
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
+import org.apache.ignite.cache.affinity.AffinityFunctionContext;
+import org.apache.ignite.cluster.ClusterNode;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Stable assignment strategy based on rendezvous (highest random weight) hashing: each partition is assigned to the
+ * node with the highest hash value of (partition, consistent id of the node). </p>
+ * <p>
+ * In contrast to the {@link ModuloAssignmentStrategy}, which moves almost every partition whenever the number of
+ * nodes changes, only the partitions of a leaving node move (to the remaining nodes), and a joining node only takes
+ * over the partitions for which it has the highest hash value (about 1/k of them). As the consistent id of a node is
+ * kept on restart, a restarted node gets back its former partitions. </p>
+ */
+public class RendezvousAssignmentStrategy implements PartitionAssignmentStrategy {
+
+    private static final long serialVersionUID = -8006411574219226301L;
+
+
+    @Override
+    public List<List<ClusterNode>> assignPartitions(AbstractClusteringAffinityFunction affinityFunction,
+                                                    AffinityFunctionContext affCtx) {
+        List<ClusterNode> allNodes = affCtx.currentTopologySnapshot();
+        Object[] nodeIds = new Object[allNodes.size()];
+        for (int i = 0; i < nodeIds.length; i++)
+            nodeIds[i] = allNodes.get(i).consistentId();
+
+        int[] nodeOfPartition = assign(affinityFunction.partitions(), nodeIds);
+        List<List<ClusterNode>> assignment = new ArrayList<>(nodeOfPartition.length);
+        for (int node : nodeOfPartition) {
+            List<ClusterNode> nodes = new ArrayList<>();
+            nodes.add(allNodes.get(node));
+            assignment.add(nodes);
+        }
+        return assignment;
+    }
+
+
+    /**
+     * Assign each partition to the node with the highest rendezvous hash value.
+     *
+     * @param parts   Number of partitions
+     * @param nodeIds Consistent ids of the nodes
+     * @return Node number (index in nodeIds) of each partition
+     */
+    static int[] assign(int parts, Object[] nodeIds) {
+        int[] nodeOfPartition = new int[parts];
+        for (int partition = 0; partition < parts; partition++) {
+            int max = 0;
+            long maxHash = hash(partition, nodeIds[0]);
+            for (int node = 1; node < nodeIds.length; node++) {
+                long h = hash(partition, nodeIds[node]);
+                if (h > maxHash) {
+                    maxHash = h;
+                    max = node;
+                }
+            }
+            nodeOfPartition[partition] = max;
+        }
+        return nodeOfPartition;
+    }
+
+    /**
+     * Rendezvous hash value of a partition and a node.
+     *
+     * @param partition Partition number
+     * @param nodeId    Consistent id of the node
+     * @return Hash value
+     */
+    static long hash(int partition, Object nodeId) {
+        return mix(((long) nodeId.hashCode() << 32) ^ mix(partition));
+    }
+
+    /**
+     * Bit mixing function (finalizer of MurmurHash3), spreads all input bits over the result.
+     *
+     * @param h Value
+     * @return Mixed value
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+
+//##################### Main ######################
+
+    /**
+     * Test unit: count the partitions that move to another node for a sequence of node joins and leaves with the
+     * modulo assignment, the weighted assignment and the rendezvous assignment.
+     *
+     * @param args Number of partitions (default: 100)
+     */
+    public static void main(String[] args) {
+        int parts = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+
+        // Partition weights for the weighted assignment (skewed cluster sizes)
+        double[] weights = new double[parts];
+        Random random = new Random(42);
+        for (int i = 0; i < parts; i++)
+            weights[i] = 1 + random.nextInt(50);
+
+        // Topology changes: 4 nodes, 2 joins, 1 leave, 1 leave, restart of the node that left first
+        List<List<String>> topologies = new ArrayList<>();
+        List<String> nodes = new ArrayList<>(Arrays.asList("node0", "node1", "node2", "node3"));
+        topologies.add(new ArrayList<>(nodes));
+        nodes.add("node4");
+        topologies.add(new ArrayList<>(nodes));
+        nodes.add("node5");
+        topologies.add(new ArrayList<>(nodes));
+        nodes.remove("node1");
+        topologies.add(new ArrayList<>(nodes));
+        nodes.remove("node4");
+        topologies.add(new ArrayList<>(nodes));
+        nodes.add(1, "node1");
+        topologies.add(new ArrayList<>(nodes));
+
+        System.out.println("##### Moved partitions (of " + parts + ") on topology changes:");
+        int movedModulo = 0, movedWeighted = 0, movedRendezvous = 0;
+        String[] prevModulo = null, prevWeighted = null, prevRendezvous = null;
+        for (List<String> topology : topologies) {
+            int k = topology.size();
+            String[] modulo = new String[parts];
+            String[] weighted = new String[parts];
+            String[] rendezvous = new String[parts];
+            int[] binPacked = WeightedAssignmentStrategy.binPack(weights, k);
+            int[] hashed = assign(parts, topology.toArray());
+            for (int i = 0; i < parts; i++) {
+                modulo[i] = topology.get(i % k);
+                weighted[i] = topology.get(binPacked[i]);
+                rendezvous[i] = topology.get(hashed[i]);
+            }
+
+            if (prevModulo != null) {
+                int m = moved(prevModulo, modulo), w = moved(prevWeighted, weighted), r = moved(prevRendezvous, rendezvous);
+                System.out.println(" - " + topology + ": modulo " + m + ", weighted " + w + ", rendezvous " + r);
+                movedModulo += m;
+                movedWeighted += w;
+                movedRendezvous += r;
+            }
+            prevModulo = modulo;
+            prevWeighted = weighted;
+            prevRendezvous = rendezvous;
+        }
+        System.out.println(" - Total: modulo " + movedModulo + ", weighted " + movedWeighted + ", rendezvous "
+                + movedRendezvous);
+        System.out.println("#####\n");
+    }
+
+    /**
+     * Count the partitions that are assigned to different nodes in two assignments.
+     *
+     * @param before Node of each partition before
+     * @param after  Node of each partition after
+     * @return Number of moved partitions
+     */
+    private static int moved(String[] before, String[] after) {
+        int moved = 0;
+        for (int i = 0; i < before.length; i++)
+            if (!before[i].equals(after[i]))
+                moved++;
+        return moved;
+    }
+
+}
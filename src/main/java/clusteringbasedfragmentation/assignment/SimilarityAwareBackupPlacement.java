@@ -0,0 +1,155 @@
+package clusteringbasedfragmentation.assignment;
+
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
+import org.apache.ignite.cluster.ClusterNode;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Places the backup replicas of the partitions on top of a primary assignment (as computed by a
+ * {@link PartitionAssignmentStrategy}). </p>
+ * <p>
+ * The backups of a partition are placed on the nodes that store (as primary) the clusters with the most similar
+ * heads, i.e. the neighboring clusters of the partition's cluster. Relaxed queries that touch a cluster and its
+ * neighbors can thus be answered by fewer nodes. Ties (e.g. nodes without similar clusters) are broken by the
+ * node order starting after the primary node, so the placement is deterministic. The head similarities are
+ * precomputed by the affinity function (see {@link AbstractClusteringAffinityFunction#getHeadSimilarities()});
+ * without them, the backups are only balanced over the nodes. </p>
+ * <p>
+ * To balance the load, a node stores at most ceil(partitions * backups / nodes) backups: a node that reached this
+ * limit is skipped in favor of the next best scored node. If only nodes at the limit are left for a partition, the
+ * backup is placed anyway and afterwards moved to a node below the limit (that does not store the partition yet).
+ * </p>
+ */
+public final class SimilarityAwareBackupPlacement {
+
+    private SimilarityAwareBackupPlacement() {
+    }
+
+
+    /**
+     * Add backup nodes to a primary assignment.
+     *
+     * @param affinityFunction Affinity function providing the clustering and the head similarities
+     * @param primaries        Primary assignment (outer list indexed by partition, first node is the primary)
+     * @param allNodes         All nodes of the current topology
+     * @param backups          Number of backups per partition (at most number of nodes - 1 are placed)
+     * @return Assignment with primary node followed by the backup nodes for each partition
+     */
+    public static List<List<ClusterNode>> addBackups(AbstractClusteringAffinityFunction affinityFunction,
+                                                     List<List<ClusterNode>> primaries,
+                                                     List<ClusterNode> allNodes, int backups) {
+        int numNodes = allNodes.size();
+        int numBackups = Math.min(backups, numNodes - 1);
+        if (numBackups <= 0)
+            return primaries;
+
+        // Node number of the primary node of each partition
+        Map<UUID, Integer> nodeNumbers = new HashMap<>();
+        for (int i = 0; i < numNodes; i++)
+            nodeNumbers.put(allNodes.get(i).id(), i);
+        int parts = primaries.size();
+        int[] primary = new int[parts];
+        for (int p = 0; p < parts; p++)
+            primary[p] = nodeNumbers.get(primaries.get(p).get(0).id());
+
+        // Maximal number of backups per node and number of backups placed on each node
+        int maxBackups = (parts * numBackups + numNodes - 1) / numNodes;
+        int[] load = new int[numNodes];
+
+        // Head similarities are precomputed (no similarity lookups on the partition exchange thread)
+        double[][] headSimilarities = affinityFunction.getHeadSimilarities();
+        if (headSimilarities == null)
+            System.out.println("No head similarities available: the backups are only balanced over the nodes!");
+        int[][] backupNodes = new int[parts][numBackups];
+        double[] score = new double[numNodes];
+        for (int p = 0; p < parts; p++) {
+
+            // Score of a node: maximal similarity of the partition's head to a head stored on the node
+            Arrays.fill(score, -1.0);
+            double[] similarities = headSimilarities != null
+                    ? headSimilarities[affinityFunction.clusterOfPartition(p)] : null;
+            for (int q = 0; q < parts; q++) {
+                double sim = similarities != null ? similarities[affinityFunction.clusterOfPartition(q)] : 0.0;
+                if (q != p && sim > score[primary[q]])
+                    score[primary[q]] = sim;
+            }
+
+            // Best scored nodes (except the primary node), ties in node order after the primary node
+            final int first = primary[p];
+            Integer[] candidates = new Integer[numNodes - 1];
+            for (int i = 1; i < numNodes; i++)
+                candidates[i - 1] = (first + i) % numNodes;
+            Arrays.sort(candidates, (n1, n2) -> {
+                int cmp = Double.compare(score[n2], score[n1]);
+                return cmp != 0 ? cmp : Integer.compare((n1 - first + numNodes) % numNodes,
+                        (n2 - first + numNodes) % numNodes);
+            });
+
+            // Best scored nodes below the limit, then (if too few) the best scored nodes at the limit
+            boolean[] chosen = new boolean[numNodes];
+            int b = 0;
+            for (int pass = 0; pass < 2 && b < numBackups; pass++) {
+                for (int i = 0; i < candidates.length && b < numBackups; i++) {
+                    int node = candidates[i];
+                    if (!chosen[node] && (pass == 1 || load[node] < maxBackups)) {
+                        chosen[node] = true;
+                        load[node]++;
+                        backupNodes[p][b++] = node;
+                    }
+                }
+            }
+        }
+
+        // Move backups from nodes above the limit to nodes below the limit that do not store the partition yet
+        for (int node = 0; node < numNodes; node++) {
+            for (int p = parts - 1; p >= 0 && load[node] > maxBackups; p--) {
+                for (int b = 0; b < numBackups; b++) {
+                    if (backupNodes[p][b] != node)
+                        continue;
+                    int target = underloadedNode(load, maxBackups, primary[p], backupNodes[p]);
+                    if (target >= 0) {
+                        backupNodes[p][b] = target;
+                        load[node]--;
+                        load[target]++;
+                    }
+                }
+            }
+        }
+
+        List<List<ClusterNode>> assignment = new ArrayList<>(parts);
+        for (int p = 0; p < parts; p++) {
+            List<ClusterNode> nodes = new ArrayList<>(numBackups + 1);
+            nodes.add(allNodes.get(primary[p]));
+            for (int node : backupNodes[p])
+                nodes.add(allNodes.get(node));
+            assignment.add(nodes);
+        }
+        return assignment;
+    }
+
+    /**
+     * Find a node below the limit of backups that does not store a partition yet.
+     *
+     * @param load        Number of backups placed on each node
+     * @param maxBackups  Maximal number of backups per node
+     * @param primary     Node number of the primary node of the partition
+     * @param backupNodes Node numbers of the backup nodes of the partition
+     * @return Node number (the one with the fewest backups) or -1 if there is no such node
+     */
+    private static int underloadedNode(int[] load, int maxBackups, int primary, int[] backupNodes) {
+        int result = -1;
+        for (int node = 0; node < load.length; node++) {
+            if (node == primary || load[node] >= maxBackups || (result >= 0 && load[node] >= load[result]))
+                continue;
+            boolean stored = false;
+            for (int backup : backupNodes)
+                stored |= backup == node;
+            if (!stored)
+                result = node;
+        }
+        return result;
+    }
+
+}
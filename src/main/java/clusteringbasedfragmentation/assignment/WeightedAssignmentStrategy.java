@@ -0,0 +1,200 @@
+package clusteringbasedfragmentation.assignment;
+
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
+import clusteringbasedfragmentation.ClusteringAffinityFunction;
+import org.apache.ignite.IgniteCache;
+import org.apache.ignite.cache.CachePeekMode;
+import org.apache.ignite.cache.affinity.AffinityFunctionContext;
+import org.apache.ignite.cluster.ClusterNode;
+
+import java.util.*;
+
+/**
+ * <p>
+ * Load-aware assignment strategy that balances the weights of the partitions over the nodes of the cluster.
+ * The partitions are bin-packed onto the nodes by the longest-processing-time rule: in the order of decreasing
+ * weight, each partition is assigned to the node with the currently smallest total weight. </p>
+ * <p>
+ * The weight of a partition is either configured (see {@link WeightedAssignmentStrategy#setWeights(List)}, e.g.
+ * observed tuple counts obtained by {@link WeightedAssignmentStrategy#observedWeights(IgniteCache, int)}) or, by
+ * default, the number of terms of the cluster of the partition (divided by the number of sub-partitions of the
+ * cluster). Configured weights must be the same on all nodes, e.g. by setting them in the Spring XML configuration:
+ * </p>
+ * <pre>
+ * &lt;property name="assignmentStrategy"&gt;
+ *     &lt;bean class="clusteringbasedfragmentation.assignment.WeightedAssignmentStrategy"/&gt;
+ * &lt;/property&gt;
+ * </pre>
+ */
+public class WeightedAssignmentStrategy implements PartitionAssignmentStrategy {
+
+    private static final long serialVersionUID = 6590376233549911617L;
+
+    /**
+     * Configured weight of each partition (null = number of terms of the cluster)
+     */
+    private List<Double> weights;
+
+
+    /**
+     * Strategy that weights each partition by the number of terms of its cluster.
+     */
+    public WeightedAssignmentStrategy() {
+        this.weights = null;
+    }
+
+    /**
+     * Strategy with configured partition weights.
+     *
+     * @param weights Weight of each partition
+     */
+    public WeightedAssignmentStrategy(List<Double> weights) {
+        this.weights = weights;
+    }
+
+
+    @Override
+    public List<List<ClusterNode>> assignPartitions(AbstractClusteringAffinityFunction affinityFunction,
+                                                    AffinityFunctionContext affCtx) {
+        List<ClusterNode> allNodes = affCtx.currentTopologySnapshot();
+        double[] partitionWeights = partitionWeights(affinityFunction);
+        int[] nodeOfPartition = binPack(partitionWeights, allNodes.size());
+
+        List<List<ClusterNode>> assignment = new ArrayList<>(partitionWeights.length);
+        for (int node : nodeOfPartition) {
+            List<ClusterNode> nodes = new ArrayList<>();
+            nodes.add(allNodes.get(node));
+            assignment.add(nodes);
+        }
+        return assignment;
+    }
+
+
+    /**
+     * Get the weight of each partition.
+     *
+     * @param affinityFunction Affinity function providing the partitions and the clustering
+     * @return Partition weights
+     */
+    public double[] partitionWeights(AbstractClusteringAffinityFunction affinityFunction) {
+        int parts = affinityFunction.partitions();
+        double[] partitionWeights = new double[parts];
+        if (weights != null) {
+            if (weights.size() != parts)
+                throw new IllegalArgumentException("Expected " + parts + " partition weights, but got "
+                        + weights.size() + "!");
+            for (int i = 0; i < parts; i++)
+                partitionWeights[i] = weights.get(i);
+        } else {
+            // the terms of a cluster are spread evenly over its sub-partitions
+            int subPartitions = affinityFunction.getSubPartitions();
+            for (int i = 0; i < parts; i++) {
+                int cluster = affinityFunction.clusterOfPartition(i);
+                partitionWeights[i] = (double) affinityFunction.clusterSize(cluster) / subPartitions;
+            }
+        }
+        return partitionWeights;
+    }
+
+
+    /**
+     * Bin-pack weighted partitions onto nodes (longest-processing-time rule, ties are broken by the partition and
+     * node numbers, so the result is deterministic).
+     *
+     * @param partitionWeights Weight of each partition
+     * @param numNodes         Number of nodes
+     * @return Node number of each partition
+     */
+    static int[] binPack(double[] partitionWeights, int numNodes) {
+        Integer[] order = new Integer[partitionWeights.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (p1, p2) -> {
+            int cmp = Double.compare(partitionWeights[p2], partitionWeights[p1]);
+            return cmp != 0 ? cmp : Integer.compare(p1, p2);
+        });
+
+        double[] load = new double[numNodes];
+        int[] nodeOfPartition = new int[partitionWeights.length];
+        for (int partition : order) {
+            int min = 0;
+            for (int node = 1; node < numNodes; node++)
+                if (load[node] < load[min])
+                    min = node;
+            nodeOfPartition[partition] = min;
+            load[min] += partitionWeights[partition];
+        }
+        return nodeOfPartition;
+    }
+
+
+    /**
+     * Get the observed number of tuples of each partition of a cache (primary entries), e.g. to configure the
+     * weights of this strategy for the next start of the cluster. Note: must not be invoked during the
+     * partition assignment.
+     *
+     * @param cache Partitioned cache (e.g. the ILL cache)
+     * @param parts Number of partitions
+     * @return Tuple count of each partition
+     */
+    public static List<Double> observedWeights(IgniteCache<?, ?> cache, int parts) {
+        List<Double> observed = new ArrayList<>(parts);
+        for (int i = 0; i < parts; i++)
+            observed.add((double) cache.sizeLong(i, CachePeekMode.PRIMARY));
+        return observed;
+    }
+
+
+//##################### Getter & Setter ######################
+
+    /**
+     * Get the configured partition weights
+     *
+     * @return Weight of each partition (null if the number of terms of the clusters is used)
+     */
+    public List<Double> getWeights() {
+        return weights;
+    }
+
+    /**
+     * Configure the partition weights.
+     *
+     * @param weights Weight of each partition (null = number of terms of the cluster)
+     * @return {@code This} for chaining
+     */
+    public WeightedAssignmentStrategy setWeights(List<Double> weights) {
+        this.weights = weights;
+        return this;
+    }
+
+
+//##################### Main ######################
+
+    /**
+     * Test unit: compare the node loads (number of terms) of the modulo assignment and the
+     * weighted assignment for a clustering.
+     *
+     * @param args Path length csv- or zip-File, alpha and number of nodes (default: csv/pathlengths500.zip 0.15 4)
+     * @throws Exception Error on clustering
+     */
+    public static void main(String[] args) throws Exception {
+        String pathLengthFile = args.length > 0 ? args[0] : "csv/pathlengths500.zip";
+        double alpha = args.length > 1 ? Double.parseDouble(args[1]) : 0.15;
+        int numNodes = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        ClusteringAffinityFunction affinityFunction = new ClusteringAffinityFunction(alpha, pathLengthFile);
+        affinityFunction.getClustering().printClusteringStatistics();
+        double[] partitionWeights = new WeightedAssignmentStrategy().partitionWeights(affinityFunction);
+
+        double[] moduloLoad = new double[numNodes];
+        double[] weightedLoad = new double[numNodes];
+        int[] nodeOfPartition = binPack(partitionWeights, numNodes);
+        for (int i = 0; i < partitionWeights.length; i++) {
+            moduloLoad[i % numNodes] += partitionWeights[i];
+            weightedLoad[nodeOfPartition[i]] += partitionWeights[i];
+        }
+        System.out.println("Modulo assignment:   node loads " + Arrays.toString(moduloLoad));
+        System.out.println("Weighted assignment: node loads " + Arrays.toString(weightedLoad));
+    }
+
+}
@@ -16,7 +16,8 @@ import java.util.TreeSet;
  *
  * <p>
  * Note using this class as similarity function can cause out of memory errors (OOME) in the Apache Ignite
- * cluster, as the {@link HashMap} size becomes critical for increasing term set sizes.
+ * cluster, as the {@link HashMap} size becomes critical for increasing term set sizes. For similarities
+ * derived from path lengths, {@link PathLengthSimilarity} needs only one byte per term pair.
  * </p>
  */
 public class CSVSimilarityLoader implements MeSHSimilarityFunction, Serializable {
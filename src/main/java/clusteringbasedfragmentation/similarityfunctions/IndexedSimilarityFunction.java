@@ -0,0 +1,81 @@
+package clusteringbasedfragmentation.similarityfunctions;
+
+import clusteringbasedfragmentation.SimilarityException;
+
+import java.util.List;
+
+/**
+ * Interface for {@link MeSHSimilarityFunction}s that can calculate the similarity of two terms by their ids
+ * in a {@link TermDictionary}, i.e. without any String handling.
+ */
+public interface IndexedSimilarityFunction extends MeSHSimilarityFunction {
+
+    /**
+     * Get the dictionary that maps the terms of this similarity function to ids.
+     *
+     * @return Term dictionary
+     */
+    TermDictionary getDictionary();
+
+    /**
+     * Calculate the similarity of two MeSH terms given by their ids.
+     *
+     * @param id1 Id of a MeSH term
+     * @param id2 Id of a MeSH term
+     * @return Similarity value
+     * @throws SimilarityException Thrown if no similarity is known for the two terms
+     */
+    double similarity(int id1, int id2) throws SimilarityException;
+
+    /**
+     * Calculate the similarities of a MeSH term to many other terms given by their ids
+     * (by default one by one, matrix-based implementations scan the row of the term).
+     *
+     * @param id  Id of a MeSH term
+     * @param ids Ids of other MeSH terms
+     * @param out Array for the similarity of the term to each other term (at least ids.length entries)
+     * @throws SimilarityException Thrown if no similarity is known for a pair of terms
+     */
+    default void similarities(int id, int[] ids, double[] out) throws SimilarityException {
+        for (int i = 0; i < ids.length; i++)
+            out[i] = similarity(id, ids[i]);
+    }
+
+    /**
+     * Find the most similar of many terms to a MeSH term by their ids.
+     *
+     * @param id  Id of a MeSH term
+     * @param ids Ids of the candidate terms
+     * @return Index of the most similar candidate (the first one on ties) or -1 if there is no candidate with a
+     * non-negative similarity
+     * @throws SimilarityException Thrown if no similarity is known for a pair of terms
+     */
+    default int mostSimilar(int id, int[] ids) throws SimilarityException {
+        double[] sims = new double[ids.length];
+        similarities(id, ids, sims);
+        return MeSHSimilarityFunction.argMax(sims);
+    }
+
+    /**
+     * Calculate the similarities of a MeSH term to many other terms by their ids in the {@link TermDictionary}
+     * (see {@link IndexedSimilarityFunction#similarities(int, int[], double[])}).
+     *
+     * @param term   MeSH term
+     * @param others Other MeSH terms
+     * @param out    Array for the similarity of the term to each other term (at least others.size() entries)
+     * @throws SimilarityException Thrown if a term is unknown or no similarity is known for a pair of terms
+     */
+    @Override
+    default void similarities(String term, List<String> others, double[] out) throws SimilarityException {
+        TermDictionary dictionary = getDictionary();
+        int id = dictionary.id(term);
+        int[] ids = new int[others.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = dictionary.id(others.get(i));
+            if (id < 0 || ids[i] < 0)
+                throw new SimilarityException("No similarity found for '" + term + "' and '" + others.get(i) + "'!");
+        }
+        similarities(id, ids, out);
+    }
+
+}
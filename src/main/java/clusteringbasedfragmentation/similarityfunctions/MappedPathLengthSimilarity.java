@@ -0,0 +1,349 @@
+package clusteringbasedfragmentation.similarityfunctions;
+
+import clusteringbasedfragmentation.SimilarityException;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * <p>
+ * This class implements a similarity function on a binary path length file that is memory-mapped via
+ * {@link FileChannel#map(FileChannel.MapMode, long, long)}. Opening the file only reads the term table, the
+ * path lengths are read from the mapped pages on demand. Thus, the startup is near-instant (compared to parsing
+ * the path length csv-Files) and the pages are shared by all JVMs on the same host. </p>
+ * <p>
+ * The binary format (big-endian) consists of:
+ * <ul>
+ * <li>Header: magic number {@link MappedPathLengthSimilarity#MAGIC} (int), format version (int), number of terms
+ * n (int), reserved (int), positions of the string offsets section, the term table and the matrix (3 longs)</li>
+ * <li>String offsets section: n + 1 ints, the UTF-8 bytes of term i are at [offset(i), offset(i + 1)) relative to
+ * the start of the term table</li>
+ * <li>Term table: UTF-8 bytes of all terms in lexicographical order (the index of a term is its id in the
+ * {@link TermDictionary})</li>
+ * <li>Matrix: packed triangular matrix of the path lengths as unsigned bytes (0 if unknown),
+ * see {@link TermDictionary#pairIndex(int, int)}</li>
+ * </ul>
+ * Such a file is created from a path length csv- or zip-File by {@link MappedPathLengthSimilarity#convert(String,
+ * String)} (see {@link MappedPathLengthSimilarity#main(String[])}). </p>
+ * <p>
+ * On serialization only the path to the file is written, i.e. the file has to be present under the same path on
+ * all nodes of the cluster. </p>
+ */
+public class MappedPathLengthSimilarity implements IndexedSimilarityFunction, Serializable {
+
+    private static final long serialVersionUID = -6244160920575958237L;
+
+    /**
+     * Magic number of the binary path length file ("MESH")
+     */
+    public static final int MAGIC = 0x4D455348;
+
+    /**
+     * Current version of the binary path length file format
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * Size of the header in bytes
+     */
+    private static final int HEADER_SIZE = 40;
+
+    /**
+     * Path to the binary path length file
+     */
+    private final String file;
+
+    /**
+     * Dictionary mapping the terms to ids (read from the term table)
+     */
+    private transient TermDictionary dictionary;
+
+    /**
+     * Mapped matrix of the path lengths
+     */
+    private transient MappedByteBuffer matrix;
+
+
+    /**
+     * Open and memory-map a binary path length file.
+     *
+     * @param file Path to the binary path length file
+     * @throws IOException Error on file read or invalid file
+     */
+    public MappedPathLengthSimilarity(String file) throws IOException {
+        this.file = file;
+        open();
+    }
+
+
+    /**
+     * Read the header and the term table and map the path length matrix of {@link MappedPathLengthSimilarity#file}.
+     *
+     * @throws IOException Error on file read or invalid file
+     */
+    private void open() throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(file), StandardOpenOption.READ)) {
+
+            // Header
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining())
+                if (channel.read(header) < 0)
+                    throw new IOException("File '" + file + "' is no binary path length file!");
+            header.flip();
+            if (header.getInt() != MAGIC)
+                throw new IOException("File '" + file + "' is no binary path length file!");
+            int version = header.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported version " + version + " of binary path length file '" + file
+                        + "' (supported: " + VERSION + ")!");
+            int numTerms = header.getInt();
+            header.getInt();
+            long offsetsPos = header.getLong();
+            long stringsPos = header.getLong();
+            long matrixPos = header.getLong();
+
+            // String offsets and term table
+            MappedByteBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, offsetsPos, 4L * (numTerms + 1));
+            MappedByteBuffer strings = channel.map(FileChannel.MapMode.READ_ONLY, stringsPos, matrixPos - stringsPos);
+            String[] terms = new String[numTerms];
+            for (int i = 0; i < numTerms; i++) {
+                int start = offsets.getInt(4 * i);
+                byte[] bytes = new byte[offsets.getInt(4 * (i + 1)) - start];
+                strings.position(start);
+                strings.get(bytes);
+                terms[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+            this.dictionary = new TermDictionary(Arrays.asList(terms));
+            if (dictionary.size() != numTerms || !Arrays.equals(terms, dictionary.asSet().toArray()))
+                throw new IOException("Term table of file '" + file + "' is not ordered lexicographically!");
+
+            // Path length matrix
+            long pairCount = TermDictionary.pairCount(numTerms);
+            if (matrixPos + pairCount > channel.size())
+                throw new IOException("Path length matrix of file '" + file + "' is truncated!");
+            this.matrix = channel.map(FileChannel.MapMode.READ_ONLY, matrixPos, pairCount);
+        }
+    }
+
+
+//################################ Writing & Conversion ###############################
+
+    /**
+     * Write the path lengths of a {@link PathLengthSimilarity} to a binary path length file.
+     *
+     * @param similarity Path length similarity function
+     * @param file       Path to the output file
+     * @throws IOException Error on file write
+     */
+    public static void write(PathLengthSimilarity similarity, String file) throws IOException {
+        TermDictionary dictionary = similarity.getDictionary();
+        int numTerms = dictionary.size();
+
+        // Encode the terms and calculate the string offsets
+        byte[][] encoded = new byte[numTerms][];
+        int[] offsets = new int[numTerms + 1];
+        for (int i = 0; i < numTerms; i++) {
+            encoded[i] = dictionary.term(i).getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+        long offsetsPos = HEADER_SIZE;
+        long stringsPos = offsetsPos + 4L * (numTerms + 1);
+        long matrixPos = stringsPos + offsets[numTerms];
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+
+            // Header
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(numTerms);
+            out.writeInt(0);
+            out.writeLong(offsetsPos);
+            out.writeLong(stringsPos);
+            out.writeLong(matrixPos);
+
+            // String offsets and term table
+            for (int offset : offsets)
+                out.writeInt(offset);
+            for (byte[] bytes : encoded)
+                out.write(bytes);
+
+            // Path length matrix (row-wise lower triangle, see TermDictionary#pairIndex)
+            byte[] row = new byte[numTerms];
+            for (int i = 1; i < numTerms; i++) {
+                for (int j = 0; j < i; j++)
+                    row[j] = (byte) similarity.getPathLength(i, j);
+                out.write(row, 0, i);
+            }
+        }
+    }
+
+    /**
+     * Convert a path length csv-File (or a zip-File containing it, e.g. csv/pathlengths500.zip) to a binary
+     * path length file.
+     *
+     * @param pathLengthFile Path length csv- or zip-File ("|"-separated, e.g. term1|term2|pathLength ...)
+     * @param file           Path to the output file
+     * @throws IOException Error on file read/write
+     */
+    public static void convert(String pathLengthFile, String file) throws IOException {
+        System.out.println("Converting path length file '" + pathLengthFile + "' ...");
+        PathLengthSimilarity similarity = new PathLengthSimilarity(pathLengthFile);
+        write(similarity, file);
+        System.out.println("Wrote " + similarity.getDictionary().pairCount() + " path lengths of "
+                + similarity.getDictionary().size() + " terms to binary file '" + file + "'!");
+    }
+
+
+//################################ Similarity Function ###############################
+
+    /**
+     * Get the path length of two distinct terms by their ids.
+     *
+     * @param id1 Id of a MeSH term
+     * @param id2 Id of a MeSH term
+     * @return Path length (0 if unknown)
+     */
+    public int getPathLength(int id1, int id2) {
+        return matrix.get(TermDictionary.pairIndex(id1, id2)) & 0xFF;
+    }
+
+    /**
+     * Calculate the similarity of two MeSH terms by their ids.
+     *
+     * @param id1 Id of a MeSH term
+     * @param id2 Id of a MeSH term
+     * @return Similarity value
+     * @throws SimilarityException Thrown if no path length is known for the two terms
+     */
+    @Override
+    public double similarity(int id1, int id2) throws SimilarityException {
+        if (id1 == id2)
+            return 1.0;
+        int pathLength = getPathLength(id1, id2);
+        if (pathLength == 0)
+            throw new SimilarityException("No similarity found for '" + dictionary.term(id1) + "' and '"
+                    + dictionary.term(id2) + "'!");
+        return PathLengthSimilarity.similarityOfPathLength(pathLength);
+    }
+
+    /**
+     * Calculate the similarities of a MeSH term to many other terms by their ids: the path lengths of the pairs
+     * with smaller ids are read from the row of the term in the packed matrix, the others from the rows of the
+     * other terms.
+     *
+     * @param id  Id of a MeSH term
+     * @param ids Ids of other MeSH terms
+     * @param out Array for the similarity of the term to each other term (at least ids.length entries)
+     * @throws SimilarityException Thrown if no path length is known for a pair of terms
+     */
+    @Override
+    public void similarities(int id, int[] ids, double[] out) throws SimilarityException {
+        int row = TermDictionary.rowOffset(id);
+        for (int i = 0; i < ids.length; i++) {
+            int other = ids[i];
+            if (other == id) {
+                out[i] = 1.0;
+                continue;
+            }
+            int pathLength = matrix.get(other < id ? row + other : TermDictionary.rowOffset(other) + id) & 0xFF;
+            if (pathLength == 0)
+                throw new SimilarityException("No similarity found for '" + dictionary.term(id) + "' and '"
+                        + dictionary.term(other) + "'!");
+            out[i] = PathLengthSimilarity.similarityOfPathLength(pathLength);
+        }
+    }
+
+    /**
+     * Calculate the similarity of two MeSH terms by lookup of their ids in the {@link TermDictionary}.
+     *
+     * @param term1 MeSH term
+     * @param term2 MeSH term
+     * @return Similarity value
+     * @throws SimilarityException Thrown if a term is unknown or no path length is known for the two terms
+     */
+    @Override
+    public double similarity(String term1, String term2) throws SimilarityException {
+        int id1 = dictionary.id(term1);
+        int id2 = dictionary.id(term2);
+        if (id1 < 0 || id2 < 0)
+            throw new SimilarityException("No similarity found for '" + term1 + "' and '" + term2 + "'!");
+        return similarity(id1, id2);
+    }
+
+    /**
+     * Get the dictionary that maps the terms to ids.
+     *
+     * @return Term dictionary
+     */
+    @Override
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Get all terms and their CUIs.
+     * Note that CUIs are not supported here, i.e. the map is always empty!
+     *
+     * @return HashMap with keys=terms, values=CUIs
+     */
+    @Override
+    public Map<String, String> getTermsWithCUIs() {
+        return new HashMap<>();
+    }
+
+    /**
+     * Get a set of all terms (in lexicographical order).
+     *
+     * @return Term set
+     */
+    @Override
+    public Set<String> getTerms() {
+        return dictionary.asSet();
+    }
+
+
+//####################################### Serialization #####################################
+
+    /**
+     * Deserialize the path to the file and map the file again.
+     *
+     * @param in Input stream
+     * @throws IOException            Error on reading
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        open();
+    }
+
+
+//####################################### Main ##############################################
+
+    /**
+     * Convert path length csv- or zip-Files to binary path length files.
+     *
+     * @param args Pairs of input and output files, e.g. csv/pathlengths500.zip csv/pathlengths500.bin
+     * @throws IOException Error on file read/write
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0 || args.length % 2 != 0) {
+            System.out.println("Usage: MappedPathLengthSimilarity <csv- or zip-File> <output file> ...");
+            return;
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            convert(args[i], args[i + 1]);
+
+            // Test opening of the binary file
+            long start = System.nanoTime();
+            MappedPathLengthSimilarity similarity = new MappedPathLengthSimilarity(args[i + 1]);
+            System.out.println("Opened binary file '" + args[i + 1] + "' with " + similarity.getTerms().size()
+                    + " terms in " + (System.nanoTime() - start) / 1000000000.0 + "s!");
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package clusteringbasedfragmentation.similarityfunctions;
+
+import clusteringbasedfragmentation.SimilarityException;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * <p>
+ * This class implements a similarity function that stores the pairwise similarities of all terms in a packed
+ * triangular {@code float[]} matrix indexed by the term ids of a {@link TermDictionary}. A lookup by ids is a
+ * single array access, a lookup by terms requires two dictionary lookups but no String concatenation. </p>
+ * <p>
+ * Compared to the {@link HashMap}s with "term1+term2" keys of e.g. {@link CSVSimilarityLoader}, the matrix
+ * only needs 4 bytes per term pair. </p>
+ */
+public class MatrixSimilarity implements IndexedSimilarityFunction, Serializable {
+
+    private static final long serialVersionUID = -1905390658553405116L;
+
+    /**
+     * Dictionary mapping the terms to ids
+     */
+    private final TermDictionary dictionary;
+
+    /**
+     * Packed triangular matrix of the pairwise similarities (NaN if unknown),
+     * see {@link TermDictionary#pairIndex(int, int)}
+     */
+    private final float[] similarities;
+
+    /**
+     * MeSH disease terms with their CUIs (empty if not known)
+     */
+    private final HashMap<String, String> termsWithCUIs;
+
+
+    /**
+     * Copy all pairwise similarities of the terms of the given similarity function into a matrix.
+     *
+     * @param similarityFunction Similarity function to copy
+     * @throws SimilarityException Error on similarity calculation
+     */
+    public MatrixSimilarity(MeSHSimilarityFunction similarityFunction) throws SimilarityException {
+
+        this.dictionary = new TermDictionary(similarityFunction.getTerms());
+        this.similarities = new float[dictionary.pairCount()];
+        for (int i = 1; i < dictionary.size(); i++) {
+            String term1 = dictionary.term(i);
+            for (int j = 0; j < i; j++)
+                similarities[TermDictionary.pairIndex(i, j)] =
+                        (float) similarityFunction.similarity(term1, dictionary.term(j));
+        }
+
+        Map<String, String> cuis = similarityFunction.getTermsWithCUIs();
+        this.termsWithCUIs = cuis == null ? new HashMap<>() : new HashMap<>(cuis);
+    }
+
+    /**
+     * Load similarities as path lengths from csv-File into a matrix. Note: CUIs are not supported here!
+     *
+     * @param pathLengthFile Path length csv-File ("|"-separated, e.g. term1|term2|pathLength ...)
+     * @throws IOException Error on file read/write
+     */
+    public MatrixSimilarity(String pathLengthFile) throws IOException {
+
+        // First pass: collect the terms
+        HashSet<String> terms = new HashSet<>();
+        String line;
+        try (BufferedReader reader = new BufferedReader(new FileReader(pathLengthFile))) {
+            while ((line = reader.readLine()) != null) {
+                int sep1 = line.indexOf('|');
+                int sep2 = line.indexOf('|', sep1 + 1);
+                if (sep1 < 0 || sep2 < 0)
+                    continue;
+                terms.add(line.substring(0, sep1));
+                terms.add(line.substring(sep1 + 1, sep2));
+            }
+        }
+        this.dictionary = new TermDictionary(terms);
+        this.similarities = new float[dictionary.pairCount()];
+        Arrays.fill(similarities, Float.NaN);
+
+        // Second pass: store the similarities
+        try (BufferedReader reader = new BufferedReader(new FileReader(pathLengthFile))) {
+            while ((line = reader.readLine()) != null) {
+                int sep1 = line.indexOf('|');
+                int sep2 = line.indexOf('|', sep1 + 1);
+                if (sep1 < 0 || sep2 < 0)
+                    continue;
+                int id1 = dictionary.id(line.substring(0, sep1));
+                int id2 = dictionary.id(line.substring(sep1 + 1, sep2));
+                if (id1 != id2)
+                    similarities[TermDictionary.pairIndex(id1, id2)] =
+                            (float) (1.0 / Double.parseDouble(line.substring(sep2 + 1)));
+            }
+        }
+
+        this.termsWithCUIs = new HashMap<>();
+    }
+
+
+    /**
+     * Calculate the similarity of two MeSH terms by their ids.
+     *
+     * @param id1 Id of a MeSH term
+     * @param id2 Id of a MeSH term
+     * @return Similarity value
+     * @throws SimilarityException Thrown if no similarity is known for the two terms
+     */
+    @Override
+    public double similarity(int id1, int id2) throws SimilarityException {
+        if (id1 == id2)
+            return 1.0;
+        float sim = similarities[TermDictionary.pairIndex(id1, id2)];
+        if (Float.isNaN(sim))
+            throw new SimilarityException("No similarity found for '" + dictionary.term(id1) + "' and '"
+                    + dictionary.term(id2) + "'!");
+        return sim;
+    }
+
+    /**
+     * Calculate the similarities of a MeSH term to many other terms by their ids: the pairs with smaller ids are
+     * read from the row of the term in the packed matrix, the others from the rows of the other terms.
+     *
+     * @param id  Id of a MeSH term
+     * @param ids Ids of other MeSH terms
+     * @param out Array for the similarity of the term to each other term (at least ids.length entries)
+     * @throws SimilarityException Thrown if no similarity is known for a pair of terms
+     */
+    @Override
+    public void similarities(int id, int[] ids, double[] out) throws SimilarityException {
+        int row = TermDictionary.rowOffset(id);
+        for (int i = 0; i < ids.length; i++) {
+            int other = ids[i];
+            if (other == id) {
+                out[i] = 1.0;
+                continue;
+            }
+            float sim = similarities[other < id ? row + other : TermDictionary.rowOffset(other) + id];
+            if (Float.isNaN(sim))
+                throw new SimilarityException("No similarity found for '" + dictionary.term(id) + "' and '"
+                        + dictionary.term(other) + "'!");
+            out[i] = sim;
+        }
+    }
+
+    /**
+     * Calculate the similarity of two MeSH terms by lookup of their ids in the {@link TermDictionary}.
+     *
+     * @param term1 MeSH term
+     * @param term2 MeSH term
+     * @return Similarity value
+     * @throws SimilarityException Thrown if a term is unknown or no similarity is known for the two terms
+     */
+    @Override
+    public double similarity(String term1, String term2) throws SimilarityException {
+        int id1 = dictionary.id(term1);
+        int id2 = dictionary.id(term2);
+        if (id1 < 0 || id2 < 0)
+            throw new SimilarityException("No similarity found for '" + term1 + "' and '" + term2 + "'!");
+        return similarity(id1, id2);
+    }
+
+    /**
+     * Get the dictionary that maps the terms to ids.
+     *
+     * @return Term dictionary
+     */
+    @Override
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Get all terms and their CUIs.
+     * Note that this may be empty as CUIs are not in every implementation supported!
+     *
+     * @return HashMap with keys=terms, values=CUIs
+     */
+    @Override
+    public Map<String, String> getTermsWithCUIs() {
+        return termsWithCUIs;
+    }
+
+    /**
+     * Get a set of all terms (in lexicographical order).
+     *
+     * @return Term set
+     */
+    @Override
+    public Set<String> getTerms() {
+        return dictionary.asSet();
+    }
+}
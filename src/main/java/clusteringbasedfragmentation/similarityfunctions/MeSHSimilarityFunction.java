@@ -1,5 +1,8 @@
 package clusteringbasedfragmentation.similarityfunctions;
 
+import clusteringbasedfragmentation.SimilarityException;
+
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -22,4 +25,53 @@ public interface MeSHSimilarityFunction extends SimilarityFunction<String> {
      */
     Set<String> getTerms();
 
+    /**
+     * Calculate the similarities of a MeSH term to many other terms (e.g. to all cluster heads, or of many terms
+     * to one head). Implementations resolve all similarities at once where possible, by default the similarities
+     * are calculated one by one.
+     *
+     * @param term   MeSH term
+     * @param others Other MeSH terms
+     * @param out    Array for the similarity of the term to each other term (at least others.size() entries)
+     * @throws SimilarityException Thrown if a similarity cannot be calculated
+     */
+    default void similarities(String term, List<String> others, double[] out) throws SimilarityException {
+        for (int i = 0; i < others.size(); i++)
+            out[i] = similarity(term, others.get(i));
+    }
+
+    /**
+     * Find the most similar of many terms to a MeSH term (e.g. the most similar cluster head) by
+     * {@link MeSHSimilarityFunction#similarities(String, List, double[])}.
+     *
+     * @param term       MeSH term
+     * @param candidates Candidate terms
+     * @return Index of the most similar candidate (the first one on ties) or -1 if there is no candidate with a
+     * non-negative similarity
+     * @throws SimilarityException Thrown if a similarity cannot be calculated
+     */
+    default int mostSimilar(String term, List<String> candidates) throws SimilarityException {
+        double[] sims = new double[candidates.size()];
+        similarities(term, candidates, sims);
+        return argMax(sims);
+    }
+
+    /**
+     * Get the index of the maximal similarity.
+     *
+     * @param sims Similarities
+     * @return Index of the maximal similarity (the first one on ties) or -1 if there is no non-negative similarity
+     */
+    static int argMax(double[] sims) {
+        double max = -1;
+        int argMax = -1;
+        for (int i = 0; i < sims.length; i++) {
+            if (max < sims[i]) {
+                max = sims[i];
+                argMax = i;
+            }
+        }
+        return argMax;
+    }
+
 }
@@ -0,0 +1,262 @@
+package clusteringbasedfragmentation.similarityfunctions;
+
+import clusteringbasedfragmentation.SimilarityException;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * <p>
+ * This class implements a similarity function for similarities that are derived from shortest path lengths in
+ * the MeSH graph (similarity = 1.0 / pathLength, see {@link neo4j.PathLengthCSV}). Instead of the similarities, the
+ * raw path lengths are stored as one unsigned byte per term pair in a packed triangular matrix indexed by the term
+ * ids of a {@link TermDictionary}. The similarity is derived on read. </p>
+ * <p>
+ * Path lengths in the MeSH graph are small integers, so one byte (1, ..., 255, 0 = unknown) suffices. Compared to
+ * the {@link HashMap} of {@link CSVSimilarityLoader}, which stores boxed {@link Double}s under String keys, the
+ * matrix needs only one byte per term pair, i.e. the full MeSH disease term set fits in some tens of MB. </p>
+ */
+public class PathLengthSimilarity implements IndexedSimilarityFunction, Serializable {
+
+    private static final long serialVersionUID = 4452795326283187522L;
+
+    /**
+     * Maximal path length that can be stored
+     */
+    public static final int MAX_PATH_LENGTH = 255;
+
+    /**
+     * Similarity for each path length (1.0 / pathLength, NaN for 0 = unknown)
+     */
+    private static final double[] SIMILARITY_OF_PATH_LENGTH = new double[MAX_PATH_LENGTH + 1];
+
+    static {
+        SIMILARITY_OF_PATH_LENGTH[0] = Double.NaN;
+        for (int length = 1; length <= MAX_PATH_LENGTH; length++)
+            SIMILARITY_OF_PATH_LENGTH[length] = 1.0 / length;
+    }
+
+    /**
+     * Dictionary mapping the terms to ids
+     */
+    private final TermDictionary dictionary;
+
+    /**
+     * Packed triangular matrix of the pairwise path lengths as unsigned bytes (0 if unknown),
+     * see {@link TermDictionary#pairIndex(int, int)}
+     */
+    private final byte[] pathLengths;
+
+
+    /**
+     * Load path lengths from csv-File into a matrix. Note: CUIs are not supported here!
+     *
+     * @param pathLengthFile Path length csv-File ("|"-separated, e.g. term1|term2|pathLength ...), may also be
+     *                       a zip-File that contains the csv-File as first entry (e.g. csv/pathlengths500.zip)
+     * @throws IOException Error on file read/write or path length out of range
+     */
+    public PathLengthSimilarity(String pathLengthFile) throws IOException {
+
+        // First pass: collect the terms
+        HashSet<String> terms = new HashSet<>();
+        String line;
+        try (BufferedReader reader = openReader(pathLengthFile)) {
+            while ((line = reader.readLine()) != null) {
+                int sep1 = line.indexOf('|');
+                int sep2 = line.indexOf('|', sep1 + 1);
+                if (sep1 < 0 || sep2 < 0)
+                    continue;
+                terms.add(line.substring(0, sep1));
+                terms.add(line.substring(sep1 + 1, sep2));
+            }
+        }
+        this.dictionary = new TermDictionary(terms);
+        this.pathLengths = new byte[dictionary.pairCount()];
+
+        // Second pass: store the path lengths
+        try (BufferedReader reader = openReader(pathLengthFile)) {
+            while ((line = reader.readLine()) != null) {
+                int sep1 = line.indexOf('|');
+                int sep2 = line.indexOf('|', sep1 + 1);
+                if (sep1 < 0 || sep2 < 0)
+                    continue;
+                int id1 = dictionary.id(line.substring(0, sep1));
+                int id2 = dictionary.id(line.substring(sep1 + 1, sep2));
+                if (id1 != id2)
+                    setPathLength(id1, id2, Integer.parseInt(line.substring(sep2 + 1).trim()));
+            }
+        }
+    }
+
+    /**
+     * Construct the similarity function from already known path lengths.
+     *
+     * @param dictionary  Dictionary mapping the terms to ids
+     * @param pathLengths Packed triangular matrix of the path lengths as unsigned bytes (0 if unknown)
+     */
+    public PathLengthSimilarity(TermDictionary dictionary, byte[] pathLengths) {
+        if (pathLengths.length != dictionary.pairCount())
+            throw new IllegalArgumentException("Expected " + dictionary.pairCount() + " path lengths, but got "
+                    + pathLengths.length + "!");
+        this.dictionary = dictionary;
+        this.pathLengths = pathLengths;
+    }
+
+
+    /**
+     * Open a path length csv-File for reading. If the file is a zip-File, the reader reads its first entry.
+     *
+     * @param pathLengthFile Path length csv- or zip-File
+     * @return Reader
+     * @throws IOException Error on file read or empty zip-File
+     */
+    static BufferedReader openReader(String pathLengthFile) throws IOException {
+        if (!pathLengthFile.endsWith(".zip"))
+            return new BufferedReader(new FileReader(pathLengthFile));
+
+        ZipInputStream zip = new ZipInputStream(new FileInputStream(pathLengthFile));
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null && entry.isDirectory())
+            ;
+        if (entry == null) {
+            zip.close();
+            throw new IOException("No csv-File found in zip-File '" + pathLengthFile + "'!");
+        }
+        return new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+    }
+
+
+    /**
+     * Get the similarity for a path length.
+     *
+     * @param pathLength Path length (0, ..., {@link PathLengthSimilarity#MAX_PATH_LENGTH})
+     * @return 1.0 / pathLength, NaN if pathLength is 0 (unknown)
+     */
+    public static double similarityOfPathLength(int pathLength) {
+        return SIMILARITY_OF_PATH_LENGTH[pathLength];
+    }
+
+    /**
+     * Get the path length of two distinct terms by their ids.
+     *
+     * @param id1 Id of a MeSH term
+     * @param id2 Id of a MeSH term
+     * @return Path length (0 if unknown)
+     */
+    public int getPathLength(int id1, int id2) {
+        return pathLengths[TermDictionary.pairIndex(id1, id2)] & 0xFF;
+    }
+
+    /**
+     * Store the path length of two distinct terms.
+     *
+     * @param id1        Id of a MeSH term
+     * @param id2        Id of a MeSH term
+     * @param pathLength Path length (1, ..., {@link PathLengthSimilarity#MAX_PATH_LENGTH})
+     * @throws IOException Path length out of range
+     */
+    private void setPathLength(int id1, int id2, int pathLength) throws IOException {
+        if (pathLength < 1 || pathLength > MAX_PATH_LENGTH)
+            throw new IOException("Path length " + pathLength + " of '" + dictionary.term(id1) + "' and '"
+                    + dictionary.term(id2) + "' is out of range (1-" + MAX_PATH_LENGTH + ")!");
+        pathLengths[TermDictionary.pairIndex(id1, id2)] = (byte) pathLength;
+    }
+
+
+    /**
+     * Calculate the similarity of two MeSH terms by their ids.
+     *
+     * @param id1 Id of a MeSH term
+     * @param id2 Id of a MeSH term
+     * @return Similarity value
+     * @throws SimilarityException Thrown if no path length is known for the two terms
+     */
+    @Override
+    public double similarity(int id1, int id2) throws SimilarityException {
+        if (id1 == id2)
+            return 1.0;
+        int pathLength = pathLengths[TermDictionary.pairIndex(id1, id2)] & 0xFF;
+        if (pathLength == 0)
+            throw new SimilarityException("No similarity found for '" + dictionary.term(id1) + "' and '"
+                    + dictionary.term(id2) + "'!");
+        return SIMILARITY_OF_PATH_LENGTH[pathLength];
+    }
+
+    /**
+     * Calculate the similarities of a MeSH term to many other terms by their ids: the path lengths of the pairs
+     * with smaller ids are read from the row of the term in the packed matrix, the others from the rows of the
+     * other terms.
+     *
+     * @param id  Id of a MeSH term
+     * @param ids Ids of other MeSH terms
+     * @param out Array for the similarity of the term to each other term (at least ids.length entries)
+     * @throws SimilarityException Thrown if no path length is known for a pair of terms
+     */
+    @Override
+    public void similarities(int id, int[] ids, double[] out) throws SimilarityException {
+        int row = TermDictionary.rowOffset(id);
+        for (int i = 0; i < ids.length; i++) {
+            int other = ids[i];
+            if (other == id) {
+                out[i] = 1.0;
+                continue;
+            }
+            int pathLength = pathLengths[other < id ? row + other : TermDictionary.rowOffset(other) + id] & 0xFF;
+            if (pathLength == 0)
+                throw new SimilarityException("No similarity found for '" + dictionary.term(id) + "' and '"
+                        + dictionary.term(other) + "'!");
+            out[i] = SIMILARITY_OF_PATH_LENGTH[pathLength];
+        }
+    }
+
+    /**
+     * Calculate the similarity of two MeSH terms by lookup of their ids in the {@link TermDictionary}.
+     *
+     * @param term1 MeSH term
+     * @param term2 MeSH term
+     * @return Similarity value
+     * @throws SimilarityException Thrown if a term is unknown or no path length is known for the two terms
+     */
+    @Override
+    public double similarity(String term1, String term2) throws SimilarityException {
+        int id1 = dictionary.id(term1);
+        int id2 = dictionary.id(term2);
+        if (id1 < 0 || id2 < 0)
+            throw new SimilarityException("No similarity found for '" + term1 + "' and '" + term2 + "'!");
+        return similarity(id1, id2);
+    }
+
+    /**
+     * Get the dictionary that maps the terms to ids.
+     *
+     * @return Term dictionary
+     */
+    @Override
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Get all terms and their CUIs.
+     * Note that CUIs are not supported here, i.e. the map is always empty!
+     *
+     * @return HashMap with keys=terms, values=CUIs
+     */
+    @Override
+    public Map<String, String> getTermsWithCUIs() {
+        return new HashMap<>();
+    }
+
+    /**
+     * Get a set of all terms (in lexicographical order).
+     *
+     * @return Term set
+     */
+    @Override
+    public Set<String> getTerms() {
+        return dictionary.asSet();
+    }
+}
@@ -4,19 +4,22 @@ import clusteringbasedfragmentation.Similarity;
 import clusteringbasedfragmentation.SimilarityException;
 import org.apache.ignite.IgniteCache;
 import org.apache.ignite.Ignition;
+import utils.ConcurrentLRUCache;
 import utils.IgniteUtils;
 
 import java.io.Serializable;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 /**
  * This class provides the implementation of the pairwise MeSH similarities as
  * database table (cache) in the Apache Ignite cluster. The similarities are stored
  * as key-value pairs where the key is the concatenation of the two terms and the
  * value is the similarity value  between these two MeSH terms.
+ * <p>
+ * The similarities obtained from the cache are kept in a local, size-bounded near-cache (see
+ * {@link SimTableSimilarity#setNearCacheSize(int)}), so repeated lookups of the same pairs (e.g. of the cluster
+ * heads) do not access the cache again. Many pairs can be resolved by a single {@link IgniteCache#getAll(Set)}
+ * (see {@link SimTableSimilarity#similarities(String[], String[], double[])}). </p>
  */
 public class SimTableSimilarity implements MeSHSimilarityFunction, Serializable {
 
@@ -44,6 +47,21 @@ public class SimTableSimilarity implements MeSHSimilarityFunction, Serializable
      */
     protected transient IgniteCache<String, Similarity> simCache;
 
+    /**
+     * Default maximal number of similarities in the near-cache.
+     */
+    private static final int DFLT_NEAR_CACHE_SIZE = 100000;
+
+    /**
+     * Maximal number of similarities in the near-cache (0 = no near-cache)
+     */
+    private int nearCacheSize = DFLT_NEAR_CACHE_SIZE;
+
+    /**
+     * Local near-cache of the similarities obtained from the similarity cache (created lazily)
+     */
+    private transient volatile ConcurrentLRUCache<TermPair, Double> nearCache;
+
 // ####################################### Constructors ######################################
 
 
@@ -197,38 +215,188 @@ public class SimTableSimilarity implements MeSHSimilarityFunction, Serializable
         return this;
     }
 
+    /**
+     * Get the maximal number of similarities in the near-cache.
+     *
+     * @return Near-cache size (0 = no near-cache)
+     */
+    public int getNearCacheSize() {
+        return nearCacheSize;
+    }
+
+    /**
+     * Set the maximal number of similarities in the near-cache (discards the cached similarities).
+     *
+     * @param nearCacheSize Near-cache size (0 = no near-cache, default: 100000)
+     * @return {@code This} for chaining
+     */
+    public SimTableSimilarity setNearCacheSize(int nearCacheSize) {
+        if (nearCacheSize < 0)
+            throw new IllegalArgumentException("The near-cache size must not be negative: " + nearCacheSize);
+        this.nearCacheSize = nearCacheSize;
+        this.nearCache = null;
+        return this;
+    }
+
+    /**
+     * Get the near-cache (e.g. for its hit/miss statistics).
+     *
+     * @return Near-cache or null if it is disabled or has not been used yet
+     */
+    public ConcurrentLRUCache<TermPair, Double> getNearCache() {
+        return nearCache;
+    }
+
+    /**
+     * Get the ratio of the similarity lookups that were answered by the near-cache.
+     *
+     * @return Hit rate (0 if the near-cache is disabled or has not been used yet)
+     */
+    public double getNearCacheHitRate() {
+        ConcurrentLRUCache<TermPair, Double> cache = this.nearCache;
+        return cache != null ? cache.getHitRate() : 0.0;
+    }
+
 
 // ################################### Overwritten Methods ###################################
 
     /**
-     * Calculate the similarity of two MeSH terms by querying the SimTable.
+     * Calculate the similarity of two MeSH terms by querying the SimTable (if the similarity is not in the
+     * near-cache).
      *
      * @param term1 MeSH term
      * @param term2 MeSH term
      * @return Similarity value
+     * @throws SimilarityException Thrown if the SimTable contains no similarity for the terms
      */
     @Override
     public double similarity(String term1, String term2) throws SimilarityException {
-
-        // Check if simCache instance already available
-        if (simCache == null & isLocal)
-            simCache = Ignition.ignite().cache(this.simCacheName);
-        else if (simCache == null & !isLocal)
-            simCache = Ignition.getOrStart(IgniteUtils.createIgniteConfig(
-                    Arrays.asList("141.5.107.8", "141.5.107.75", "141.5.107.76"), true)     // TODO addresses
-            ).cache(simCacheName);
-
-        // Combine the two terms to the key (lexicographically ordered, concatenated with a '+')
-        String key;
-        int compValue = term1.compareTo(term2);
-        if (compValue == 0)
+        if (term1.equals(term2))
             return 1;
-        else if (compValue < 0)
-            key = term1 + "+" + term2;
-        else
-            key = term2 + "+" + term1;
 
-        return simCache.get(key).getSimvalue();
+        TermPair pair = new TermPair(term1, term2);
+        ConcurrentLRUCache<TermPair, Double> cache = nearCache();
+        if (cache != null) {
+            Double cached = cache.get(pair);
+            if (cached != null)
+                return cached;
+        }
+
+        Similarity similarity = simCache().get(pair.key());
+        if (similarity == null)
+            throw new SimilarityException("No similarity of '" + term1 + "' and '" + term2 + "' in cache "
+                    + simCacheName + "!");
+        if (cache != null)
+            cache.put(pair, similarity.getSimvalue());
+        return similarity.getSimvalue();
+    }
+
+    /**
+     * Calculate the similarities of many pairs of MeSH terms: the pairs that are not in the near-cache are
+     * resolved by a single {@link IgniteCache#getAll(Set)} on the SimTable.
+     *
+     * @param terms1 First terms of the pairs
+     * @param terms2 Second terms of the pairs (same length as terms1)
+     * @param out    Array for the similarity of each pair (same length as terms1)
+     * @throws SimilarityException Thrown if the SimTable contains no similarity for a pair
+     */
+    public void similarities(String[] terms1, String[] terms2, double[] out) throws SimilarityException {
+        if (terms1.length != terms2.length || out.length != terms1.length)
+            throw new IllegalArgumentException("The terms and the output must have the same length: "
+                    + terms1.length + ", " + terms2.length + ", " + out.length);
+
+        // Answer identical terms and near-cache hits, collect the keys of the other pairs
+        ConcurrentLRUCache<TermPair, Double> cache = nearCache();
+        TermPair[] missing = new TermPair[terms1.length];
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < terms1.length; i++) {
+            if (terms1[i].equals(terms2[i])) {
+                out[i] = 1;
+                continue;
+            }
+            TermPair pair = new TermPair(terms1[i], terms2[i]);
+            Double cached = cache != null ? cache.get(pair) : null;
+            if (cached != null) {
+                out[i] = cached;
+            } else {
+                missing[i] = pair;
+                keys.add(pair.key());
+            }
+        }
+        if (keys.isEmpty())
+            return;
+
+        // Resolve all missing pairs at once
+        Map<String, Similarity> similarities = simCache().getAll(keys);
+        for (int i = 0; i < missing.length; i++) {
+            if (missing[i] == null)
+                continue;
+            Similarity similarity = similarities.get(missing[i].key());
+            if (similarity == null)
+                throw new SimilarityException("No similarity of '" + terms1[i] + "' and '" + terms2[i]
+                        + "' in cache " + simCacheName + "!");
+            out[i] = similarity.getSimvalue();
+            if (cache != null)
+                cache.put(missing[i], out[i]);
+        }
+    }
+
+    /**
+     * Calculate the similarities of a MeSH term to many other terms with a single {@link IgniteCache#getAll(Set)}
+     * for the pairs that are not in the near-cache
+     * (see {@link SimTableSimilarity#similarities(String[], String[], double[])}).
+     *
+     * @param term   MeSH term
+     * @param others Other MeSH terms
+     * @param out    Array for the similarity of the term to each other term (at least others.size() entries)
+     * @throws SimilarityException Thrown if the SimTable contains no similarity for a pair
+     */
+    @Override
+    public void similarities(String term, List<String> others, double[] out) throws SimilarityException {
+        String[] terms1 = new String[others.size()];
+        Arrays.fill(terms1, term);
+        double[] sims = out.length == terms1.length ? out : new double[terms1.length];
+        similarities(terms1, others.toArray(new String[0]), sims);
+        if (sims != out)
+            System.arraycopy(sims, 0, out, 0, sims.length);
+    }
+
+    /**
+     * Get the similarity cache instance, obtain it locally or remotely if it is not available yet.
+     *
+     * @return Similarity cache
+     */
+    private IgniteCache<String, Similarity> simCache() {
+        IgniteCache<String, Similarity> cache = this.simCache;
+        if (cache == null) {
+            if (isLocal)
+                cache = Ignition.ignite().cache(this.simCacheName);
+            else
+                cache = Ignition.getOrStart(IgniteUtils.createIgniteConfig(
+                        Arrays.asList("141.5.107.8", "141.5.107.75", "141.5.107.76"), true)     // TODO addresses
+                ).cache(simCacheName);
+            this.simCache = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * Get the near-cache, create it if it is enabled and not available yet (e.g. after deserialization).
+     *
+     * @return Near-cache or null if it is disabled
+     */
+    private ConcurrentLRUCache<TermPair, Double> nearCache() {
+        ConcurrentLRUCache<TermPair, Double> cache = this.nearCache;
+        if (cache == null && nearCacheSize > 0) {
+            synchronized (this) {
+                cache = this.nearCache;
+                if (cache == null) {
+                    cache = new ConcurrentLRUCache<>(nearCacheSize);
+                    this.nearCache = cache;
+                }
+            }
+        }
+        return cache;
     }
 
     /**
@@ -267,4 +435,61 @@ public class SimTableSimilarity implements MeSHSimilarityFunction, Serializable
     }
 
 
+    /**
+     * Unordered pair of terms as key of the near-cache (avoids building the key of the SimTable for lookups
+     * in the near-cache).
+     */
+    public static final class TermPair {
+
+        /**
+         * Lexicographically smaller term
+         */
+        private final String term1;
+
+        /**
+         * Lexicographically larger term
+         */
+        private final String term2;
+
+        private TermPair(String term1, String term2) {
+            if (term1.compareTo(term2) <= 0) {
+                this.term1 = term1;
+                this.term2 = term2;
+            } else {
+                this.term1 = term2;
+                this.term2 = term1;
+            }
+        }
+
+        /**
+         * Get the key of the pair in the SimTable (lexicographically ordered terms, concatenated with a '+')
+         *
+         * @return Key
+         */
+        private String key() {
+            return term1 + "+" + term2;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * term1.hashCode() + term2.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof TermPair))
+                return false;
+            TermPair other = (TermPair) obj;
+            return term1.equals(other.term1) && term2.equals(other.term2);
+        }
+
+        @Override
+        public String toString() {
+            return term1 + "+" + term2;
+        }
+    }
+
+
 }
@@ -0,0 +1,175 @@
+package clusteringbasedfragmentation.similarityfunctions;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * <p>
+ * This class maps each MeSH term of a term set to a dense integer id (0, ..., size - 1). The ids follow the
+ * lexicographical order of the terms, i.e. the same order as a {@link TreeSet} of the terms. </p>
+ * <p>
+ * It also defines the layout of packed triangular matrices that store one value per unordered pair of
+ * distinct term ids (see {@link TermDictionary#pairIndex(int, int)}), as used by {@link MatrixSimilarity}.
+ * </p>
+ */
+public class TermDictionary implements Serializable {
+
+    private static final long serialVersionUID = -3409186001947325178L;
+
+    /**
+     * Terms ordered lexicographically, the index of a term is its id
+     */
+    private final String[] terms;
+
+    /**
+     * Maps each term to its id (rebuilt after deserialization)
+     */
+    private transient HashMap<String, Integer> ids;
+
+
+    /**
+     * Construct a dictionary for the given terms (duplicates are ignored).
+     *
+     * @param terms Collection of MeSH terms
+     */
+    public TermDictionary(Collection<String> terms) {
+        this.terms = new TreeSet<>(terms).toArray(new String[0]);
+        initIds();
+    }
+
+
+    /**
+     * Get the id of a term.
+     *
+     * @param term MeSH term
+     * @return Id of the term or -1 if the term is not contained in the dictionary
+     */
+    public int id(String term) {
+        Integer id = ids.get(term);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Get the term with the given id.
+     *
+     * @param id Term id
+     * @return MeSH term
+     */
+    public String term(int id) {
+        return terms[id];
+    }
+
+    /**
+     * Number of terms in the dictionary.
+     *
+     * @return Number of terms
+     */
+    public int size() {
+        return terms.length;
+    }
+
+    /**
+     * Get a (read-only) set view of all terms in lexicographical order.
+     *
+     * @return Term set
+     */
+    public Set<String> asSet() {
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                return Arrays.asList(terms).iterator();
+            }
+
+            @Override
+            public int size() {
+                return terms.length;
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof String && ids.containsKey(o);
+            }
+        };
+    }
+
+
+//################################ Packed triangular matrices ###############################
+
+    /**
+     * Get the number of unordered pairs of distinct term ids, i.e. the length of a packed triangular matrix
+     * for this dictionary.
+     *
+     * @return Number of pairs
+     */
+    public int pairCount() {
+        return pairCount(terms.length);
+    }
+
+    /**
+     * Get the number of unordered pairs of distinct ids for n terms.
+     *
+     * @param n Number of terms
+     * @return Number of pairs
+     */
+    public static int pairCount(int n) {
+        long count = (long) n * (n - 1) / 2;
+        if (count > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Too many terms for a packed triangular matrix: " + n);
+        return (int) count;
+    }
+
+    /**
+     * Get the index of the unordered pair of two distinct term ids in a packed triangular matrix
+     * (row-wise lower triangle without diagonal).
+     *
+     * @param id1 Term id
+     * @param id2 Term id (must differ from id1)
+     * @return Index of the pair
+     */
+    public static int pairIndex(int id1, int id2) {
+        if (id1 < id2) {
+            int tmp = id1;
+            id1 = id2;
+            id2 = tmp;
+        }
+        return rowOffset(id1) + id2;
+    }
+
+    /**
+     * Get the index of the first pair of a term id in a packed triangular matrix: the pairs of the id with all
+     * smaller ids are stored consecutively from this index on (see {@link TermDictionary#pairIndex(int, int)}).
+     *
+     * @param id Term id
+     * @return Index of the pair (id, 0)
+     */
+    public static int rowOffset(int id) {
+        return (int) ((long) id * (id - 1) / 2);
+    }
+
+
+//####################################### Serialization #####################################
+
+    /**
+     * Build the term to id map.
+     */
+    private void initIds() {
+        this.ids = new HashMap<>(terms.length * 4 / 3 + 1);
+        for (int i = 0; i < terms.length; i++)
+            ids.put(terms[i], i);
+    }
+
+    /**
+     * Deserialize the term array and rebuild the term to id map.
+     *
+     * @param in Input stream
+     * @throws IOException            Error on reading
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        initIds();
+    }
+
+}
@@ -0,0 +1,400 @@
+package clusteringbasedfragmentation.similarityfunctions;
+
+import clusteringbasedfragmentation.SimilarityException;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * <p>
+ * This class implements a similarity function for similarities that are derived from the tree numbers of the MeSH
+ * descriptors (e.g. C08.127.446) instead of precomputed path lengths. The broader descriptor of a tree number is
+ * the descriptor of its prefix without the last segment, so the path length of two tree numbers in the MeSH tree
+ * is the sum of their distances to their lowest common ancestor, i.e. to their longest common prefix. The path
+ * length of two terms is the minimum over the pairs of their tree numbers, the similarity is 1.0 / pathLength
+ * (as for the {@link PathLengthSimilarity}). The top level tree numbers of a category (e.g. C01, ..., C26 of the
+ * category C) are connected by a node of their category, i.e. two top level tree numbers have the distance 2.
+ * Terms without tree numbers in a common category (e.g. C and F) have the similarity 0. </p>
+ * <p>
+ * Only the tree numbers are stored, as nodes of a trie (parent and depth of each node). A similarity is
+ * calculated on demand by walking up from both tree numbers to their lowest common ancestor, which takes
+ * O(depth) steps per pair of tree numbers. The memory is linear in the number of tree numbers instead of
+ * quadratic in the number of terms, so the full MeSH term set needs neither a path length matrix nor a SimTable.
+ * </p>
+ * <p>
+ * Note: The tree distance is an approximation of the shortest path length in the broaderDescriptor graph. A
+ * category is no descriptor, the graph connects the trees of a category only through descriptors with tree
+ * numbers in several trees, so the path length of terms in different trees may be longer or shorter than their
+ * tree distance. Within a tree, paths through such descriptors may be shorter than the tree distance. </p>
+ */
+public class TreeNumberSimilarity implements IndexedSimilarityFunction, Serializable {
+
+    private static final long serialVersionUID = -2311496873520741853L;
+
+    /**
+     * Pattern of a tree number (category letter, two digits and segments of three digits, e.g. C08.127.446)
+     */
+    private static final Pattern TREE_NUMBER = Pattern.compile("[A-Z][0-9]{2}(\\.[0-9]{3})*");
+
+    /**
+     * Dictionary mapping the terms to ids
+     */
+    private final TermDictionary dictionary;
+
+    /**
+     * Index of the first tree number of each term in {@link TreeNumberSimilarity#treeNumbers} (with the number of
+     * tree numbers as last entry)
+     */
+    private final int[] firstTreeNumber;
+
+    /**
+     * Trie node of each tree number of each term
+     */
+    private final int[] treeNumbers;
+
+    /**
+     * Parent of each trie node (-1 for the category nodes)
+     */
+    private final int[] parent;
+
+    /**
+     * Depth of each trie node (number of segments, 0 for the category nodes)
+     */
+    private final byte[] depth;
+
+
+    /**
+     * Load the tree numbers of the terms from file. Supported are the MeSH tree file (term;treeNumber per line,
+     * e.g. mtrees2019.bin) and csv-Files with treeNumber,term or treeNumber|term per line (e.g. the
+     * ctree2019MeSH.csv of cypher/createnodes.cypher, terms may be enclosed in double quotes). Lines without a
+     * valid tree number (e.g. a header) are skipped.
+     *
+     * @param treeNumberFile Path to the tree number file, may also be a zip-File that contains it as first entry
+     * @throws IOException Error on file read
+     */
+    public TreeNumberSimilarity(String treeNumberFile) throws IOException {
+        this(readTreeNumbers(treeNumberFile));
+    }
+
+    /**
+     * Construct the similarity function from the tree numbers of the terms.
+     *
+     * @param treeNumbersOfTerms Tree numbers of each term (terms without tree numbers are ignored)
+     */
+    public TreeNumberSimilarity(Map<String, ? extends Collection<String>> treeNumbersOfTerms) {
+        ArrayList<String> terms = new ArrayList<>();
+        for (Map.Entry<String, ? extends Collection<String>> entry : treeNumbersOfTerms.entrySet())
+            if (!entry.getValue().isEmpty())
+                terms.add(entry.getKey());
+        this.dictionary = new TermDictionary(terms);
+
+        // Build the trie: one node per distinct tree number prefix, the categories (e.g. C) are the roots
+        HashMap<String, Integer> nodes = new HashMap<>();
+        ArrayList<Integer> parents = new ArrayList<>();
+        ArrayList<Integer> depths = new ArrayList<>();
+
+        this.firstTreeNumber = new int[dictionary.size() + 1];
+        ArrayList<Integer> treeNumberNodes = new ArrayList<>();
+        for (int id = 0; id < dictionary.size(); id++) {
+            firstTreeNumber[id] = treeNumberNodes.size();
+            for (String treeNumber : new TreeSet<>(treeNumbersOfTerms.get(dictionary.term(id)))) {
+                if (!TREE_NUMBER.matcher(treeNumber).matches())
+                    throw new IllegalArgumentException("Invalid tree number '" + treeNumber + "' of '"
+                            + dictionary.term(id) + "'!");
+                treeNumberNodes.add(node(treeNumber, nodes, parents, depths));
+            }
+        }
+        firstTreeNumber[dictionary.size()] = treeNumberNodes.size();
+
+        this.treeNumbers = treeNumberNodes.stream().mapToInt(Integer::intValue).toArray();
+        this.parent = parents.stream().mapToInt(Integer::intValue).toArray();
+        this.depth = new byte[depths.size()];
+        for (int i = 0; i < depth.length; i++)
+            depth[i] = (byte) (int) depths.get(i);
+    }
+
+
+    /**
+     * Get the trie node of a tree number, add it (and its missing prefixes) if it is not contained yet. The parent of
+     * a top level tree number is the node of its category (its first letter).
+     *
+     * @param treeNumber Tree number or category
+     * @param nodes      Node of each tree number and category
+     * @param parents    Parent of each node
+     * @param depths     Depth of each node
+     * @return Node
+     */
+    private static int node(String treeNumber, HashMap<String, Integer> nodes, ArrayList<Integer> parents,
+                            ArrayList<Integer> depths) {
+        Integer node = nodes.get(treeNumber);
+        if (node != null)
+            return node;
+        int dot = treeNumber.lastIndexOf('.');
+        int parentNode;
+        if (treeNumber.length() == 1)
+            parentNode = -1;
+        else if (dot < 0)
+            parentNode = node(treeNumber.substring(0, 1), nodes, parents, depths);
+        else
+            parentNode = node(treeNumber.substring(0, dot), nodes, parents, depths);
+        node = parents.size();
+        parents.add(parentNode);
+        depths.add(parentNode < 0 ? 0 : depths.get(parentNode) + 1);
+        nodes.put(treeNumber, node);
+        return node;
+    }
+
+    /**
+     * Read the tree numbers of the terms from a tree number file
+     * (see {@link TreeNumberSimilarity#TreeNumberSimilarity(String)}).
+     *
+     * @param treeNumberFile Path to the tree number file (or a zip-File containing it)
+     * @return Tree numbers of each term
+     * @throws IOException Error on file read
+     */
+    public static Map<String, List<String>> readTreeNumbers(String treeNumberFile) throws IOException {
+        HashMap<String, List<String>> treeNumbersOfTerms = new HashMap<>();
+        String line;
+        try (BufferedReader reader = PathLengthSimilarity.openReader(treeNumberFile)) {
+            while ((line = reader.readLine()) != null) {
+                String term;
+                String treeNumber;
+                int sep = line.lastIndexOf(';');
+                if (sep >= 0 && TREE_NUMBER.matcher(line.substring(sep + 1).trim()).matches()) {
+                    // MeSH tree file: term;treeNumber
+                    term = line.substring(0, sep);
+                    treeNumber = line.substring(sep + 1).trim();
+                } else {
+                    // csv-File: treeNumber,term or treeNumber|term
+                    sep = line.indexOf('|') >= 0 ? line.indexOf('|') : line.indexOf(',');
+                    if (sep < 0)
+                        continue;
+                    treeNumber = unquote(line.substring(0, sep).trim());
+                    term = unquote(line.substring(sep + 1).trim());
+                }
+                if (!TREE_NUMBER.matcher(treeNumber).matches() || term.isEmpty())
+                    continue;
+                treeNumbersOfTerms.computeIfAbsent(term, t -> new ArrayList<>(2)).add(treeNumber);
+            }
+        }
+        return treeNumbersOfTerms;
+    }
+
+    /**
+     * Remove the enclosing double quotes of a csv value (and unescape its double quotes).
+     *
+     * @param value Csv value
+     * @return Unquoted value
+     */
+    private static String unquote(String value) {
+        if (value.length() < 2 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"')
+            return value;
+        return value.substring(1, value.length() - 1).replace("\"\"", "\"");
+    }
+
+
+    /**
+     * Get the path length of two tree numbers in the trie (sum of their distances to the lowest common ancestor).
+     *
+     * @param node1 Trie node of a tree number
+     * @param node2 Trie node of a tree number
+     * @return Path length, -1 if the tree numbers are in different categories
+     */
+    private int treeDistance(int node1, int node2) {
+        int distance = 0;
+        while (depth[node1] > depth[node2]) {
+            node1 = parent[node1];
+            distance++;
+        }
+        while (depth[node2] > depth[node1]) {
+            node2 = parent[node2];
+            distance++;
+        }
+        while (node1 != node2) {
+            node1 = parent[node1];
+            node2 = parent[node2];
+            if (node1 < 0)
+                return -1;
+            distance += 2;
+        }
+        return distance;
+    }
+
+    /**
+     * Get the path length of two terms by their ids: the minimal path length of their tree numbers.
+     *
+     * @param id1 Id of a MeSH term
+     * @param id2 Id of a MeSH term
+     * @return Path length (0 for equal terms and if the terms have no category in common)
+     */
+    public int getPathLength(int id1, int id2) {
+        if (id1 == id2)
+            return 0;
+        int min = Integer.MAX_VALUE;
+        for (int i = firstTreeNumber[id1]; i < firstTreeNumber[id1 + 1]; i++)
+            for (int j = firstTreeNumber[id2]; j < firstTreeNumber[id2 + 1]; j++) {
+                int distance = treeDistance(treeNumbers[i], treeNumbers[j]);
+                if (distance >= 0)
+                    min = Math.min(min, distance);
+            }
+        return min == Integer.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * Calculate the similarity of two MeSH terms by their ids.
+     *
+     * @param id1 Id of a MeSH term
+     * @param id2 Id of a MeSH term
+     * @return Similarity value (0 if the terms have no category in common)
+     */
+    @Override
+    public double similarity(int id1, int id2) {
+        if (id1 == id2)
+            return 1.0;
+        int pathLength = getPathLength(id1, id2);
+        return pathLength == 0 ? 0.0 : 1.0 / pathLength;
+    }
+
+    /**
+     * Calculate the similarity of two MeSH terms by lookup of their ids in the {@link TermDictionary}.
+     *
+     * @param term1 MeSH term
+     * @param term2 MeSH term
+     * @return Similarity value
+     * @throws SimilarityException Thrown if a term has no tree number
+     */
+    @Override
+    public double similarity(String term1, String term2) throws SimilarityException {
+        int id1 = dictionary.id(term1);
+        int id2 = dictionary.id(term2);
+        if (id1 < 0 || id2 < 0)
+            throw new SimilarityException("No similarity found for '" + term1 + "' and '" + term2 + "'!");
+        return similarity(id1, id2);
+    }
+
+
+//##################### Getter ######################
+
+    /**
+     * Get the number of tree numbers of a term.
+     *
+     * @param term MeSH term
+     * @return Number of tree numbers (0 if the term is unknown)
+     */
+    public int numberOfTreeNumbers(String term) {
+        int id = dictionary.id(term);
+        return id < 0 ? 0 : firstTreeNumber[id + 1] - firstTreeNumber[id];
+    }
+
+    /**
+     * Get the number of nodes of the trie (distinct tree number prefixes and categories).
+     *
+     * @return Number of trie nodes
+     */
+    public int trieSize() {
+        return parent.length;
+    }
+
+    /**
+     * Get the dictionary that maps the terms to ids.
+     *
+     * @return Term dictionary
+     */
+    @Override
+    public TermDictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Get all terms and their CUIs.
+     * Note that CUIs are not supported here, i.e. the map is always empty!
+     *
+     * @return HashMap with keys=terms, values=CUIs
+     */
+    @Override
+    public Map<String, String> getTermsWithCUIs() {
+        return new HashMap<>();
+    }
+
+    /**
+     * Get a set of all terms (in lexicographical order).
+     *
+     * @return Term set
+     */
+    @Override
+    public Set<String> getTerms() {
+        return dictionary.asSet();
+    }
+
+
+//##################### Main ######################
+
+    /**
+     * Test unit that loads a tree number file, prints its size and compares the tree distances to the shortest
+     * path lengths of a path length file (number of equal path lengths and mean absolute difference of the pairs
+     * with a path length in both, number of pairs that have a path length in only one of them).
+     *
+     * @param args Tree number file and path length csv- or zip-File
+     *             (default: csv/ctree2019MeSH.csv csv/pathlengths1000.zip)
+     * @throws IOException Error on file read
+     */
+    public static void main(String[] args) throws IOException {
+        String separ = File.separator;
+        String treeNumberFile = args.length > 0 ? args[0] : "csv" + separ + "ctree2019MeSH.csv";
+        String pathLengthFile = args.length > 1 ? args[1] : "csv" + separ + "pathlengths1000.zip";
+
+        long time = System.nanoTime();
+        TreeNumberSimilarity similarity = new TreeNumberSimilarity(treeNumberFile);
+        time = System.nanoTime() - time;
+        System.out.println("Loaded " + similarity.getTerms().size() + " terms with " + similarity.treeNumbers.length
+                + " tree numbers (" + similarity.trieSize() + " trie nodes) in " + time / 1000000000.0
+                + " seconds!");
+
+        PathLengthSimilarity pathLengths = new PathLengthSimilarity(pathLengthFile);
+        TermDictionary dictionary = pathLengths.getDictionary();
+        int[] ids = new int[dictionary.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = similarity.dictionary.id(dictionary.term(i));
+
+        long pairs = 0;
+        long equal = 0;
+        long difference = 0;
+        long onlyTree = 0;
+        long onlyPathLengths = 0;
+        int missing = 0;
+        time = System.nanoTime();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] < 0) {
+                missing++;
+                continue;
+            }
+            for (int j = 0; j < i; j++) {
+                if (ids[j] < 0)
+                    continue;
+                int expected = pathLengths.getPathLength(i, j);
+                int pathLength = similarity.getPathLength(ids[i], ids[j]);
+                if (expected == 0 || pathLength == 0) {
+                    if (expected != 0)
+                        onlyPathLengths++;
+                    else if (pathLength != 0)
+                        onlyTree++;
+                    continue;
+                }
+                pairs++;
+                if (pathLength == expected)
+                    equal++;
+                difference += Math.abs(pathLength - expected);
+            }
+        }
+        time = System.nanoTime() - time;
+        System.out.println("Compared " + pairs + " path lengths in " + time / 1000000000.0 + " seconds ("
+                + missing + " terms without tree numbers): " + equal + " equal, mean absolute difference "
+                + (pairs == 0 ? 0.0 : (double) difference / pairs) + ", " + onlyPathLengths
+                + " pairs without common category, " + onlyTree + " pairs without path length!");
+    }
+
+}
@@ -1,47 +1,87 @@
 package materializedfragments;
 
-import clusteringbasedfragmentation.ClusteringAffinityFunction;
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
+import clusteringbasedfragmentation.SimilarityException;
 import partitionnumbers.RelaxationSelectionGeneralizer;
 import net.sf.jsqlparser.JSQLParserException;
 import net.sf.jsqlparser.expression.Expression;
 import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.Select;
+import net.sf.jsqlparser.statement.select.SelectBody;
+import net.sf.jsqlparser.statement.select.SetOperationList;
+import rewriting.QueryRewriter;
 import rewriting.RelaxationAttributeSelectionFinder;
 
 public class FlexibleQueryAnswering extends RelaxationSelectionGeneralizer {
 
 
-    private ClusteringAffinityFunction affinity;
+    private AbstractClusteringAffinityFunction affinity;
 
-    public FlexibleQueryAnswering(ClusteringAffinityFunction affinity) {
+    public FlexibleQueryAnswering(AbstractClusteringAffinityFunction affinity) {
         this.affinity = affinity;
     }
 
     /**
-     * Generalizes the given query according to the clustering of the ClusteringAffinityFunction
-     * @param sql Query (Note: Must already be rewritten to match the appropriate table fragments)
+     * Generalizes the given query according to the clustering of the affinity function
+     * @param sql Query (Note: Must already be rewritten to match the appropriate table fragments, the union of the
+     *            rewritten queries for several fragments is generalized per fragment)
      * @param affinityFunction Provides clustering and similarity
      *
      */
-    public static String generalize(String sql, ClusteringAffinityFunction affinityFunction) throws JSQLParserException {
+    public static String generalize(String sql, AbstractClusteringAffinityFunction affinityFunction) throws JSQLParserException {
 
         // Parse the query
         Select select = (Select) CCJSqlParserUtil.parse(sql);
+
+        // Union of fragments (e.g. of the sub-clusters of a super-cluster)? -> generalize each query of the union
+        if (select.getSelectBody() instanceof SetOperationList) {
+            for (SelectBody body : ((SetOperationList) select.getSelectBody()).getSelects())
+                generalize((PlainSelect) body, affinityFunction);
+            return select.toString();
+        }
+
         PlainSelect body = (PlainSelect) select.getSelectBody();
+        if (!generalize(body, affinityFunction))
+            return sql;
+        return body.toString();
+    }
+
+    /**
+     * Generalizes the given query in two steps: the first step answers the query with the cluster of the disease
+     * term (see {@link FlexibleQueryAnswering#generalize(String, AbstractClusteringAffinityFunction)}), this second
+     * step with the super-cluster of the disease term (all fragments of its sub-clusters, see
+     * {@link QueryRewriter#rewriteToSuperCluster(String)}), e.g. if the first step returned too few answers.
+     * @param sql Query (Note: Must not be rewritten yet, at most one relaxation attribute selection is supported)
+     * @param affinityFunction Provides (hierarchical) clustering and similarity
+     * @throws SimilarityException If an exception occurs while calculating similarity
+     */
+    public static String generalizeToSuperCluster(String sql, AbstractClusteringAffinityFunction affinityFunction)
+            throws JSQLParserException, SimilarityException {
+        String rewritten = new QueryRewriter(affinityFunction).rewriteToSuperCluster(sql);
+        return generalize(rewritten, affinityFunction);
+    }
+
+    /**
+     * Generalizes the where clause of a query body by omitting the relaxation attribute selections
+     * @param body Query body
+     * @param affinityFunction Provides clustering and similarity
+     * @return True, if the query body contained a relaxation attribute selection
+     */
+    private static boolean generalize(PlainSelect body, AbstractClusteringAffinityFunction affinityFunction) {
         Expression where = body.getWhere();
 
         RelaxationAttributeSelectionFinder finder = new RelaxationAttributeSelectionFinder();
         if (!finder.findRelaxationAttributeSelections(where)) {
             System.out.println("Could not find any relaxation attribute selection condition in the given query body: " +
                     body);  // DEBUG
-            return sql;
+            return false;
         }
 
         FlexibleQueryAnswering generalizer = new FlexibleQueryAnswering(affinityFunction);
         generalizer.visit(where);
         body.setWhere(generalizer.buildWhereExpression());
-        return body.toString();
+        return true;
     }
 
 }
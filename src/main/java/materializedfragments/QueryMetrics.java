@@ -1,6 +1,6 @@
 package materializedfragments;
 
-import clusteringbasedfragmentation.Cluster;
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
 import clusteringbasedfragmentation.ClusteringAffinityFunction;
 import clusteringbasedfragmentation.SimilarityException;
 import clusteringbasedfragmentation.similarityfunctions.SimClusteringTableSimilarity;
@@ -18,6 +18,7 @@ import org.apache.ignite.cache.query.SqlFieldsQuery;
 import org.apache.ignite.configuration.IgniteConfiguration;
 import rewriting.QueryRewriter;
 import rewriting.RelaxationAttributeSelectionFinder;
+import rewriting.UnsupportedExpressionException;
 import utils.IgniteUtils;
 import utils.SQLQueryUtils;
 
@@ -47,7 +48,8 @@ public class QueryMetrics {
      * @throws ClassNotFoundException
      * @throws SQLException
      */
-    public static void printQueryMetrics(ClusteringAffinityFunction affinityFunction) throws ClassNotFoundException, SQLException {
+    public static void printQueryMetrics(AbstractClusteringAffinityFunction affinityFunction)
+            throws ClassNotFoundException, SQLException {
 
         // Register driver
         Class.forName("org.apache.ignite.IgniteJdbcThinDriver");
@@ -59,15 +61,22 @@ public class QueryMetrics {
         stmt.setQueryTimeout(QUERY_TIMEOUT);
 
         // Get some diseases d1, d2, d3 from clustering where d1 and d2 are in the same cluster but d3 is in another one
-        String d1, d2, d3;
+        String d1, d2 = null, d3;
         int clusternumber = 0;
-        while (affinityFunction.getClusters().get(clusternumber).getAdom().size() < 1)
+        while (affinityFunction.clusterSize(clusternumber) < 2)
             clusternumber++;
-        Cluster<String> cluster = affinityFunction.getClusters().get(clusternumber);
-        Cluster<String> cluster2 = affinityFunction.getClusters().get(clusternumber + 1);
-        d1 = cluster.getHead();
-        d2 = cluster.getAdom().iterator().next();
-        d3 = cluster2.getHead();
+        d1 = affinityFunction.getHead(clusternumber);
+        d3 = affinityFunction.getHead(clusternumber + 1);
+        for (String term : affinityFunction.getTerms()) {
+            try {
+                if (!term.equals(d1) && affinityFunction.identifyCluster(term) == clusternumber) {
+                    d2 = term;
+                    break;
+                }
+            } catch (SimilarityException e) {
+                e.printStackTrace();
+            }
+        }
 
 
         // Sample queries
@@ -182,7 +191,8 @@ public class QueryMetrics {
                     for (int j = 0; j < selections.size(); j++) {
                         EqualsTo eq = selections.get(j);
                         String disease = ((StringValue) eq.getRightExpression()).getValue();
-                        partitionSet.add(affinityFunction.identifyCluster(disease));
+                        for (int partition : affinityFunction.getPartitionsOfCluster(affinityFunction.identifyCluster(disease)))
+                            partitionSet.add(partition);
                     }
                     int[] partitions = new int[partitionSet.size()];
                     int j = 0;
@@ -234,7 +244,7 @@ public class QueryMetrics {
      * @throws ClassNotFoundException
      * @throws JSQLParserException
      */
-    public static void printFlexibleAnsweringMetrics(ClusteringAffinityFunction affinityFunction)
+    public static void printFlexibleAnsweringMetrics(AbstractClusteringAffinityFunction affinityFunction)
             throws SQLException, ClassNotFoundException, JSQLParserException, SimilarityException {
 
         // Queries
@@ -262,22 +272,43 @@ public class QueryMetrics {
             String generalized = rewriter.rewrite(q);
             generalized = FlexibleQueryAnswering.generalize(q, affinityFunction);
             System.out.println("Rewritten & Generalized Query: " + generalized);
+            measureFlexibleAnswering(stmt, generalized);
 
-            // Execute 10 times
-            long[] times = new long[10];
-            long before;
-            for (int i = 0; i < 10; i++) {
-                before = System.nanoTime();
-                ResultSet res = stmt.executeQuery(generalized);
-                List<List<?>> allTuples = SQLQueryUtils.fetchAll(res);
-                times[i] = System.nanoTime() - before;
+            // Second relaxation step: super-cluster of the disease term (only for one relaxation attribute selection)
+            try {
+                String superGeneralized = FlexibleQueryAnswering.generalizeToSuperCluster(q, affinityFunction);
+                System.out.println("Generalized Query (super-cluster): " + superGeneralized);
+                measureFlexibleAnswering(stmt, superGeneralized);
+            } catch (UnsupportedExpressionException e) {
+                System.out.println("No relaxation to the super-cluster: " + e.getMessage());
             }
+        }
 
-            // Avg
-            long avg = SQLQueryUtils.avg(times);
-            System.out.println("Avg. Time: " + avg / 1000000000.0 + "s");
+    }
+
+
+    /**
+     * Execute a generalized query 10 times and print the average time and the number of answers.
+     * @param stmt Statement
+     * @param generalized Generalized query
+     * @throws SQLException
+     */
+    private static void measureFlexibleAnswering(Statement stmt, String generalized) throws SQLException {
+        long[] times = new long[10];
+        long before;
+        int answers = 0;
+        for (int i = 0; i < 10; i++) {
+            before = System.nanoTime();
+            ResultSet res = stmt.executeQuery(generalized);
+            List<List<?>> allTuples = SQLQueryUtils.fetchAll(res);
+            times[i] = System.nanoTime() - before;
+            answers = allTuples.size();
         }
 
+        // Avg
+        long avg = SQLQueryUtils.avg(times);
+        System.out.println("Avg. Time: " + avg / 1000000000.0 + "s, Answers: " + answers);
+
     }
 
 
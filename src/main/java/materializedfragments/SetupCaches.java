@@ -25,7 +25,7 @@ public class SetupCaches {
     /**
      * Affinity Function with clustering and partition mappings
      */
-    private ClusteringAffinityFunction affinityFunction;
+    private AbstractClusteringAffinityFunction affinityFunction;
 
 
     /**
@@ -84,7 +84,7 @@ public class SetupCaches {
      * @param affinityFunction Affinity Function for clustering-based fragmentation
      * @param addresses        Addresses of the ignite nodes for DiscoverySpi
      */
-    public SetupCaches(ClusteringAffinityFunction affinityFunction, Collection<String> addresses)
+    public SetupCaches(AbstractClusteringAffinityFunction affinityFunction, Collection<String> addresses)
             throws SQLException, ClassNotFoundException {
         this(affinityFunction, addresses, 0, 0, true, true, false, false);
     }
@@ -105,8 +105,8 @@ public class SetupCaches {
      * @param initSimCache        If set to true, then the similarity cache will be created and initialized.
      * @param initClusteringCache If set to true, then the clustering cache will be created and initialized.
      */
-    public SetupCaches(ClusteringAffinityFunction affinityFunction, Collection<String> addresses, long p, long d,
-                       boolean recreateTables, boolean clearTables, boolean initSimCache, boolean initClusteringCache)
+    public SetupCaches(AbstractClusteringAffinityFunction affinityFunction, Collection<String> addresses,
+                       long p, long d, boolean recreateTables, boolean clearTables, boolean initSimCache, boolean initClusteringCache)
             throws ClassNotFoundException, SQLException {
 
         this.affinityFunction = affinityFunction;
@@ -172,7 +172,7 @@ public class SetupCaches {
         this.infoCaches = new ArrayList<>();
         this.illCaches = new ArrayList<>();
         this.treatCaches = new ArrayList<>();
-        for (int id = 0; id < this.affinityFunction.getClusters().size(); id++) {
+        for (int id = 0; id < this.affinityFunction.numberOfClusters(); id++) {
             this.infoCaches.add(id, this.client.cache(cachePrefix + "INFO_" + id));
             this.illCaches.add(id, this.client.cache(cachePrefix + "ILL_" + id));
             this.treatCaches.add(id, this.client.cache(cachePrefix + "TREAT_" + id));
@@ -193,7 +193,7 @@ public class SetupCaches {
     private void createTables(Connection conn, boolean recreateTables) throws SQLException {
 
         Statement stmt = conn.createStatement();
-        for (int i = 0; i < this.affinityFunction.getClusters().size(); i++) {
+        for (int i = 0; i < this.affinityFunction.numberOfClusters(); i++) {
 
             // INFO
             if (recreateTables)
@@ -384,7 +384,7 @@ public class SetupCaches {
         // Prepared statements (because ' in names and addresses need to be escaped ...
         ArrayList<PreparedStatement> insertIll = new ArrayList<>();
         ArrayList<PreparedStatement> insertInfo = new ArrayList<>();
-        for (int i = 0; i < this.affinityFunction.getClusters().size(); i++) {
+        for (int i = 0; i < this.affinityFunction.numberOfClusters(); i++) {
             String insert = "INSERT INTO ILL_" + i + " (ID, DISEASE, CUI) VALUES (?, ?, ?)";
             insertIll.add(i, conn.prepareStatement(insert));
 
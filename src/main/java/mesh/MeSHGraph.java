@@ -0,0 +1,573 @@
+package mesh;
+
+import clusteringbasedfragmentation.similarityfunctions.MappedPathLengthSimilarity;
+import clusteringbasedfragmentation.similarityfunctions.PathLengthSimilarity;
+import clusteringbasedfragmentation.similarityfunctions.TermDictionary;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * <p>
+ * In-process MeSH descriptor graph for the calculation of the shortest path lengths between MeSH (disease) terms
+ * without a graph database. The graph consists of the descriptors and their (undirected) broaderDescriptor
+ * relations, as traversed by the shortestPath Cypher query of {@link neo4j.PathLengthCSV}. It is loaded from a
+ * MeSH N-Triples dump (e.g. mesh.nt or mesh.nt.gz from ftp://nlmpubs.nlm.nih.gov/online/mesh/rdf/) and stored
+ * as int adjacency arrays (compressed sparse rows), so a breadth-first search from a term touches only
+ * primitive arrays. </p>
+ * <p>
+ * The pairwise path lengths of a term set are calculated by one breadth-first search per term, distributed over
+ * several threads (see {@link MeSHGraph#pathLengths(Collection, int)}). The result is a
+ * {@link PathLengthSimilarity} that can be written as path length csv- or zip-File (like
+ * {@link neo4j.PathLengthCSV#makeCSV(String, String, String, int, String)}) or as binary path length file
+ * (see {@link MappedPathLengthSimilarity}). </p>
+ */
+public class MeSHGraph {
+
+    /**
+     * Prefix of the MeSH resource URIs (descriptors and tree numbers)
+     */
+    private static final String MESH = "<http://id.nlm.nih.gov/mesh/";
+
+    /**
+     * Predicate of the broader descriptor relation
+     */
+    private static final String BROADER_DESCRIPTOR = "<http://id.nlm.nih.gov/mesh/vocab#broaderDescriptor>";
+
+    /**
+     * Predicate of the tree number relation
+     */
+    private static final String TREE_NUMBER = "<http://id.nlm.nih.gov/mesh/vocab#treeNumber>";
+
+    /**
+     * Predicate of the labels
+     */
+    private static final String LABEL = "<http://www.w3.org/2000/01/rdf-schema#label>";
+
+    /**
+     * Descriptor identifier (e.g. D000006) of each node
+     */
+    private final String[] descriptors;
+
+    /**
+     * Label (MeSH term) of each node (null if the dump contains no label for the descriptor)
+     */
+    private final String[] labels;
+
+    /**
+     * Node of each label
+     */
+    private final HashMap<String, Integer> nodeOfLabel;
+
+    /**
+     * Nodes with a tree number of the diseases category (C)
+     */
+    private final BitSet diseases;
+
+    /**
+     * Index of the first neighbor of each node in {@link MeSHGraph#neighbors} (with the number of adjacency
+     * entries as last entry)
+     */
+    private final int[] offsets;
+
+    /**
+     * Neighbors of all nodes (broader and narrower descriptors)
+     */
+    private final int[] neighbors;
+
+
+    /**
+     * Construct the graph from its nodes and edges.
+     *
+     * @param descriptors Descriptor identifier of each node
+     * @param labels      Label of each node (null if unknown)
+     * @param diseases    Nodes with a tree number of the diseases category
+     * @param edges       Edges (pairs of nodes, two entries per edge)
+     * @param edgeCount   Number of edges
+     */
+    private MeSHGraph(String[] descriptors, String[] labels, BitSet diseases, int[] edges, int edgeCount) {
+        this.descriptors = descriptors;
+        this.labels = labels;
+        this.diseases = diseases;
+        this.nodeOfLabel = new HashMap<>(labels.length * 4 / 3 + 1);
+        for (int i = 0; i < labels.length; i++)
+            if (labels[i] != null)
+                nodeOfLabel.put(labels[i], i);
+
+        // Compressed sparse rows: count the degrees, then fill the neighbors of each node
+        int n = descriptors.length;
+        this.offsets = new int[n + 1];
+        for (int e = 0; e < 2 * edgeCount; e++)
+            offsets[edges[e] + 1]++;
+        for (int i = 0; i < n; i++)
+            offsets[i + 1] += offsets[i];
+        this.neighbors = new int[2 * edgeCount];
+        int[] next = Arrays.copyOf(offsets, n);
+        for (int e = 0; e < edgeCount; e++) {
+            int from = edges[2 * e];
+            int to = edges[2 * e + 1];
+            neighbors[next[from]++] = to;
+            neighbors[next[to]++] = from;
+        }
+    }
+
+
+//##################### Loading ######################
+
+    /**
+     * Load the descriptor graph from a MeSH N-Triples dump. Only the broaderDescriptor relations, the tree numbers
+     * and the labels of the descriptors are read, all other triples are skipped.
+     *
+     * @param file N-Triples file, may be gzip-compressed (*.gz) or a zip-File containing it as first entry (*.zip)
+     * @return MeSH graph
+     * @throws IOException Error on file read
+     */
+    public static MeSHGraph readNTriples(String file) throws IOException {
+        System.out.println("Loading MeSH graph from N-Triples file '" + file + "' ...");
+        long time = System.nanoTime();
+
+        HashMap<String, Integer> nodes = new HashMap<>();
+        ArrayList<String> labels = new ArrayList<>();
+        BitSet diseases = new BitSet();
+        int[] edges = new int[1 << 16];
+        int edgeCount = 0;
+
+        String line;
+        try (BufferedReader reader = openReader(file)) {
+            while ((line = reader.readLine()) != null) {
+
+                // Subject and predicate (skip comments and subjects that are not MeSH resources)
+                if (!line.startsWith(MESH))
+                    continue;
+                int subjectEnd = line.indexOf('>');
+                int predicateEnd = line.indexOf('>', subjectEnd + 2);
+                if (subjectEnd < 0 || predicateEnd < 0)
+                    continue;
+                String subject = line.substring(MESH.length(), subjectEnd);
+                if (!isDescriptor(subject))
+                    continue;
+                String predicate = line.substring(subjectEnd + 2, predicateEnd + 1);
+                String object = line.substring(predicateEnd + 2, line.lastIndexOf('.')).trim();
+
+                if (predicate.equals(BROADER_DESCRIPTOR) && object.startsWith(MESH)) {
+                    if (2 * edgeCount + 2 > edges.length)
+                        edges = Arrays.copyOf(edges, 2 * edges.length);
+                    edges[2 * edgeCount] = node(subject, nodes, labels);
+                    edges[2 * edgeCount + 1] = node(object.substring(MESH.length(), object.length() - 1), nodes,
+                            labels);
+                    edgeCount++;
+                } else if (predicate.equals(TREE_NUMBER) && object.startsWith(MESH + "C")) {
+                    diseases.set(node(subject, nodes, labels));
+                } else if (predicate.equals(LABEL) && object.startsWith("\"")) {
+                    labels.set(node(subject, nodes, labels), unescape(object.substring(1, object.lastIndexOf('"'))));
+                }
+            }
+        }
+
+        String[] descriptors = new String[nodes.size()];
+        for (Map.Entry<String, Integer> node : nodes.entrySet())
+            descriptors[node.getValue()] = node.getKey();
+        MeSHGraph graph = new MeSHGraph(descriptors, labels.toArray(new String[0]), diseases, edges, edgeCount);
+
+        time = System.nanoTime() - time;
+        System.out.println("Loaded MeSH graph with " + descriptors.length + " descriptors, " + edgeCount
+                + " broaderDescriptor relations and " + diseases.cardinality() + " diseases in "
+                + time / 1000000000.0 + " seconds!");
+        return graph;
+    }
+
+    /**
+     * Read a set of terms from file: either one term per line (e.g. csv/terms100.txt) or the MeSH export of
+     * {@link MeSHSPARQL} with one descriptor|term per line (e.g. csv/mesh.zip).
+     *
+     * @param file Term file, may be a zip-File containing it as first entry
+     * @return Terms
+     * @throws IOException Error on file read
+     */
+    public static Set<String> readTerms(String file) throws IOException {
+        TreeSet<String> terms = new TreeSet<>();
+        String line;
+        try (BufferedReader reader = openReader(file)) {
+            while ((line = reader.readLine()) != null) {
+                String term = line.substring(line.indexOf('|') + 1).trim();
+                if (!term.isEmpty())
+                    terms.add(term);
+            }
+        }
+        return terms;
+    }
+
+    /**
+     * Get the node of a descriptor, add the descriptor if it is not contained yet.
+     *
+     * @param descriptor Descriptor identifier
+     * @param nodes      Node of each descriptor
+     * @param labels     Label of each node
+     * @return Node
+     */
+    private static int node(String descriptor, HashMap<String, Integer> nodes, ArrayList<String> labels) {
+        Integer node = nodes.get(descriptor);
+        if (node == null) {
+            node = nodes.size();
+            nodes.put(descriptor, node);
+            labels.add(null);
+        }
+        return node;
+    }
+
+    /**
+     * Check if a MeSH resource is a descriptor (D followed by digits), not a tree number, concept, term or
+     * qualifier.
+     *
+     * @param resource Local name of the MeSH resource
+     * @return True if the resource is a descriptor
+     */
+    private static boolean isDescriptor(String resource) {
+        if (resource.length() < 2 || resource.charAt(0) != 'D')
+            return false;
+        for (int i = 1; i < resource.length(); i++)
+            if (!Character.isDigit(resource.charAt(i)))
+                return false;
+        return true;
+    }
+
+    /**
+     * Unescape the string of an N-Triples literal (\", \\, \n, \r, \t, \\uXXXX and \\UXXXXXXXX).
+     *
+     * @param literal Escaped string
+     * @return Unescaped string
+     */
+    private static String unescape(String literal) {
+        if (literal.indexOf('\\') < 0)
+            return literal;
+        StringBuilder sb = new StringBuilder(literal.length());
+        for (int i = 0; i < literal.length(); i++) {
+            char c = literal.charAt(i);
+            if (c != '\\' || i + 1 == literal.length()) {
+                sb.append(c);
+                continue;
+            }
+            c = literal.charAt(++i);
+            switch (c) {
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'u':
+                    sb.append((char) Integer.parseInt(literal.substring(i + 1, i + 5), 16));
+                    i += 4;
+                    break;
+                case 'U':
+                    sb.appendCodePoint(Integer.parseInt(literal.substring(i + 1, i + 9), 16));
+                    i += 8;
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Open a file for reading: gzip-compressed (*.gz), a zip-File containing it as first entry (*.zip) or plain.
+     *
+     * @param file Path to file
+     * @return Reader
+     * @throws IOException Error on file read or empty zip-File
+     */
+    private static BufferedReader openReader(String file) throws IOException {
+        if (file.endsWith(".gz"))
+            return new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(file), 1 << 16),
+                    StandardCharsets.UTF_8), 1 << 16);
+        if (!file.endsWith(".zip"))
+            return new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8),
+                    1 << 16);
+
+        ZipInputStream zip = new ZipInputStream(new FileInputStream(file));
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null && entry.isDirectory())
+            ;
+        if (entry == null) {
+            zip.close();
+            throw new IOException("No file found in zip-File '" + file + "'!");
+        }
+        return new BufferedReader(new InputStreamReader(zip, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+
+//##################### Path lengths ######################
+
+    /**
+     * Calculate the pairwise shortest path lengths of the terms by one breadth-first search per term. The search
+     * of term i only needs the path lengths to the terms 0, ..., i-1 (one row of the packed triangular matrix of
+     * the {@link PathLengthSimilarity}) and stops as soon as all of them are reached. The searches are distributed
+     * round-robin over the threads, each thread writes only the rows of its own terms.
+     *
+     * @param terms       Terms (labels of the descriptors, terms that are not contained in the graph get no path
+     *                    lengths)
+     * @param parallelism Number of threads (1 = sequential)
+     * @return Path length similarity function (path length 0 = unknown if there is no path)
+     */
+    public PathLengthSimilarity pathLengths(Collection<String> terms, int parallelism) {
+        TermDictionary dictionary = new TermDictionary(terms);
+        int n = dictionary.size();
+        byte[] pathLengths = new byte[dictionary.pairCount()];
+
+        // Node of each term (-1 if unknown) and term of each node (-1 if no term)
+        int[] nodeOfTerm = new int[n];
+        int[] termOfNode = new int[descriptors.length];
+        Arrays.fill(termOfNode, -1);
+        int unknown = 0;
+        for (int i = 0; i < n; i++) {
+            Integer node = nodeOfLabel.get(dictionary.term(i));
+            nodeOfTerm[i] = node == null ? -1 : node;
+            if (node == null)
+                unknown++;
+            else
+                termOfNode[node] = i;
+        }
+        if (unknown > 0)
+            System.out.println("Warning: " + unknown + " of " + n + " terms are not contained in the MeSH graph!");
+
+        System.out.println("Calculating " + dictionary.pairCount() + " path lengths of " + n + " terms ("
+                + parallelism + " threads) ...");
+        long time = System.nanoTime();
+
+        int threads = Math.max(1, Math.min(parallelism, n));
+        List<Callable<Void>> tasks = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            final int first = t;
+            tasks.add(() -> {
+                int[] distance = new int[descriptors.length];
+                int[] queue = new int[descriptors.length];
+                Arrays.fill(distance, -1);
+                for (int i = first; i < n; i += threads)
+                    if (nodeOfTerm[i] >= 0)
+                        breadthFirstSearch(i, nodeOfTerm, termOfNode, distance, queue, pathLengths);
+                return null;
+            });
+        }
+        invokeAll(tasks, threads);
+
+        time = System.nanoTime() - time;
+        System.out.println("Calculated path lengths in " + time / 1000000000.0 + " seconds!");
+        return new PathLengthSimilarity(dictionary, pathLengths);
+    }
+
+    /**
+     * Breadth-first search from a term until all terms with smaller ids are reached (or the component of the term
+     * is exhausted). Stores the path lengths in the row of the term.
+     *
+     * @param term        Id of the term
+     * @param nodeOfTerm  Node of each term (-1 if unknown)
+     * @param termOfNode  Term of each node (-1 if no term)
+     * @param distance    Distance of each node (all -1, restored after the search)
+     * @param queue       Queue of the search (at least one entry per node)
+     * @param pathLengths Packed triangular matrix of the path lengths
+     */
+    private void breadthFirstSearch(int term, int[] nodeOfTerm, int[] termOfNode, int[] distance, int[] queue,
+                                    byte[] pathLengths) {
+        int row = TermDictionary.rowOffset(term);
+        int remaining = term;
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = nodeOfTerm[term];
+        distance[nodeOfTerm[term]] = 0;
+
+        while (head < tail && remaining > 0) {
+            int node = queue[head++];
+            int d = distance[node] + 1;
+            for (int e = offsets[node]; e < offsets[node + 1]; e++) {
+                int neighbor = neighbors[e];
+                if (distance[neighbor] >= 0)
+                    continue;
+                distance[neighbor] = d;
+                queue[tail++] = neighbor;
+                int other = termOfNode[neighbor];
+                if (other >= 0 && other < term) {
+                    if (d > PathLengthSimilarity.MAX_PATH_LENGTH)
+                        throw new IllegalStateException("Path length " + d + " of '" + labels[nodeOfTerm[term]]
+                                + "' and '" + labels[neighbor] + "' exceeds " + PathLengthSimilarity.MAX_PATH_LENGTH
+                                + "!");
+                    pathLengths[row + other] = (byte) d;
+                    remaining--;
+                }
+            }
+        }
+
+        // Reset the distances of the visited nodes for the next search
+        for (int i = 0; i < tail; i++)
+            distance[queue[i]] = -1;
+    }
+
+    /**
+     * Invoke all tasks on a pool of threads (or sequentially for a single thread).
+     *
+     * @param tasks       Tasks
+     * @param parallelism Number of threads
+     */
+    private static void invokeAll(List<Callable<Void>> tasks, int parallelism) {
+        ForkJoinPool pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        try {
+            if (pool == null) {
+                for (Callable<Void> task : tasks)
+                    task.call();
+            } else {
+                for (Future<Void> future : pool.invokeAll(tasks))
+                    future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Path length calculation failed.", e.getCause());
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Path length calculation was interrupted.", e);
+        } catch (Exception e) {
+            throw new IllegalStateException("Path length calculation failed.", e);
+        } finally {
+            if (pool != null)
+                pool.shutdown();
+        }
+    }
+
+
+//##################### Writing ######################
+
+    /**
+     * Write the path lengths as path length csv-File ("|"-separated, term1|term2|pathLength with term1 < term2,
+     * pairs without a path are omitted), readable by {@link PathLengthSimilarity#PathLengthSimilarity(String)}.
+     * If the output file ends with .zip, the csv-File is written as entry of a zip-File (like
+     * csv/pathlengths1000.zip), if it ends with .bin, the binary path length file of
+     * {@link MappedPathLengthSimilarity} is written instead.
+     *
+     * @param similarity Path lengths
+     * @param output     Path to the output file
+     * @return Number of written path lengths
+     * @throws IOException Error on file write
+     */
+    public static long write(PathLengthSimilarity similarity, String output) throws IOException {
+        TermDictionary dictionary = similarity.getDictionary();
+        if (output.endsWith(".bin")) {
+            MappedPathLengthSimilarity.write(similarity, output);
+            return dictionary.pairCount();
+        }
+
+        long count = 0;
+        OutputStream out = new FileOutputStream(output);
+        if (output.endsWith(".zip")) {
+            ZipOutputStream zip = new ZipOutputStream(out);
+            String name = new File(output).getName();
+            zip.putNextEntry(new ZipEntry(name.substring(0, name.length() - 4) + ".csv"));
+            out = zip;
+        }
+        try (Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16)) {
+            for (int i = 0; i < dictionary.size(); i++) {
+                for (int j = i + 1; j < dictionary.size(); j++) {
+                    int pathLength = similarity.getPathLength(i, j);
+                    if (pathLength == 0)
+                        continue;
+                    writer.write(dictionary.term(i));
+                    writer.write('|');
+                    writer.write(dictionary.term(j));
+                    writer.write('|');
+                    writer.write(Integer.toString(pathLength));
+                    writer.write('\n');
+                    count++;
+                }
+            }
+        }
+        System.out.println("Wrote " + count + " path lengths of " + dictionary.size() + " terms to '" + output
+                + "'!");
+        return count;
+    }
+
+
+//##################### Getter ######################
+
+    /**
+     * Get the number of descriptors
+     *
+     * @return Number of nodes
+     */
+    public int size() {
+        return descriptors.length;
+    }
+
+    /**
+     * Get the number of broaderDescriptor relations
+     *
+     * @return Number of edges
+     */
+    public int edges() {
+        return neighbors.length / 2;
+    }
+
+    /**
+     * Get the descriptor of a term
+     *
+     * @param term MeSH term (label of the descriptor)
+     * @return Descriptor identifier (e.g. D000006) or null if the term is not contained in the graph
+     */
+    public String getDescriptor(String term) {
+        Integer node = nodeOfLabel.get(term);
+        return node == null ? null : descriptors[node];
+    }
+
+    /**
+     * Get the terms of all descriptors with a tree number of the diseases category (C), i.e. the MeSH disease
+     * terms ("All" set).
+     *
+     * @return Disease terms
+     */
+    public Set<String> getDiseaseTerms() {
+        TreeSet<String> terms = new TreeSet<>();
+        for (int i = diseases.nextSetBit(0); i >= 0; i = diseases.nextSetBit(i + 1))
+            if (labels[i] != null)
+                terms.add(labels[i]);
+        return terms;
+    }
+
+
+//##################### Main ######################
+
+    /**
+     * Calculate the pairwise path lengths of the MeSH disease terms from an N-Triples dump and write them to a
+     * path length file.
+     *
+     * @param args N-Triples file (mesh.nt, mesh.nt.gz or zip-File), output file (csv-, zip- or bin-File),
+     *             optional term file (one term per line or descriptor|term as csv/mesh.zip, default: all disease
+     *             terms of the dump) and number of threads (default: number of processors)
+     * @throws IOException Error on file read/write
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: MeSHGraph <mesh.nt[.gz|.zip]> <output.csv|.zip|.bin> [termFile] [threads]");
+            return;
+        }
+        String ntFile = args[0];
+        String output = args[1];
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        MeSHGraph graph = readNTriples(ntFile);
+        Set<String> terms = args.length > 2 ? readTerms(args[2]) : graph.getDiseaseTerms();
+        write(graph.pathLengths(terms, threads), output);
+    }
+
+}
@@ -12,6 +12,13 @@ import java.io.*;
 import java.sql.Statement;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,18 +28,67 @@ import java.util.stream.Stream;
  * calculation between the terms as one divided by the length of the shortest path
  * between two terms.
  */
-public class Neo4JSimilarity implements MeSHSimilarityFunction, Serializable {
+public class Neo4JSimilarity implements MeSHSimilarityFunction, Serializable, AutoCloseable {
 
 
     private static final long serialVersionUID = 410875681206734027L;
 
+    /**
+     * Cypher-Query for the shortest path lengths of a batch of term pairs (parameter 'pairs' = list of [term1, term2])
+     */
+    private static final String BATCH_CYPHER = "UNWIND $pairs AS pair\n"
+            + "MATCH (n:`http://id.nlm.nih.gov/mesh/vocab#TopicalDescriptor`) "
+            + "WHERE n.`http://www.w3.org/2000/01/rdf-schema#label`=pair[0]\n"
+            + "MATCH (m:`http://id.nlm.nih.gov/mesh/vocab#TopicalDescriptor`) "
+            + "WHERE m.`http://www.w3.org/2000/01/rdf-schema#label`=pair[1]\n"
+            + "MATCH p = shortestPath((n)-[*]-(m)) WHERE ALL(rel in relationships(p) "
+            + "WHERE type(rel) in [\"http://id.nlm.nih.gov/mesh/vocab#broaderDescriptor\"])\n"
+            + "RETURN pair[0], pair[1], length(p);";
+
 
     /**
      * Map for caching path lengths used for pairwise pathLengths of MeSH (disease) terms:
      * - key = term1 + '+' + term2   (lexicographically ordered)
      * - value = length(shortestPath(term1, term2))
      */
-    private HashMap<String, Integer> pathLengths;
+    private ConcurrentHashMap<String, Integer> pathLengths;
+
+    /**
+     * Requests for path lengths that are not resolved yet (key = term1 + '+' + term2), shared by all threads
+     * missing the same pair
+     */
+    private transient ConcurrentHashMap<String, CompletableFuture<Integer>> pendingPathLengths =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Term pairs (lexicographically ordered) to be resolved by the next batched query
+     */
+    private transient ConcurrentLinkedQueue<String[]> missQueue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Lock of the thread querying the Neo4J-DB for the enqueued term pairs
+     */
+    private transient ReentrantLock flushLock = new ReentrantLock();
+
+    /**
+     * Long-lived Bolt driver (created on the first query)
+     */
+    private transient Driver driver;
+
+    /**
+     * Maximum number of term pairs per batched query
+     */
+    private int maxBatchSize = 1000;
+
+    /**
+     * Maximum number of pooled connections of the Bolt driver
+     */
+    private int maxConnectionPoolSize = 16;
+
+    /**
+     * Maximum time in milliseconds to wait for the path length of a pending request
+     */
+    private long requestTimeout = 600000;
 
     /**
      * Set of terms.
@@ -90,7 +146,7 @@ public class Neo4JSimilarity implements MeSHSimilarityFunction, Serializable {
         this.password = password;
 
         // Cache
-        this.pathLengths = new HashMap<>();
+        this.pathLengths = new ConcurrentHashMap<>();
 
         // Term set + identifiers map (needs to be fetched once from Neo4J if not provided explicitly)
         if (terms != null)
@@ -136,7 +192,7 @@ public class Neo4JSimilarity implements MeSHSimilarityFunction, Serializable {
         this.identifiers = null;
 
         // Initialize pathLength map for all pairs of terms
-        this.pathLengths = new HashMap<>();
+        this.pathLengths = new ConcurrentHashMap<>();
         this.initPathLengths(this.terms);
     }
 
@@ -158,7 +214,7 @@ public class Neo4JSimilarity implements MeSHSimilarityFunction, Serializable {
         this.password = password;
 
         // Cache
-        this.pathLengths = pathLengths;
+        this.pathLengths = new ConcurrentHashMap<>(pathLengths);
 
         // Derive term set from path length cache key
         this.terms = (TreeSet<String>) pathLengths.keySet()
@@ -173,7 +229,8 @@ public class Neo4JSimilarity implements MeSHSimilarityFunction, Serializable {
 
     /**
      * Calculates the similarity of two MeSH (disease) terms by querying the Neo4J-DB for the shortest
-     * path between both.
+     * path between both. Concurrent cache misses are coalesced into batched queries
+     * (see {@link Neo4JSimilarity#resolvePathLengths(Collection)}).
      *
      * @param term1 A MeSH Term
      * @param term2 A MeSH Term
@@ -189,58 +246,322 @@ public class Neo4JSimilarity implements MeSHSimilarityFunction, Serializable {
             return 1.0;
 
         // Hashmap key is combined from both terms connected via a '+' char (lexicographically ordered)
-        Integer pathLength;
-        if (z < 0)
-            pathLength = pathLengths.get(term1 + "+" + term2);
-        else
-            pathLength = pathLengths.get(term2 + "+" + term1);
+        String[] pair = z < 0 ? new String[]{term1, term2} : new String[]{term2, term1};
+        Integer pathLength = pathLengths.get(pair[0] + "+" + pair[1]);
 
         // Already cached? If yes, then return value from hashmap
         if (pathLength != null)
-            return 1.0 / pathLength;
+            return similarityOfPathLength(pathLength);
 
-        // Else obtain the similarity from the Neo4J-DB with the following Cypher-Query
-        StringBuilder cypherBuilder = new StringBuilder();
-        cypherBuilder.append("MATCH (n:`http://id.nlm.nih.gov/mesh/vocab#TopicalDescriptor`) ")
-                .append("WHERE n.`http://www.w3.org/2000/01/rdf-schema#label`=\"")
-                .append(term1).append("\" WITH n\n")
-                .append("MATCH (m:`http://id.nlm.nih.gov/mesh/vocab#TopicalDescriptor`) ")
-                .append("WHERE m.`http://www.w3.org/2000/01/rdf-schema#label`=\"")
-                .append(term2).append("\" WITH n,m\n")
-                .append("MATCH p = shortestPath((n)-[*]-(m)) WHERE ALL(rel in relationships(p) ")
-                .append("WHERE type(rel) in [\"http://id.nlm.nih.gov/mesh/vocab#broaderDescriptor\"])\n")
-                .append("RETURN length(p);");
-
-        // Querying
-        double sim;
-        try (Connection conn = DriverManager.getConnection("jdbc:neo4j:bolt://" + ipAddress, user, password)) {
-            Statement stmt = conn.createStatement();
-            ResultSet rs = stmt.executeQuery(cypherBuilder.toString());
-            if (rs.next()) {
-                pathLength = rs.getInt("length(p)");
-                if (pathLength == 0) {
-                    sim = 0.0;
-                } else
-                    sim = 1.0 / pathLength;
-            } else {
-                // No row returned (some of the terms did not match the label of a TopicalDescriptor)
-                sim = -1.0;
-                pathLength = -1;
+        // Else obtain the path length from the Neo4J-DB (together with the misses of other threads)
+        return similarityOfPathLength(resolvePathLengths(Collections.singletonList(pair))
+                .get(pair[0] + "+" + pair[1]));
+    }
+
+    /**
+     * Calculates the similarities of a MeSH (disease) term to many other terms. The path lengths that are not
+     * cached yet are obtained by batched queries (see {@link Neo4JSimilarity#resolvePathLengths(Collection)}).
+     *
+     * @param term   A MeSH Term
+     * @param others Other MeSH Terms
+     * @param out    Array for the similarity of the term to each other term (at least others.size() entries)
+     * @throws SimilarityException Thrown if any exception occurred during similarity calculation
+     */
+    @Override
+    public void similarities(String term, List<String> others, double[] out) throws SimilarityException {
+
+        // Answer equal terms and cached path lengths, collect the other pairs
+        List<String[]> missing = new ArrayList<>();
+        for (int i = 0; i < others.size(); i++) {
+            String other = others.get(i);
+            int z = term.compareTo(other);
+            Integer pathLength = z == 0 ? null : pathLengths.get(z < 0 ? term + "+" + other : other + "+" + term);
+            if (z == 0)
+                out[i] = 1.0;
+            else if (pathLength != null)
+                out[i] = similarityOfPathLength(pathLength);
+            else
+                missing.add(z < 0 ? new String[]{term, other} : new String[]{other, term});
+        }
+        if (missing.isEmpty())
+            return;
+
+        // Obtain the missing path lengths from the Neo4J-DB
+        Map<String, Integer> resolved = resolvePathLengths(missing);
+        for (int i = 0; i < others.size(); i++) {
+            String other = others.get(i);
+            Integer pathLength = resolved.get(term.compareTo(other) < 0 ? term + "+" + other : other + "+" + term);
+            if (pathLength != null)
+                out[i] = similarityOfPathLength(pathLength);
+        }
+    }
+
+    /**
+     * Get the similarity of a path length.
+     *
+     * @param pathLength Path length (-1 if a term is unknown)
+     * @return Similarity value (-1 if a term is unknown, 0 for the path length 0)
+     */
+    private static double similarityOfPathLength(int pathLength) {
+        if (pathLength < 0)
+            return -1.0;
+        return pathLength == 0 ? 0.0 : 1.0 / pathLength;
+    }
+
+
+//##################### Batched path length queries ######################
+
+    /**
+     * Resolve the path lengths of term pairs that are not cached. Each pair is enqueued once (concurrent requests
+     * for the same pair wait for the same result), then the calling thread tries to flush the queue: the thread
+     * holding the flush lock resolves all enqueued pairs of all threads with batched UNWIND queries, while the
+     * other threads enqueue their misses for the next batch and wait for the results. This way, concurrent cache
+     * misses share a query instead of each querying a single path.
+     *
+     * @param pairs Term pairs (lexicographically ordered)
+     * @return Path length of each pair (key = term1 + '+' + term2, -1 if a term did not match a TopicalDescriptor)
+     * @throws SimilarityException Error on querying the Neo4J-DB
+     */
+    private Map<String, Integer> resolvePathLengths(Collection<String[]> pairs) throws SimilarityException {
+
+        // Register the pairs (or join the pending requests of other threads)
+        Map<String, CompletableFuture<Integer>> requests = new HashMap<>();
+        for (String[] pair : pairs) {
+            String key = pair[0] + "+" + pair[1];
+            if (requests.containsKey(key))
+                continue;
+            Integer pathLength = pathLengths.get(key);
+            if (pathLength != null) {
+                requests.put(key, CompletableFuture.completedFuture(pathLength));
+                continue;
             }
-            stmt.close();
-        } catch (SQLException e) {
-            throw new SimilarityException("An SQLException occured:\nSQLState: " + e.getSQLState() + "\n"
-                    + "Message: " + e.getMessage());
+            CompletableFuture<Integer> request = new CompletableFuture<>();
+            CompletableFuture<Integer> pending = pendingPathLengths.putIfAbsent(key, request);
+            if (pending == null)
+                missQueue.add(pair);
+            requests.put(key, pending == null ? request : pending);
         }
 
-        // Cache the shortest path length for the term pair (lexicographically ordered) and return the similarity value
-        if (z < 0)
-            pathLengths.put(term1 + "+" + term2, pathLength);
-        else
-            pathLengths.put(term2 + "+" + term1, pathLength);
-        return sim;
+        // Flush the queue unless all requests were answered meanwhile
+        if (requests.values().stream().anyMatch(request -> !request.isDone()))
+            flushMisses();
+
+        // Collect the path lengths (waiting for the batches of other threads)
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<String, CompletableFuture<Integer>> request : requests.entrySet()) {
+            try {
+                result.put(request.getKey(), request.getValue().get(requestTimeout, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                throw new SimilarityException("Timeout while waiting for the path length of '" + request.getKey()
+                        + "'.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SimilarityException("Interrupted while waiting for the path length of '"
+                        + request.getKey() + "'.", e);
+            } catch (ExecutionException e) {
+                throw new SimilarityException(e.getCause().getMessage(), e.getCause());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resolve all enqueued term pairs with batched queries (at most {@link Neo4JSimilarity#maxBatchSize} pairs per
+     * query). Only one thread at a time queries the Neo4J-DB, the other threads return immediately and wait for
+     * their results: the thread holding the flush lock checks the queue again after releasing the lock, so pairs
+     * enqueued during its last query are not left behind.
+     */
+    private void flushMisses() {
+        while (!missQueue.isEmpty() && flushLock.tryLock()) {
+            try {
+                while (!missQueue.isEmpty()) {
+                    List<String[]> batch = new ArrayList<>();
+                    String[] pair;
+                    while (batch.size() < maxBatchSize && (pair = missQueue.poll()) != null)
+                        batch.add(pair);
+                    queryPathLengths(batch);
+                }
+            } finally {
+                flushLock.unlock();
+            }
+        }
     }
 
+    /**
+     * Query the shortest path lengths of a batch of term pairs with a single Cypher-Query, cache them and answer
+     * the pending requests. On an error, the pending requests of the batch fail with a {@link SimilarityException}.
+     * Requests of the batch that are still pending afterwards (e.g. on an {@link Error}) fail as well, so no thread
+     * waits for them forever.
+     *
+     * @param batch Term pairs (lexicographically ordered)
+     */
+    private void queryPathLengths(List<String[]> batch) {
+        try {
+            List<List<String>> parameter = new ArrayList<>(batch.size());
+            for (String[] pair : batch)
+                parameter.add(Arrays.asList(pair));
+
+            // Querying (the session borrows a connection from the pool of the driver)
+            Map<String, Integer> found = new HashMap<>();
+            try (Session session = driver().session(AccessMode.READ)) {
+                StatementResult result = session.run(BATCH_CYPHER, Values.parameters("pairs", parameter));
+                while (result.hasNext()) {
+                    Record record = result.next();
+                    found.put(record.get(0).asString() + "+" + record.get(1).asString(), record.get(2).asInt());
+                }
+            }
+
+            // Cache the path lengths (-1 if some of the terms did not match the label of a TopicalDescriptor)
+            for (String[] pair : batch) {
+                String key = pair[0] + "+" + pair[1];
+                int pathLength = found.getOrDefault(key, -1);
+                pathLengths.put(key, pathLength);
+                CompletableFuture<Integer> request = pendingPathLengths.remove(key);
+                if (request != null)
+                    request.complete(pathLength);
+            }
+        } catch (RuntimeException e) {
+            failRequests(batch, new SimilarityException("An error occurred while querying the path lengths of "
+                    + batch.size() + " term pairs: " + e.getMessage(), e));
+        } finally {
+            failRequests(batch, null);
+        }
+    }
+
+    /**
+     * Fail the pending requests of a batch of term pairs.
+     *
+     * @param batch     Term pairs (lexicographically ordered)
+     * @param exception Cause of the failure (null: the batch was not resolved)
+     */
+    private void failRequests(List<String[]> batch, SimilarityException exception) {
+        for (String[] pair : batch) {
+            CompletableFuture<Integer> request = pendingPathLengths.remove(pair[0] + "+" + pair[1]);
+            if (request == null)
+                continue;
+            if (exception == null)
+                exception = new SimilarityException("The path lengths of " + batch.size()
+                        + " term pairs could not be queried.");
+            request.completeExceptionally(exception);
+        }
+    }
+
+    /**
+     * Get the long-lived Bolt driver, create it if it is not available yet. The driver maintains a pool of
+     * connections, the sessions of the queries are borrowed from this pool.
+     *
+     * @return Bolt driver
+     */
+    private synchronized Driver driver() {
+        if (driver == null)
+            driver = GraphDatabase.driver("bolt://" + ipAddress, AuthTokens.basic(user, password),
+                    Config.build().withMaxConnectionPoolSize(maxConnectionPoolSize).toConfig());
+        return driver;
+    }
+
+    /**
+     * Close the Bolt driver and its connections (a new driver is created on the next query).
+     */
+    @Override
+    public synchronized void close() {
+        if (driver != null) {
+            driver.close();
+            driver = null;
+        }
+    }
+
+    /**
+     * Restore the transient state for batching the queries after deserialization (e.g. on a remote node).
+     *
+     * @param in Input stream
+     * @throws IOException            Error on reading
+     * @throws ClassNotFoundException Class of a serialized object not found
+     */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        pendingPathLengths = new ConcurrentHashMap<>();
+        missQueue = new ConcurrentLinkedQueue<>();
+        flushLock = new ReentrantLock();
+
+        // Defaults for instances serialized before these settings were added
+        if (maxBatchSize < 1)
+            maxBatchSize = 1000;
+        if (requestTimeout < 1)
+            requestTimeout = 600000;
+    }
+
+
+//##################### Getter & Setter ######################
+
+    /**
+     * Get the maximum number of term pairs per batched query
+     *
+     * @return Maximum batch size
+     */
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Set the maximum number of term pairs per batched query
+     *
+     * @param maxBatchSize Maximum batch size (at least 1)
+     * @return {@code This} for chaining
+     */
+    public Neo4JSimilarity setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize < 1)
+            throw new IllegalArgumentException("The maximum batch size must be at least 1.");
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    /**
+     * Get the maximum time in milliseconds to wait for the path length of a pending request
+     *
+     * @return Request timeout in milliseconds
+     */
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    /**
+     * Set the maximum time in milliseconds to wait for the path length of a pending request (a request that is
+     * not answered in time fails with a {@link SimilarityException})
+     *
+     * @param requestTimeout Request timeout in milliseconds (at least 1)
+     * @return {@code This} for chaining
+     */
+    public Neo4JSimilarity setRequestTimeout(long requestTimeout) {
+        if (requestTimeout < 1)
+            throw new IllegalArgumentException("The request timeout must be at least 1 millisecond.");
+        this.requestTimeout = requestTimeout;
+        return this;
+    }
+
+    /**
+     * Get the maximum number of pooled connections of the Bolt driver
+     *
+     * @return Maximum connection pool size
+     */
+    public int getMaxConnectionPoolSize() {
+        return maxConnectionPoolSize;
+    }
+
+    /**
+     * Set the maximum number of pooled connections of the Bolt driver (takes effect when the driver is created,
+     * i.e. before the first query or after {@link Neo4JSimilarity#close()})
+     *
+     * @param maxConnectionPoolSize Maximum connection pool size (at least 1)
+     * @return {@code This} for chaining
+     */
+    public Neo4JSimilarity setMaxConnectionPoolSize(int maxConnectionPoolSize) {
+        if (maxConnectionPoolSize < 1)
+            throw new IllegalArgumentException("The maximum connection pool size must be at least 1.");
+        this.maxConnectionPoolSize = maxConnectionPoolSize;
+        return this;
+    }
+
+
     /**
      * Get all terms and their identifiers if no concrete term set was provided to the constructor explicitly.
      * If a concrete term set was specified, then only return these terms with their identifiers
@@ -360,22 +681,14 @@ public class Neo4JSimilarity implements MeSHSimilarityFunction, Serializable {
                 .append("m.`http://www.w3.org/2000/01/rdf-schema#label`, length(p);");
 
         // Execute via driver API which allows for streaming results (to avoid memory overflow)
-        try (Driver driver = GraphDatabase.driver("bolt://" + ipAddress, AuthTokens.basic(user, password))) {
-            // Get a session
-            Session session = driver.session(AccessMode.READ);
+        try (Session session = driver().session(AccessMode.READ)) {
 
             // Execute and get the result stream
             Stream<Record> stream = session.run(cypher.toString()).stream();
 
-            // Collect all results in a map: key = term1+term2, value = similarity value
-            pathLengths = (HashMap<String, Integer>) stream.collect(Collectors.toMap(
-//                    r -> r.get(0).asString() + "+" + r.get(1).asString(),
-//                    r -> r.get(2).asInt())
-                    r -> r.get(0).asString() + "+" + r.get(1).asString(),
-                    r -> r.get(2).asInt()
-            ));
+            // Collect all results in the cache: key = term1+term2, value = path length
+            stream.forEach(r -> pathLengths.put(r.get(0).asString() + "+" + r.get(1).asString(), r.get(2).asInt()));
             System.out.println("Finished initialization (cached " + pathLengths.size() + " path lengths)!");
-            session.close();
         }
 
     }
@@ -475,5 +788,27 @@ public class Neo4JSimilarity implements MeSHSimilarityFunction, Serializable {
             System.out.println(key + " = " + neo.pathLengths.get(key));
         }
 
+
+        // Test concurrent cache misses (coalesced into batched queries)
+        neo.pathLengths.clear();
+        List<String> sampleList = new ArrayList<>(sample);
+        before = System.nanoTime();
+        long resolved = sampleList.parallelStream().mapToLong(t1 -> {
+            long count = 0;
+            for (String t2 : sampleList) {
+                try {
+                    if (t1.compareTo(t2) < 0 && neo.similarity(t1, t2) >= 0)
+                        count++;
+                } catch (SimilarityException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            return count;
+        }).sum();
+        diff = System.nanoTime() - before;
+        System.out.println("It took " + diff / 1000000000.0 + "s to resolve " + resolved
+                + " path lengths by concurrent cache misses");
+        neo.close();
+
     }
 }
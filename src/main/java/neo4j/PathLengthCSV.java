@@ -24,6 +24,8 @@ import java.util.stream.Stream;
  * ...
  * and contains a method that reads the output path length csv-File, transforms the path lengths to similarities
  * and returns it in a HashMap (keys=term1+term2 lexicographically ordered, Values=similarity values).
+ * The same path length csv-File can be calculated without a Neo4J-DB from a MeSH N-Triples dump by
+ * {@link mesh.MeSHGraph}.
  */
 public class PathLengthCSV {
 
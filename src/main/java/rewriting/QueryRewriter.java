@@ -1,6 +1,6 @@
 package rewriting;
 
-import clusteringbasedfragmentation.Clustering;
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
 import clusteringbasedfragmentation.ClusteringAffinityFunction;
 import clusteringbasedfragmentation.SimilarityException;
 import net.sf.jsqlparser.JSQLParserException;
@@ -34,12 +34,7 @@ public class QueryRewriter {
     /**
      * Affinity function for the clustering-based fragmentation
      */
-    private ClusteringAffinityFunction affinityFunction;
-
-    /**
-     * Clustering.
-     */
-    private Clustering clustering;
+    private AbstractClusteringAffinityFunction affinityFunction;
 
 
 // ###################################### Constructors ########################################
@@ -48,9 +43,8 @@ public class QueryRewriter {
      * Constructor for a query rewriter and a given affinity function (incl. clustering-based fragmentation).
      * @param affinityFunction Affinity function for the clustering-based fragmentation
      */
-    public QueryRewriter(ClusteringAffinityFunction affinityFunction) {
+    public QueryRewriter(AbstractClusteringAffinityFunction affinityFunction) {
         this.affinityFunction = affinityFunction;
-        this.clustering = this.affinityFunction.getClustering();
     }
 
 
@@ -70,6 +64,46 @@ public class QueryRewriter {
      * @throws SimilarityException If an exception occurs while calculating similarity
      */
     public String rewrite(String sql) throws UnsupportedExpressionException, JSQLParserException, SimilarityException {
+        return this.rewrite(sql, false);
+    }
+
+
+    /**
+     * Takes an SQL query against the medical information system and rewrites it like
+     * {@link QueryRewriter#rewrite(String)}, but for the super-cluster of the disease term of the selection condition
+     * on the relaxation attribute (second relaxation step for a
+     * {@link clusteringbasedfragmentation.HierarchicalClustering}, the first step is the cluster of the term): the
+     * query is rewritten for the fragment of each sub-cluster of the super-cluster and the union of these queries is
+     * returned. The selection condition is kept, so the query can be generalized afterwards (see
+     * {@link materializedfragments.FlexibleQueryAnswering#generalizeToSuperCluster(String, AbstractClusteringAffinityFunction)}).
+     * For a flat clustering, the super-cluster is the cluster of the term and the query is rewritten as by
+     * {@link QueryRewriter#rewrite(String)}.
+     * NOTE: Only queries with at most one selection condition on the relaxation attribute are supported.
+     * @param sql SQL Query
+     * @return Rewritten SQL Query
+     * @throws UnsupportedExpressionException If any unsupported expression occurs while deparsing or if there is more
+     *                                        than one selection condition on the relaxation attribute
+     * @throws JSQLParserException JSQLParser exception upon parsing of the SQL String
+     * @throws SimilarityException If an exception occurs while calculating similarity
+     */
+    public String rewriteToSuperCluster(String sql) throws UnsupportedExpressionException, JSQLParserException,
+            SimilarityException {
+        return this.rewrite(sql, true);
+    }
+
+
+    /**
+     * Rewrite an SQL query for the cluster or super-cluster of the selection condition on the relaxation attribute
+     * (see {@link QueryRewriter#rewrite(String)} and {@link QueryRewriter#rewriteToSuperCluster(String)}).
+     * @param sql SQL Query
+     * @param superCluster Whether the query is rewritten for the super-cluster
+     * @return Rewritten SQL Query
+     * @throws UnsupportedExpressionException If any unsupported expression occurs while deparsing
+     * @throws JSQLParserException JSQLParser exception upon parsing of the SQL String
+     * @throws SimilarityException If an exception occurs while calculating similarity
+     */
+    private String rewrite(String sql, boolean superCluster) throws UnsupportedExpressionException,
+            JSQLParserException, SimilarityException {
 
         String rewrittenSql;
 
@@ -112,7 +146,13 @@ public class QueryRewriter {
 
                 // Reject more than one selection condition on the same instance of relation ILL! Could be the case that
                 // SELECT .. FROM ILL i1, ILL i2 WHERE i1.disease = ... AND i2.disease = ... which is fine!
-                if (checkRelationInstancesOfRelaxSelections(relaxationAttributeSelections)) {
+                if (superCluster) {
+                    if (relaxationAttributeSelections.size() > 1)
+                        throw new UnsupportedExpressionException("There are more than one selection conditions in " +
+                                "the query '" + sql + "' on the relaxation attribute, the rewriting for the " +
+                                "super-cluster is not supported!");
+                    rewrittenSql = this.rewriteToSuperCluster(selectStatement, relaxationAttributeSelections.get(0));
+                } else if (checkRelationInstancesOfRelaxSelections(relaxationAttributeSelections)) {
                     rewrittenSql = this.rewrite(selectStatement, relaxationAttributeSelections);
                 } else {
                     throw new UnsupportedExpressionException("There are more than one selection conditions in the " +
@@ -142,7 +182,23 @@ public class QueryRewriter {
     private SetOperationList localizationProgram(Select select) throws JSQLParserException {
 
         // For each instance of "ILL", "TREAT" and "INFO" relation, get localization program (consider all fragments)
-        int frags = this.clustering.size();
+        int[] fragIDs = new int[this.affinityFunction.numberOfClusters()];
+        for (int i = 0; i < fragIDs.length; i++)
+            fragIDs[i] = i;
+        return this.unionOfFragments(select, fragIDs);
+    }
+
+
+    /**
+     * Create the union of the given {@link Select} statement rewritten for each of the given fragments
+     * @param select Select statement
+     * @param fragIDs Fragment IDs
+     * @return Union of the rewritten statements in form of a {@link SetOperationList}
+     * @throws JSQLParserException Thrown if an error occurs related to the parsing of the Select statement
+     */
+    private SetOperationList unionOfFragments(Select select, int[] fragIDs) throws JSQLParserException {
+
+        int frags = fragIDs.length;
         SetOperationList localization = new SetOperationList();
 
         // Brackets for all
@@ -161,7 +217,7 @@ public class QueryRewriter {
         List<SelectBody> selects = new ArrayList<>(frags);
         Distinct distinct = ((PlainSelect)select.getSelectBody()).getDistinct();
         for (int i = 0; i < frags; i++) {
-            PlainSelect rewrittenBody = this.rewriteBody(select, i);
+            PlainSelect rewrittenBody = this.rewriteBody(select, fragIDs[i]);
             if (distinct != null)
                 rewrittenBody.setDistinct(new Distinct());
             selects.add(rewrittenBody);
@@ -266,6 +322,31 @@ public class QueryRewriter {
     }
 
 
+    /**
+     * Rewrite the given Sql Query for the fragments of all sub-clusters of the super-cluster corresponding to the
+     * found relaxation selection (disease='...MeSH term...').
+     * @param select Select statement
+     * @param relaxSelection Selection condition from the Sql query on the relaxation attribute (left expression is
+     *                       a Column expression, right expression is a StringValue expression
+     * @return Rewritten Sql Query (union of the rewritten queries if the super-cluster has several sub-clusters)
+     * @throws JSQLParserException If an exception occurs while parsing
+     * @throws SimilarityException If an exception occurs while calculating similarity
+     */
+    private String rewriteToSuperCluster(Select select, EqualsTo relaxSelection) throws JSQLParserException,
+            SimilarityException {
+
+        // Identify the fragment ids of the super-cluster
+        String disease = ((StringValue) relaxSelection.getRightExpression()).getValue();
+        int superCluster = this.affinityFunction.identifySuperCluster(disease);
+        int[] fragIDs = this.affinityFunction.getClustersOfSuperCluster(superCluster);
+        if (fragIDs.length == 1)
+            return this.rewrite(select, relaxSelection);
+
+        select.setSelectBody(this.unionOfFragments(select, fragIDs));
+        return select.toString();
+    }
+
+
     /**
      * Rewrite the given Sql Query Body with the fragment id corresponding to the found relaxation selection
      * (disease='...MeSH term...') and the list of relaxation selections (that are all stated on different relation
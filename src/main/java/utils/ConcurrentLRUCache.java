@@ -0,0 +1,250 @@
+package utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>
+ * Thread-safe, size-bounded cache that evicts the least recently used entries. </p>
+ * <p>
+ * The cache is split into segments (selected by the hash code of the key), each of which is an access-ordered
+ * {@link LinkedHashMap} guarded by its own lock, so concurrent accesses to different segments do not block
+ * each other. The LRU order is maintained per segment. Hits, misses and evictions are counted. </p>
+ *
+ * @param <K> Key type
+ * @param <V> Value type
+ */
+public class ConcurrentLRUCache<K, V> {
+
+    /**
+     * Default number of segments
+     */
+    private static final int DFLT_SEGMENTS = 16;
+
+    /**
+     * Segments of the cache, the number of segments is a power of two
+     */
+    private final Segment<K, V>[] segments;
+
+    /**
+     * Maximal number of entries of the cache
+     */
+    private final int capacity;
+
+    /**
+     * Number of lookups that found an entry
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Number of lookups that did not find an entry
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Number of entries that were evicted because the cache was full
+     */
+    private final LongAdder evictions = new LongAdder();
+
+
+    /**
+     * Create a cache with the given maximal number of entries.
+     *
+     * @param capacity Maximal number of entries (at least 1)
+     */
+    public ConcurrentLRUCache(int capacity) {
+        this(capacity, DFLT_SEGMENTS);
+    }
+
+    /**
+     * Create a cache with the given maximal number of entries and number of segments.
+     *
+     * @param capacity Maximal number of entries (at least 1)
+     * @param segments Number of segments (rounded down to a power of two, at most capacity)
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public ConcurrentLRUCache(int capacity, int segments) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("The capacity of the cache must be at least 1, but was " + capacity);
+        this.capacity = capacity;
+        int numSegments = Integer.highestOneBit(Math.max(1, Math.min(segments, capacity)));
+        this.segments = new Segment[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            // distribute the capacity over the segments
+            int segmentCapacity = capacity / numSegments + (i < capacity % numSegments ? 1 : 0);
+            this.segments[i] = new Segment<>(segmentCapacity, evictions);
+        }
+    }
+
+
+    /**
+     * Get the cached value of a key (and mark the entry as recently used).
+     *
+     * @param key Key
+     * @return Cached value or null if the key is not cached
+     */
+    public V get(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value;
+        synchronized (segment) {
+            value = segment.get(key);
+        }
+        if (value == null)
+            misses.increment();
+        else
+            hits.increment();
+        return value;
+    }
+
+    /**
+     * Put a value into the cache (evicts the least recently used entry of the segment if it is full).
+     *
+     * @param key   Key
+     * @param value Value (must not be null)
+     */
+    public void put(K key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null values cannot be cached.");
+        Segment<K, V> segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, value);
+        }
+    }
+
+    /**
+     * Remove all entries (the counters are not reset).
+     */
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * Number of entries in the cache.
+     *
+     * @return Number of entries
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+
+//##################### Getter ######################
+
+    /**
+     * Get the maximal number of entries
+     *
+     * @return Capacity
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of lookups that found an entry
+     *
+     * @return Number of hits
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * Get the number of lookups that did not find an entry
+     *
+     * @return Number of misses
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * Get the number of entries that were evicted because the cache was full
+     *
+     * @return Number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * Get the ratio of hits to all lookups
+     *
+     * @return Hit rate (0 if there were no lookups)
+     */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+        return lookups == 0 ? 0.0 : (double) hits / lookups;
+    }
+
+    /**
+     * Get string representation of the cache statistics
+     *
+     * @return String representation
+     */
+    @Override
+    public String toString() {
+        return "ConcurrentLRUCache: Size = " + size() + "/" + capacity + ", Hits = " + getHitCount() + ", Misses = "
+                + getMissCount() + ", Evictions = " + getEvictionCount() + ", Hit rate = " + getHitRate();
+    }
+
+
+    /**
+     * Get the segment of a key.
+     *
+     * @param key Key
+     * @return Segment
+     */
+    private Segment<K, V> segmentFor(K key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+
+    /**
+     * Segment of the cache: an access-ordered {@link LinkedHashMap} that removes its eldest entry if it
+     * exceeds its capacity.
+     */
+    private static final class Segment<K, V> extends LinkedHashMap<K, V> {
+
+        private static final long serialVersionUID = 2744254196420343524L;
+
+        /**
+         * Maximal number of entries of the segment
+         */
+        private final int capacity;
+
+        /**
+         * Eviction counter of the cache
+         */
+        private final LongAdder evictions;
+
+        private Segment(int capacity, LongAdder evictions) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+            this.evictions = evictions;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            if (size() > capacity) {
+                evictions.increment();
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
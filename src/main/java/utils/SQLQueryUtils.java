@@ -1,6 +1,6 @@
 package utils;
 
-import clusteringbasedfragmentation.ClusteringAffinityFunction;
+import clusteringbasedfragmentation.AbstractClusteringAffinityFunction;
 import clusteringbasedfragmentation.SimilarityException;
 import net.sf.jsqlparser.expression.StringValue;
 import net.sf.jsqlparser.expression.operators.relational.EqualsTo;
@@ -76,23 +76,27 @@ public class SQLQueryUtils {
      *
      * @param selections relaxation attribute selections
      * @param aff        Affinity function to determine partitions according to cluster
-     * @return Partition numbers
+     * @return Partition numbers (all sub-partitions of the identified clusters)
      */
-    public static HashSet<Integer> getPartitionsForSelections(ArrayList<EqualsTo> selections, ClusteringAffinityFunction aff) {
-        int[] partitions = new int[selections.size()];
+    public static HashSet<Integer> getPartitionsForSelections(ArrayList<EqualsTo> selections,
+                                                              AbstractClusteringAffinityFunction aff) {
+        int[] clusters = new int[selections.size()];
         for (int i = 0; i < selections.size(); i++) {
             EqualsTo eq = selections.get(i);
             String term = ((StringValue) eq.getRightExpression()).getValue();
             try {
-                partitions[i] = aff.identifyCluster(term);
+                clusters[i] = aff.identifyCluster(term);
             } catch (SimilarityException e) {
                 e.printStackTrace();
                 System.err.println("An error occured: " + e.getMessage());
             }
         }
+
+        // Each cluster is expanded into all of its sub-partitions
         HashSet<Integer> result = new HashSet<>();
-        for (int i : partitions)
-            result.add(i);
+        for (int cluster : clusters)
+            for (int partition : aff.getPartitionsOfCluster(cluster))
+                result.add(partition);
         return result;
     }
 